@@ -26,6 +26,8 @@ import java.lang.management.ManagementFactory;
 import java.util.Enumeration;
 import java.util.Objects;
 import java.util.Properties;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.UnaryOperator;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 
@@ -70,9 +72,11 @@ public class ApplicationController {
 		String tomcatPort = null;
 		String mySqlPort = null;
 		
-		Properties properties = OpenmrsUtil.getRuntimeProperties(StandaloneUtil.getContextName()); //StandaloneUtil.getRuntimeProperties(); //OpenmrsUtil.getRuntimeProperties(StandaloneUtil.getContextName());
-		if (properties != null) {
-			tomcatPort = properties.getProperty("tomcatport");
+		Properties properties = RuntimeConfig.get(StandaloneUtil.getContextName()).getProperties();
+		tomcatPort = properties.getProperty("tomcatport");
+		if (AsyncLogAppender.OverflowPolicy.DROP.name().equalsIgnoreCase(
+		    properties.getProperty(AsyncLogAppender.KEY_OVERFLOW_POLICY, "").trim())) {
+			AsyncLogAppender.getDefault().setOverflowPolicy(AsyncLogAppender.OverflowPolicy.DROP);
 		}
 
 		OpenmrsUtil.PLATFORM_VERSION = StandaloneUtil.getPlatformVersion();
@@ -166,12 +170,15 @@ public class ApplicationController {
 						}
 					}
 					
+					StartupTimeline.writeReport();
+					
 					//if in non interactive mode, block such that tomcat does not exit
 					if (nonInteractive) {
 						tomcatManager.await();
 					}
 				} else {
 					userInterface.setStatus(UserInterface.STATUS_MESSAGE_STOPPED);
+					StartupTimeline.writeReport();
 				}
 			}
 		};
@@ -227,6 +234,15 @@ public class ApplicationController {
 	 * Creates the application user interface and automatically runs the server
 	 */
 	private void init(boolean commandLineMode, boolean nonInteractive, DatabaseMode mode, String tomcatPort, String mySqlPort) throws Exception {
+		try (StartupTimeline.Phase phase = StartupTimeline.start("init")) {
+			initUserInterfaceAndDatabase(commandLineMode, nonInteractive, mode, tomcatPort, mySqlPort);
+		}
+		
+		start();
+	}
+	
+	private void initUserInterfaceAndDatabase(boolean commandLineMode, boolean nonInteractive, DatabaseMode mode,
+	        String tomcatPort, String mySqlPort) throws Exception {
 		if (commandLineMode) {
 			userInterface = new CommandLine(this, tomcatPort, mySqlPort, nonInteractive, mode);
 		} else {
@@ -249,67 +265,130 @@ public class ApplicationController {
 			}
 		});
 		
-		while (needsInitialConfiguration() && applyDatabaseChange == null) {
-			System.out.println("Initial configuration needed");
-			userInterface.showInitialConfig();
+		//The data directory of an interrupted bulk load cannot be trusted, so load the same dump again
+		String interruptedDump = MariaDbController.getInterruptedBulkLoad();
+		if (interruptedDump != null) {
+			System.out.println("Loading " + interruptedDump + " was interrupted, the database needs to be loaded again");
+			if (interruptedDump.equals("emptydatabase.zip")) {
+				applyDatabaseChange = DatabaseMode.EMPTY_DATABASE;
+			} else if (interruptedDump.equals("demodatabase.zip")) {
+				applyDatabaseChange = DatabaseMode.DEMO_DATABASE;
+			}
+		}
+		
+		//Mostly waiting for the user to choose
+		try (StartupTimeline.Phase phase = StartupTimeline.start("initial-config")) {
+			while (needsInitialConfiguration() && applyDatabaseChange == null) {
+				System.out.println("Initial configuration needed");
+				userInterface.showInitialConfig();
+			}
 		}
 		
 		if (applyDatabaseChange != null) {
-
+			provisionDatabase(applyDatabaseChange, mySqlPort, tomcatPort);
+			
+			deleteNeedsConfigFile();
+			
+			//If launching for the first time, change the mysql password to ensure that
+			//installations do not share the same password. MariaDB is still running from
+			//loading the database, so this and startServer() reuse the same session.
+			mySqlPort = StandaloneUtil.setPortsAndMySqlPassword(mySqlPort, tomcatPort);
+		}
+		
+		userInterface.setStatus(UserInterface.STATUS_MESSAGE_STARTING);
+		userInterface.onFinishedInitialConfigCheck();
+	}
+	
+	/**
+	 * Applies the database mode chosen by the user. The work is run as a graph of phases such that
+	 * unzipping the database, unpacking the MariaDB binaries and probing the ports happen in
+	 * parallel, and only loading the database waits for all of them.
+	 */
+	private void provisionDatabase(final DatabaseMode mode, final String mySqlPort, final String tomcatPort) throws Exception {
+		StartupGraph graph = new StartupGraph("provisioning");
+		
+		graph.add("clean-db-dir", () -> {
 			File dest = new File("db");
 			if (dest.exists()) {
 				if (dest.isDirectory() && dest.listFiles() != null && Objects.requireNonNull(dest.listFiles()).length > 0) {
 					FileUtils.cleanDirectory(dest);
 				}
 			}
-
-			if (applyDatabaseChange == DatabaseMode.USE_INITIALIZATION_WIZARD) {
-				deleteActiveDatabase();
-				StandaloneUtil.resetConnectionPassword();
-				StandaloneUtil.startupDatabaseToCreateDefaultUser(mySqlPort);
-				System.out.println("Database mode using wizard: " + applyDatabaseChange );
-			} else if (applyDatabaseChange == DatabaseMode.EMPTY_DATABASE) {
-				deleteActiveDatabase();
-				unzipDatabase(new File("emptydatabase.zip"));
-				StandaloneUtil.resetConnectionPassword();
-				StandaloneUtil.startupDatabaseToCreateDefaultUser(mySqlPort);
-				System.out.println("Database mode using empty: " + applyDatabaseChange );
-			} else if (applyDatabaseChange == DatabaseMode.DEMO_DATABASE) {
-				deleteActiveDatabase();
-				unzipDatabase(new File("demodatabase.zip"));
-				StandaloneUtil.resetConnectionPassword();
-				StandaloneUtil.startupDatabaseToCreateDefaultUser(mySqlPort);
-				System.out.println("Database mode using demo database: " + applyDatabaseChange );
-			}
+		});
+		
+		if (mode == DatabaseMode.USE_INITIALIZATION_WIZARD || mode == DatabaseMode.EMPTY_DATABASE
+		        || mode == DatabaseMode.DEMO_DATABASE) {
 			
-			deleteNeedsConfigFile();
+			graph.add("delete-active-database", this::deleteActiveDatabase);
+			graph.add("reset-connection-password", StandaloneUtil::resetConnectionPassword);
+			graph.add("probe-ports", () -> probePorts(mySqlPort, tomcatPort));
 			
-			//If launching for the first time, change the mysql password to ensure that
-			//installations do not share the same password.
-			mySqlPort = StandaloneUtil.setPortsAndMySqlPassword(mySqlPort, tomcatPort);
+			if (mode == DatabaseMode.USE_INITIALIZATION_WIZARD) {
+				graph.add("unpack-mariadb", () -> MariaDbController.prepareMariaDB(Integer.parseInt(mySqlPort)),
+				    "delete-active-database", "reset-connection-password");
+				graph.add("load-database",
+				    () -> StandaloneUtil.startupDatabaseToCreateDefaultUser(mySqlPort, true, null, userInterface::showImportProgress),
+				    "clean-db-dir", "unpack-mariadb", "probe-ports");
+			} else {
+				final File zipFile = new File(mode == DatabaseMode.EMPTY_DATABASE ? "emptydatabase.zip" : "demodatabase.zip");
+				//The data directory has to be in place before MariaDB looks at it, and MariaDB is prepared
+				//for its bulk load mode when the dump is going to be imported
+				final AtomicBoolean dataDirRestored = new AtomicBoolean();
+				graph.add("restore-data-dir", () -> dataDirRestored.set(restoreDataDir(zipFile)), "delete-active-database");
+				graph.add("unpack-mariadb", () -> MariaDbController.prepareMariaDB(Integer.parseInt(mySqlPort),
+				    !dataDirRestored.get() && StandaloneUtil.isBulkLoadEnabled()), "restore-data-dir",
+				    "reset-connection-password");
+				graph.add("unzip-database", () -> unzipDatabase(zipFile), "clean-db-dir");
+				graph.add("load-database",
+				    () -> StandaloneUtil.startupDatabaseToCreateDefaultUser(mySqlPort, true, zipFile, userInterface::showImportProgress),
+				    "unzip-database", "unpack-mariadb", "probe-ports");
+			}
 		}
 		
-		userInterface.setStatus(UserInterface.STATUS_MESSAGE_STARTING);
-		userInterface.onFinishedInitialConfigCheck();
+		graph.run();
 		
-		start();
+		if (mode == DatabaseMode.USE_INITIALIZATION_WIZARD) {
+			System.out.println("Database mode using wizard: " + mode);
+		} else if (mode == DatabaseMode.EMPTY_DATABASE) {
+			System.out.println("Database mode using empty: " + mode);
+		} else if (mode == DatabaseMode.DEMO_DATABASE) {
+			System.out.println("Database mode using demo database: " + mode);
+		}
+	}
+	
+	/**
+	 * Warns if the ports we are about to use are already taken, since MariaDB or tomcat would
+	 * otherwise fail later with a much less helpful message, and else reserves them until they start.
+	 */
+	private void probePorts(String mySqlPort, String tomcatPort) {
+		int port = StandaloneUtil.fromStringToInt(mySqlPort);
+		if (!PortAllocator.reserve(port)) {
+			System.out.println("MySQL port " + port + " does not seem to be available");
+		}
+		port = StandaloneUtil.fromStringToInt(tomcatPort);
+		if (!PortAllocator.reserve(port)) {
+			System.out.println("Tomcat port " + port + " does not seem to be available");
+		}
 	}
 	
 	/**
-	 * True if there is no database, or if there's a "needsconfig.txt" file.
+	 * True if there is no database, or if there's a "needsconfig.txt" file, or if loading the
+	 * database was interrupted.
 	 * 
 	 * @return whether or not initial configuration is needed
 	 */
 	private boolean needsInitialConfiguration() {
-		return !(new File("database").exists()) || new File("needsconfig.txt").exists();
+		return !(new File("database").exists()) || new File("needsconfig.txt").exists()
+		        || MariaDbController.getInterruptedBulkLoad() != null;
 	}
 	
 	/**
-	 * Deletes the /database/data folder
+	 * Deletes the /database/data folder, as well as the MariaDB data directory if it has been
+	 * configured to live somewhere else.
 	 */
 	private void deleteActiveDatabase() {
 		System.out.println("Deleting active database");
-		if (!deleteFileOrDirectory(new File("database")))
+		if (!deleteFileOrDirectory(new File("database")) || !deleteFileOrDirectory(MariaDbController.getDataDir()))
 			System.out.println("...failed to delete!");
 	}
 	
@@ -340,7 +419,9 @@ public class ApplicationController {
 	}
 	
 	/**
-	 * Expands the given zip file as /database
+	 * Expands the given zip file as /db, leaving out the data directory snapshot. The SQL dump is
+	 * also left out, since it is streamed out of the zip when imported, unless the
+	 * debug.stage_sql runtime property asks for it to be written to disk.
 	 * 
 	 * @param zipFile
 	 * @throws IOException
@@ -349,7 +430,51 @@ public class ApplicationController {
 		System.out.println("Unzipping database from " + zipFile.getName());
 		File dest = new File("db");
 		dest.mkdir();
-		unzip(zipFile, dest);
+		
+		Properties properties = RuntimeConfig.get(StandaloneUtil.getContextName()).getProperties();
+		final boolean stageSql = "true".equalsIgnoreCase(properties.getProperty(StandaloneUtil.KEY_STAGE_SQL));
+		unzip(zipFile, dest, name -> {
+			if (name.startsWith(DatabaseSnapshot.SNAPSHOT_ENTRY_PREFIX))
+				return null;
+			if (!stageSql && (OpenmrsUtil.isSqlFile(name) || name.startsWith(ParallelDatabaseDumper.DUMP_ENTRY_PREFIX)))
+				return null;
+			return name;
+		});
+	}
+	
+	/**
+	 * Restores the pristine data directory saved when the given zip file was last loaded, if it was
+	 * saved for the very same zip file, else the prebuilt data directory of the zip file if it has
+	 * one.
+	 * 
+	 * @param zipFile
+	 * @return true if a data directory was restored.
+	 * @throws IOException
+	 */
+	private boolean restoreDataDir(File zipFile) throws IOException {
+		return DatabaseMarker.restorePristine(zipFile, MariaDbController.getDataDir()) || restoreDatabaseSnapshot(zipFile);
+	}
+	
+	/**
+	 * Expands the prebuilt MariaDB data directory, if the given zip file has one, into the
+	 * configured data directory. Whether it can actually be used is only known once MariaDB is
+	 * started, see StandaloneUtil.startupDatabaseToCreateDefaultUser()
+	 * 
+	 * @param zipFile
+	 * @return true if the zip file has a data directory.
+	 * @throws IOException
+	 */
+	private boolean restoreDatabaseSnapshot(File zipFile) throws IOException {
+		File dataDir = MariaDbController.getDataDir();
+		int restored = unzip(zipFile, dataDir, name -> {
+			if (!name.startsWith(DatabaseSnapshot.SNAPSHOT_ENTRY_PREFIX))
+				return null;
+			return name.substring(DatabaseSnapshot.SNAPSHOT_ENTRY_PREFIX.length());
+		});
+		if (restored > 0) {
+			System.out.println("Restored database snapshot from " + zipFile.getName() + " into " + dataDir);
+		}
+		return restored > 0;
 	}
 	
 	/**
@@ -362,9 +487,23 @@ public class ApplicationController {
 	 * @throws IOException
 	 */
 	public void unzip(File sourceZipFile, File unzipDestinationDirectory) throws IOException {
+		unzip(sourceZipFile, unzipDestinationDirectory, name -> name);
+	}
+	
+	/**
+	 * @param sourceZipFile
+	 * @param unzipDestinationDirectory
+	 * @param entryNames maps the name of each entry to its path in the destination directory, or to
+	 *            null or an empty string to skip it
+	 * @return the number of files extracted
+	 * @throws IOException
+	 */
+	private int unzip(File sourceZipFile, File unzipDestinationDirectory, UnaryOperator<String> entryNames)
+	        throws IOException {
 		int BUFFER = 2048;
+		int extracted = 0;
 		if (!unzipDestinationDirectory.exists())
-			unzipDestinationDirectory.mkdir();
+			unzipDestinationDirectory.mkdirs();
 		
 		ZipFile zipFile;
 		// Open Zip file for reading
@@ -377,7 +516,9 @@ public class ApplicationController {
 		while (zipFileEntries.hasMoreElements()) {
 			// grab a zip file entry
 			ZipEntry entry = zipFileEntries.nextElement();
-			String currentEntry = entry.getName();
+			String currentEntry = entryNames.apply(entry.getName());
+			if (currentEntry == null || currentEntry.isEmpty())
+				continue;
 			
 			File destFile = new File(unzipDestinationDirectory, currentEntry);
 			
@@ -405,9 +546,11 @@ public class ApplicationController {
 				dest.flush();
 				dest.close();
 				is.close();
+				extracted++;
 			}
 		}
 		zipFile.close();
+		return extracted;
 	}
 	
 	/**
@@ -417,19 +560,32 @@ public class ApplicationController {
 	 */
 	private String startServer() {
 		try {
-			//This is an attempt to prevent some of the bad behavior caused by tomcat caching
-			//some stuff in this directory.
-			deleteTomcatWorkDir();
-
-			String mySqlPort = StandaloneUtil.setPortsAndMySqlPassword(userInterface.getMySqlPort(), userInterface.getTomcatPort() + "");
-			Properties updatedProperties = OpenmrsUtil.getRuntimeProperties(StandaloneUtil.getContextName());
-
-			MariaDbController.startMariaDB(mySqlPort, updatedProperties.getProperty("connection.password"));
-
-			contextName = StandaloneUtil.getContextName();
+			final int tomcatPort = userInterface.getTomcatPort();
+			final String[] mySqlPort = new String[1];
+			final TomcatManager[] manager = new TomcatManager[1];
+			
+			//Getting the database up and building the tomcat context do not depend on each other.
+			StartupGraph graph = new StartupGraph("server");
+			
+			graph.add("prepare-tomcat", () -> {
+				contextName = StandaloneUtil.getContextName();
+				manager[0] = new TomcatManager(contextName, tomcatPort);
+			});
+			
+			graph.add("start-mariadb", () -> {
+				mySqlPort[0] = StandaloneUtil.setPortsAndMySqlPassword(userInterface.getMySqlPort(), tomcatPort + "");
+				Properties updatedProperties = RuntimeConfig.get(StandaloneUtil.getContextName()).getProperties();
+				
+				MariaDbController.startMariaDB(mySqlPort[0], updatedProperties.getProperty("connection.password"));
+			});
+			
 			tomcatManager = null;
-			tomcatManager = new TomcatManager(contextName, userInterface.getTomcatPort());
-			tomcatManager.run();
+			graph.add("start-tomcat", () -> {
+				tomcatManager = manager[0];
+				tomcatManager.run();
+			}, "prepare-tomcat", "start-mariadb");
+			
+			graph.run();
 			
 			return getRunningStatusMessage();
 		}
@@ -461,19 +617,6 @@ public class ApplicationController {
 		return StandaloneUtil.launchBrowser(port, contextName);
 	}
 	
-	/**
-	 * Deletes the tomcat work directory.
-	 */
-	private void deleteTomcatWorkDir() {
-		try {
-			String path = new File("").getAbsolutePath() + File.separatorChar + "tomcat" + File.separatorChar + "work";
-			new File(path).delete();
-		}
-		catch (Exception ex) {
-			ex.printStackTrace();
-		}
-	}
-	
 	private String getRunningStatusMessage() {
 		return UserInterface.STATUS_MESSAGE_RUNNING + " - Tomcat Port:" + userInterface.getTomcatPort() + "  MySQL Port:"
 		        + userInterface.getMySqlPort();
@@ -0,0 +1,406 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.standalone;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Appends to the daily log files under tomcat/logs without holding up the threads logging. The
+ * text goes into a bounded queue, which a single thread drains in batches into the log file it
+ * keeps open. When the day changes, or the file reaches its maximum size, the file is rolled over
+ * and compressed in the background.
+ * <p>
+ * What happens when the queue is full depends on the {@link OverflowPolicy}.
+ */
+public class AsyncLogAppender {
+
+	/**
+	 * What a thread logging does when the queue is full.
+	 */
+	public enum OverflowPolicy {
+		/** Waits for the writer thread to make room, so that nothing is lost. */
+		BLOCK,
+		/** Drops the text, and the number of dropped writes is noted in the log later. */
+		DROP
+	}
+
+	/** The runtime property choosing the policy of the log files, block by default or drop. */
+	public static final String KEY_OVERFLOW_POLICY = "log_overflow_policy";
+
+	public static final int DEFAULT_CAPACITY = 8192;
+
+	public static final long DEFAULT_MAX_FILE_SIZE = 10 * 1024 * 1024;
+
+	/** The most writes put in a file at once. */
+	private static final int BATCH_SIZE = 512;
+
+	/** The names of the log files, as they always were. */
+	private static final DateTimeFormatter FILE_DATE = DateTimeFormatter.ofPattern("yyyy-M-d");
+
+	private static AsyncLogAppender defaultAppender;
+
+	private final File dir;
+
+	private final long maxFileSize;
+
+	private final BlockingQueue<String> queue;
+
+	/** The index of the lines written, or null. */
+	private final LogIndex index;
+
+	private final Charset charset = Charset.defaultCharset();
+
+	private volatile OverflowPolicy policy;
+
+	private final AtomicLong appended = new AtomicLong();
+
+	private final AtomicLong dropped = new AtomicLong();
+
+	/** The writes dropped since that was last noted in the log. */
+	private final AtomicLong droppedUnnoted = new AtomicLong();
+
+	/** Guarded by this, the writes which made it to the file. */
+	private long written;
+
+	private final Thread writer;
+
+	private final ExecutorService compressor = Executors.newSingleThreadExecutor(task -> {
+		Thread thread = new Thread(task, "log-compressor");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private volatile boolean closed;
+
+	/** Only used by the writer thread, like the fields below. */
+	private FileChannel channel;
+
+	private LocalDate channelDate;
+
+	private File channelFile;
+
+	private ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+
+	/**
+	 * @param dir the directory of the log files.
+	 * @param capacity how many writes can wait to be written.
+	 * @param maxFileSize the size in bytes from which a log file is rolled over.
+	 */
+	public AsyncLogAppender(File dir, int capacity, long maxFileSize, OverflowPolicy policy) {
+		this(dir, capacity, maxFileSize, policy, null);
+	}
+
+	/**
+	 * @param index where to index the lines written, or null not to.
+	 */
+	public AsyncLogAppender(File dir, int capacity, long maxFileSize, OverflowPolicy policy, LogIndex index) {
+		this.dir = dir;
+		this.index = index;
+		this.maxFileSize = maxFileSize;
+		this.policy = policy;
+		this.queue = new ArrayBlockingQueue<String>(capacity);
+		this.writer = new Thread(this::drain, "log-appender");
+		this.writer.setDaemon(true);
+		this.writer.start();
+	}
+
+	/**
+	 * @return the appender of the log files under tomcat/logs, flushed when the JVM exits.
+	 */
+	public static synchronized AsyncLogAppender getDefault() {
+		if (defaultAppender == null) {
+			File dir = new File(new File("tomcat"), "logs").getAbsoluteFile();
+			LogIndex index = new LogIndex(dir, Charset.defaultCharset());
+			index.start(LogIndex.DEFAULT_RETENTION_DAYS);
+			defaultAppender = new AsyncLogAppender(dir, DEFAULT_CAPACITY, DEFAULT_MAX_FILE_SIZE, OverflowPolicy.BLOCK, index);
+			Runtime.getRuntime().addShutdownHook(new Thread(defaultAppender::close, "log-appender-shutdown"));
+		}
+		return defaultAppender;
+	}
+
+	/**
+	 * @return the index of the lines written, or null if they are not indexed.
+	 */
+	public LogIndex getIndex() {
+		return index;
+	}
+
+	public void setOverflowPolicy(OverflowPolicy policy) {
+		this.policy = policy;
+	}
+
+	/**
+	 * Queues the given text to be appended to the log file.
+	 *
+	 * @return false if the text was dropped as the queue was full, or as this appender is closed.
+	 */
+	public boolean append(String text) {
+		if (text == null || text.isEmpty()) {
+			return true;
+		}
+		if (closed) {
+			return false;
+		}
+		if (policy == OverflowPolicy.DROP) {
+			if (queue.offer(text)) {
+				appended.incrementAndGet();
+				return true;
+			}
+			dropped.incrementAndGet();
+			droppedUnnoted.incrementAndGet();
+			return false;
+		}
+		try {
+			queue.put(text);
+			appended.incrementAndGet();
+			return true;
+		}
+		catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
+
+	/**
+	 * Waits for everything appended so far to be in the log file.
+	 *
+	 * @return false if it did not make it in the given time.
+	 */
+	public boolean flush(long timeoutMillis) {
+		long target = appended.get();
+		long deadline = System.currentTimeMillis() + timeoutMillis;
+		synchronized (this) {
+			while (written < target && writer.isAlive()) {
+				long left = deadline - System.currentTimeMillis();
+				if (left <= 0) {
+					return false;
+				}
+				try {
+					wait(left);
+				}
+				catch (InterruptedException ex) {
+					Thread.currentThread().interrupt();
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Writes what is still queued, closes the log file and waits for the compression of the rolled
+	 * over files to finish.
+	 */
+	public void close() {
+		flush(5000);
+		closed = true;
+		writer.interrupt();
+		try {
+			writer.join(5000);
+		}
+		catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+		compressor.shutdown();
+		try {
+			compressor.awaitTermination(30, TimeUnit.SECONDS);
+		}
+		catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * @return the number of writes dropped as the queue was full.
+	 */
+	public long getDroppedCount() {
+		return dropped.get();
+	}
+
+	private void drain() {
+		List<String> batch = new ArrayList<String>(BATCH_SIZE);
+		try {
+			while (!closed) {
+				batch.add(queue.take());
+				queue.drainTo(batch, BATCH_SIZE - 1);
+				writeBatch(batch);
+			}
+		}
+		catch (InterruptedException ex) {
+			//Closed
+		}
+		finally {
+			closeChannel();
+		}
+	}
+
+	private void writeBatch(List<String> batch) {
+		try {
+			long droppedCount = droppedUnnoted.getAndSet(0);
+			if (droppedCount > 0) {
+				encode("[" + droppedCount + " log writes dropped as the log could not keep up]"
+				        + System.lineSeparator());
+			}
+			for (String text : batch) {
+				encode(text);
+			}
+			buffer.flip();
+			int length = buffer.remaining();
+			FileChannel out = getChannel(length);
+			while (buffer.hasRemaining()) {
+				out.write(buffer);
+			}
+			if (index != null) {
+				// Only wakes up its own thread, which reads the lines back from the file
+				index.written(channelFile);
+			}
+		}
+		catch (IOException ex) {
+			//Printing to the std streams here may result in an infinite loop, they write to the log.
+			closeChannel();
+		}
+		finally {
+			buffer.clear();
+			synchronized (this) {
+				written += batch.size();
+				notifyAll();
+			}
+			batch.clear();
+		}
+	}
+
+	private void encode(String text) {
+		byte[] bytes = text.getBytes(charset);
+		if (buffer.remaining() < bytes.length) {
+			ByteBuffer larger = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + bytes.length));
+			buffer.flip();
+			larger.put(buffer);
+			buffer = larger;
+		}
+		buffer.put(bytes);
+	}
+
+	/**
+	 * @return the channel of today's log file, rolled over first if the given number of bytes would
+	 *         take it past its maximum size.
+	 */
+	private FileChannel getChannel(int length) throws IOException {
+		LocalDate today = LocalDate.now();
+		if (channel != null && !today.equals(channelDate)) {
+			File previous = channelFile;
+			closeChannel();
+			compress(previous);
+			if (index != null) {
+				index.prune(System.currentTimeMillis() - LogIndex.DEFAULT_RETENTION_DAYS * 24L * 60 * 60 * 1000);
+			}
+		}
+		if (channel != null && channel.size() > 0 && channel.size() + length > maxFileSize) {
+			File rolled = nextRolledFile(channelFile);
+			closeChannel();
+			File current = getLogFile(today);
+			if (current.renameTo(rolled)) {
+				if (index != null) {
+					index.renamed(current, rolled);
+				}
+				compress(rolled);
+			}
+		}
+		if (channel == null) {
+			dir.mkdirs();
+			channelFile = getLogFile(today);
+			channelDate = today;
+			channel = FileChannel.open(channelFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+			    StandardOpenOption.APPEND);
+		}
+		return channel;
+	}
+
+	/**
+	 * @return the log file of the given day.
+	 */
+	File getLogFile(LocalDate date) {
+		return new File(dir, FILE_DATE.format(date) + ".log");
+	}
+
+	/**
+	 * @return the first of &lt;date&gt;.1.log, &lt;date&gt;.2.log... which is not taken, compressed
+	 *         or not.
+	 */
+	private File nextRolledFile(File logFile) {
+		String base = logFile.getName().substring(0, logFile.getName().length() - ".log".length());
+		for (int i = 1;; i++) {
+			File rolled = new File(dir, base + "." + i + ".log");
+			if (!rolled.exists() && !new File(dir, rolled.getName() + ".gz").exists()) {
+				return rolled;
+			}
+		}
+	}
+
+	private void closeChannel() {
+		if (channel != null) {
+			try {
+				channel.close();
+			}
+			catch (IOException ex) {
+				//Nothing else to do with it
+			}
+			channel = null;
+		}
+	}
+
+	/**
+	 * Replaces the given file with a gzipped copy, in the background.
+	 */
+	private void compress(final File file) {
+		compressor.execute(() -> {
+			File gzipFile = new File(file.getPath() + ".gz");
+			try (InputStream in = new FileInputStream(file);
+			        OutputStream out = new GZIPOutputStream(new FileOutputStream(gzipFile))) {
+				byte[] bytes = new byte[64 * 1024];
+				int count;
+				while ((count = in.read(bytes)) != -1) {
+					out.write(bytes, 0, count);
+				}
+			}
+			catch (IOException ex) {
+				gzipFile.delete();
+				return;
+			}
+			if (index != null) {
+				index.renamed(file, gzipFile);
+			}
+			file.delete();
+		});
+	}
+}
@@ -15,15 +15,14 @@ package org.openmrs.standalone;
 
 import ch.vorburger.exec.ManagedProcessException;
 
-import java.io.BufferedOutputStream;
-import java.io.BufferedReader;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.OutputStream;
-import java.io.OutputStreamWriter;
-import java.io.PrintStream;
-import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Properties;
 
 /**
@@ -34,88 +33,150 @@ import java.util.Properties;
  */
 public class Bootstrap {
 	
-	class InputStreamProxy extends Thread {
-		
-		final InputStream is;
-		
-		final PrintStream os;
-		
-		InputStreamProxy(InputStream is, PrintStream os) {
-			this.is = is;
-			this.os = os;
-		}
-		
-		public void run() {
-			try {
-				InputStreamReader isr = new InputStreamReader(is);
-				BufferedReader br = new BufferedReader(isr);
-				String line = null;
-				while ((line = br.readLine()) != null) {
-					os.println(line);
-				}
-			}
-			catch (IOException ex) {
-				throw new RuntimeException(ex.getMessage(), ex);
-			}
-		}
-	}
+	/**
+	 * The runtime property which, when false, always launches a second JVM even if this one already
+	 * has the vm_arguments.
+	 */
+	public static final String KEY_IN_PROCESS = "in_process_launch";
+	
+	/**
+	 * The runtime property telling where the output of the launched JVM goes:
+	 * <ul>
+	 * <li>inherit, the default: straight to the console of this JVM, which it also reads from,</li>
+	 * <li>file: to tomcat/logs/openmrs-standalone.log, with the input still from the console,</li>
+	 * <li>pipe: copied to System.out and System.err of this JVM, for when they were replaced, as by a
+	 * window showing the output.</li>
+	 * </ul>
+	 */
+	public static final String KEY_OUTPUT = "output_redirect";
+	
+	public static final String OUTPUT_INHERIT = "inherit";
+	
+	public static final String OUTPUT_FILE = "file";
+	
+	public static final String OUTPUT_PIPE = "pipe";
+	
+	private static final String OUTPUT_LOG_FILE = "tomcat/logs/openmrs-standalone.log";
+	
+	private static final int COPY_BUFFER_SIZE = 8192;
 	
-	class OutputStreamProxy extends Thread {
+	/**
+	 * Copies the bytes of a stream to another as they come, through a fixed size buffer.
+	 */
+	static class StreamCopier extends Thread {
+		
+		private final InputStream in;
 		
-		final OutputStream os;
+		private final OutputStream out;
 		
-		OutputStreamProxy(OutputStream os) {
-			this.os = os;
+		StreamCopier(String name, InputStream in, OutputStream out) {
+			super(name);
+			this.in = in;
+			this.out = out;
+			setDaemon(true);
 		}
 		
+		@Override
 		public void run() {
+			byte[] buffer = new byte[COPY_BUFFER_SIZE];
 			try {
-				PrintWriter writer = new PrintWriter(new OutputStreamWriter(new BufferedOutputStream(os)), true);
-				
-				InputStreamReader isr = new InputStreamReader(System.in);
-				BufferedReader br = new BufferedReader(isr);
-				String line = null;
-				while ((line = br.readLine()) != null) {
-					writer.println(line);
+				int count;
+				while ((count = in.read(buffer)) != -1) {
+					out.write(buffer, 0, count);
+					// Whatever is read is passed on right away, such as the answer to a prompt
+					out.flush();
 				}
 			}
 			catch (IOException ex) {
-				throw new RuntimeException(ex.getMessage(), ex);
+				//The process exited, or this JVM has no console
 			}
 		}
 	}
 	
 	/**
-	 * Spawns off a new JVM to launch the main function of the ApplicationController class.
+	 * Spawns off a new JVM to launch the main function of the ApplicationController class, or calls
+	 * it right away if this JVM already satisfies the vm_arguments, see {@link VmArguments}.
 	 * 
 	 * @param args the command line arguments.
 	 * @param showSplashScreen determines whether the splashscreen is to be shown.
 	 */
-	private void launch(String args, boolean showSplashScreen) {
+	private void launch(List<String> args, boolean showSplashScreen) {
 		
 		Process process = null;
 		
 		try {	
-			Properties properties = OpenmrsUtil.getRuntimeProperties(StandaloneUtil.getContextName());
+			Properties properties = RuntimeConfig.get(StandaloneUtil.getContextName()).getProperties();
 			String vm_arguments = properties.getProperty("vm_arguments", "-Xmx512m -Xms512m -XX:NewSize=128m --add-exports=java.desktop/com.apple.eawt=ALL-UNNAMED");
+			
+			// No need for a second JVM when this one was started with the arguments already, as by a service
+			if (Boolean.parseBoolean(properties.getProperty(KEY_IN_PROCESS, "true").trim())
+			        && VmArguments.isSatisfied(vm_arguments)) {
+				System.out.println("This JVM already has the vm_arguments, starting in it");
+				ApplicationController.main(args.toArray(new String[0]));
+				return;
+			}
 
-			// Spin up a separate java process calling a non-default Main class in our Jar.  
-			process = Runtime.getRuntime().exec(
-			    "java " + (showSplashScreen ? "-splash:splashscreen-loading.png" : "")
-			            + " " + vm_arguments + " -cp "
-			            + StandaloneUtil.getJarFileName() + " org.openmrs.standalone.ApplicationController" + args);
+			// add shutdown hook to stop server, ApplicationController adds its own when started in this JVM
+			Runtime.getRuntime().addShutdownHook(new Thread() {
+				
+				public void run() {
+					try {
+						MariaDbController.stopMariaDB();
+					} catch (ManagedProcessException e) {
+						System.out.println("Failed to stop MariaDB: " + e.getMessage());
+						e.printStackTrace();
+					}
+				}
+			});
 			
-			// Proxy the System.out and System.err from the spawned process back to the main window.  This
-			// is important or the spawned process could block.
-			InputStreamProxy errorStreamProxy = new InputStreamProxy(process.getErrorStream(), System.err);
-			InputStreamProxy inputStreamProxy = new InputStreamProxy(process.getInputStream(), System.out);
-			OutputStreamProxy outputStreamProxy = new OutputStreamProxy(process.getOutputStream());
+			// Spin up a separate java process calling a non-default Main class in our Jar.  
+			// It runs on this same JVM, which is the one the class data sharing archive is made for
+			List<String> command = new ArrayList<String>();
+			command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+			if (showSplashScreen) {
+				command.add("-splash:splashscreen-loading.png");
+			}
+			command.addAll(VmArguments.split(vm_arguments));
+			if (Boolean.parseBoolean(properties.getProperty(ClassDataSharing.KEY_ENABLED, "true").trim())) {
+				command.addAll(ClassDataSharing.getVmArguments(new File(StandaloneUtil.getJarFileName())));
+			}
+			// Pass on when this JVM started, for the startup timeline to include launching the second one
+			command.add("-D" + StartupTimeline.LAUNCHED_PROPERTY + "=" + ManagementFactory.getRuntimeMXBean().getStartTime());
+			command.add("-cp");
+			command.add(StandaloneUtil.getJarFileName());
+			command.add("org.openmrs.standalone.ApplicationController");
+			command.addAll(args);
+			ProcessBuilder processBuilder = new ProcessBuilder(command);
+			String output = properties.getProperty(KEY_OUTPUT, OUTPUT_INHERIT).trim();
+			if (OUTPUT_FILE.equalsIgnoreCase(output)) {
+				File logFile = new File(OUTPUT_LOG_FILE);
+				logFile.getParentFile().mkdirs();
+				processBuilder.redirectErrorStream(true);
+				processBuilder.redirectOutput(ProcessBuilder.Redirect.appendTo(logFile));
+				processBuilder.redirectInput(ProcessBuilder.Redirect.INHERIT);
+				System.out.println("Writing the output of OpenMRS to " + logFile.getAbsolutePath());
+			} else if (!OUTPUT_PIPE.equalsIgnoreCase(output)) {
+				// The spawned process writes to and reads from the console of this one itself
+				processBuilder.inheritIO();
+			}
+			process = processBuilder.start();
 			
-			errorStreamProxy.start();
-			inputStreamProxy.start();
-			outputStreamProxy.start();
+			List<StreamCopier> copiers = new ArrayList<StreamCopier>();
+			if (OUTPUT_PIPE.equalsIgnoreCase(output)) {
+				// Drain the output of the spawned process, or it could block
+				copiers.add(new StreamCopier("stdout-copier", process.getInputStream(), System.out));
+				copiers.add(new StreamCopier("stderr-copier", process.getErrorStream(), System.err));
+				new StreamCopier("stdin-copier", System.in, process.getOutputStream()).start();
+			}
+			for (StreamCopier copier : copiers) {
+				copier.start();
+			}
 			
-			System.out.println("Exit:" + process.waitFor());
+			int exitValue = process.waitFor();
+			for (StreamCopier copier : copiers) {
+				copier.join();
+			}
+			System.out.println("Exit:" + exitValue);
 			
 			System.exit(0);
 		}
@@ -142,27 +203,11 @@ public class Bootstrap {
 	public static void main(String[] args) {
 		boolean showSplashScreen = true;
 		
-		String commandLineArguments = "";
 		for (String arg : args) {
-			commandLineArguments += (" " + arg);
-			
 			if (arg.contains("commandline"))
 				showSplashScreen = false;
 		}
 		
-		// add shutdown hook to stop server
-		Runtime.getRuntime().addShutdownHook(new Thread() {
-			
-			public void run() {
-				try {
-					MariaDbController.stopMariaDB();
-				} catch (ManagedProcessException e) {
-					System.out.println("Failed to stop MariaDB: " + e.getMessage());
-					e.printStackTrace();
-				}
-			}
-		});
-		
-		new Bootstrap().launch(commandLineArguments, showSplashScreen);
+		new Bootstrap().launch(Arrays.asList(args), showSplashScreen);
 	}
 }
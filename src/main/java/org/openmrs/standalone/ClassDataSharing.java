@@ -0,0 +1,101 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.standalone;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Has the JVM launched by {@link Bootstrap} map the classes it loaded on a previous run from an
+ * application class data sharing (AppCDS) archive, instead of loading and verifying them again.
+ * <p>
+ * The first run is the training run: the JVM dumps the classes it loaded into the archive when it
+ * exits. The archive only fits the jar and the JVM it was created with, which are recorded next to
+ * it. When either changed, the archive is deleted and the next run trains a new one. Should the JVM
+ * still find the archive unusable, it silently runs without it.
+ */
+public class ClassDataSharing {
+
+	/** The runtime property which, when false, turns class data sharing off. */
+	public static final String KEY_ENABLED = "class_data_sharing";
+
+	private static final String ARCHIVE = "openmrs-standalone.jsa";
+
+	private static final String STAMP = ARCHIVE + ".properties";
+
+	private static final String KEY_JAR = "jar";
+
+	private static final String KEY_JVM = "jvm";
+
+	/** The JVM prints a warning when it cannot use the archive, which is no reason to worry users. */
+	private static final String NO_CDS_LOGGING = "-Xlog:cds=off,cds+dynamic=off";
+
+	/**
+	 * @param jarFile the jar the launched JVM runs from.
+	 * @return the arguments for the launched JVM to use the archive, or to create it if there is
+	 *         none usable.
+	 */
+	public static List<String> getVmArguments(File jarFile) {
+		List<String> arguments = new ArrayList<String>();
+		File archive = new File(ARCHIVE);
+		File stampFile = new File(STAMP);
+
+		Properties stamp = new Properties();
+		stamp.setProperty(KEY_JAR, jarFile.length() + ":" + jarFile.lastModified());
+		stamp.setProperty(KEY_JVM, System.getProperty("java.home") + ":" + System.getProperty("java.vm.version"));
+
+		if (archive.isFile() && stamp.equals(readStamp(stampFile))) {
+			arguments.add("-XX:SharedArchiveFile=" + ARCHIVE);
+		} else {
+			if (archive.exists()) {
+				System.out.println("Deleting the class data sharing archive of another jar or JVM");
+				// The JVM creates it read only, which would keep it from being deleted on Windows
+				archive.setWritable(true);
+				archive.delete();
+			}
+			try (OutputStream out = new FileOutputStream(stampFile)) {
+				stamp.store(out, "The jar and JVM the class data sharing archive is for");
+			}
+			catch (IOException ex) {
+				System.out.println("Failed to write " + stampFile + ", not using class data sharing: " + ex.getMessage());
+				return arguments;
+			}
+			System.out.println("Creating the class data sharing archive, for the next starts to be faster");
+			arguments.add("-XX:ArchiveClassesAtExit=" + ARCHIVE);
+		}
+		arguments.add(NO_CDS_LOGGING);
+		return arguments;
+	}
+
+	private static Properties readStamp(File stampFile) {
+		if (!stampFile.isFile()) {
+			return null;
+		}
+		Properties stamp = new Properties();
+		try (InputStream in = new FileInputStream(stampFile)) {
+			stamp.load(in);
+			return stamp;
+		}
+		catch (IOException ex) {
+			return null;
+		}
+	}
+}
@@ -37,6 +37,9 @@ public class CommandLine implements UserInterface {
 	
 	private static final String CMD_EXIT = "exit";
 	
+	/** How often in milliseconds the import progress is printed, to keep the console readable. */
+	private static final long IMPORT_PROGRESS_INTERVAL = 5000;
+	
 	private ApplicationController appController;
 	
 	private int tomcatPort = UserInterface.DEFAULT_TOMCAT_PORT;
@@ -57,6 +60,8 @@ public class CommandLine implements UserInterface {
 	
 	private DatabaseMode mode = DatabaseMode.DEMO_DATABASE;
 	
+	private long lastImportProgress;
+	
 	public CommandLine(ApplicationController appController, String tomcatPort, String mySqlPort, boolean nonInteractive, DatabaseMode mode) {
 		this.appController = appController;
 		this.nonInteractive = nonInteractive;
@@ -119,6 +124,14 @@ public class CommandLine implements UserInterface {
 		}
 	}
 	
+	public void showImportProgress(ImportProgress progress) {
+		long now = System.currentTimeMillis();
+		if (progress.isFinished() || now - lastImportProgress >= IMPORT_PROGRESS_INTERVAL) {
+			lastImportProgress = now;
+			displayMessage("Importing database: " + progress);
+		}
+	}
+	
 	private void displayMessage(String message) {
 		System.out.println(message);
 	}
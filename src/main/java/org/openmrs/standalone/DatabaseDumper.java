@@ -1,40 +1,138 @@
 package org.openmrs.standalone;
 
 import java.io.File;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.List;
 
 import static org.openmrs.standalone.OpenmrsUtil.findDumpExecutable;
 
 public class DatabaseDumper {
+    private static final String PARALLEL = "--parallel";
+    private static final String COMPRESS = "--compress=";
+    private static final String RESULT_FILE = "--result-file=";
+
     public static void main(String[] args) throws Exception {
         if (args.length < 1) {
-            System.err.println("Usage: java DatabaseDumper <baseDir> [mariadb-dump args...]");
+            System.err.println("Usage: java DatabaseDumper <baseDir> [--compress=none|gzip|zstd] [mariadb-dump args...]");
+            System.err.println("   or: java DatabaseDumper <baseDir> <dbDir> --parallel --chunk-dir=<dir> [--threads=<n>]"
+                    + " [--compress=none|gzip|zstd] [--host=<host>] --port=<port> --user=<user> --password=<password> <database>");
             System.exit(1);
         }
 
         String baseDir = args[0];
         String dbDir = args[1];
+
+        if (args.length > 2 && PARALLEL.equals(args[2])) {
+            dumpInParallel(args);
+            return;
+        }
+
         String executable = findDumpExecutable(baseDir, dbDir);
 
         List<String> command = new ArrayList<>();
         command.add(executable);
 
+        DumpCompression.Format compression = DumpCompression.Format.NONE;
+        String resultFile = null;
+
         // Add all remaining args starting from args[2], which are the dump flags and db name
         for (int i = 2; i < args.length; i++) {
-            command.add(args[i]);
+            if (args[i].startsWith(COMPRESS)) {
+                compression = DumpCompression.forName(args[i].substring(COMPRESS.length()));
+            } else if (args[i].startsWith(RESULT_FILE)) {
+                resultFile = args[i].substring(RESULT_FILE.length());
+            } else {
+                command.add(args[i]);
+            }
+        }
+
+        boolean compress = compression != DumpCompression.Format.NONE && resultFile != null;
+        if (!compress && resultFile != null) {
+            command.add(RESULT_FILE + resultFile);
         }
 
         ProcessBuilder pb = new ProcessBuilder(command);
         pb.directory(new File("."));
         pb.inheritIO();
 
-        Process process = pb.start();
+        if (!compress) {
+            waitFor(pb.start());
+        } else {
+            // Compress the dump as it comes out of mariadb-dump, rather than writing it out first
+            File target = new File(resultFile + compression.getExtension());
+            pb.redirectOutput(ProcessBuilder.Redirect.PIPE);
+            Process process = pb.start();
+            try (InputStream in = process.getInputStream();
+                 OutputStream out = DumpCompression.open(target, compression)) {
+                byte[] buffer = new byte[64 * 1024];
+                int count;
+                while ((count = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, count);
+                }
+            }
+            waitFor(process);
+            System.out.println("Compressed the dump to " + target);
+        }
+
+        System.out.println("✅ Dump completed successfully.");
+    }
+
+    private static void waitFor(Process process) throws InterruptedException {
         int exitCode = process.waitFor();
         if (exitCode != 0) {
             throw new RuntimeException("Dump command failed with exit code: " + exitCode);
         }
+    }
 
-        System.out.println("✅ Dump completed successfully.");
+    /**
+     * Dumps each table to its own chunk file over JDBC, see {@link ParallelDatabaseDumper}. The
+     * connection options are named like those of mariadb-dump.
+     */
+    private static void dumpInParallel(String[] args) throws Exception {
+        String host = "127.0.0.1";
+        String port = "3306";
+        String user = "root";
+        String password = "";
+        String database = null;
+        String chunkDir = null;
+        int threads = 0;
+        DumpCompression.Format compression = DumpCompression.Format.NONE;
+
+        for (int i = 3; i < args.length; i++) {
+            String arg = args[i];
+            if (arg.startsWith("--host=")) {
+                host = arg.substring("--host=".length());
+            } else if (arg.startsWith("--port=")) {
+                port = arg.substring("--port=".length());
+            } else if (arg.startsWith("--user=")) {
+                user = arg.substring("--user=".length());
+            } else if (arg.startsWith("--password=")) {
+                password = arg.substring("--password=".length());
+            } else if (arg.startsWith("--chunk-dir=")) {
+                chunkDir = arg.substring("--chunk-dir=".length());
+            } else if (arg.startsWith("--threads=")) {
+                threads = Integer.parseInt(arg.substring("--threads=".length()));
+            } else if (arg.startsWith(COMPRESS)) {
+                compression = DumpCompression.forName(arg.substring(COMPRESS.length()));
+            } else if (arg.startsWith("--")) {
+                System.out.println("Ignoring " + arg + " which does not apply to the parallel dump");
+            } else {
+                database = arg;
+            }
+        }
+
+        if (database == null || chunkDir == null) {
+            throw new IllegalArgumentException("The parallel dump needs a --chunk-dir and a database name");
+        }
+
+        Class.forName("org.mariadb.jdbc.Driver").getDeclaredConstructor().newInstance();
+
+        ParallelDatabaseDumper dumper = new ParallelDatabaseDumper("jdbc:mariadb://" + host + ":" + port + "/" + database,
+                user, password, new File(chunkDir));
+        dumper.setThreads(threads);
+        dumper.setCompression(compression);
+        dumper.dump();
     }
 }
@@ -0,0 +1,173 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.standalone;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Properties;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Records in the MariaDB data directory which shipped dump it was loaded from, and by which
+ * MariaDB version, so that resetting to the same dump can restore a pristine copy of the data
+ * directory instead of importing the dump all over again.
+ */
+public class DatabaseMarker {
+
+	/** The name of the marker file, in the data directory. */
+	public static final String MARKER_FILE = "openmrs-standalone-dump.properties";
+
+	/** Where the pristine data directories are kept, one per database zip. */
+	private static final String PRISTINE_DIR = "database-pristine";
+
+	private static final String KEY_DUMP_HASH = "dump.hash";
+
+	private static final String KEY_SERVER_VERSION = "server.version";
+
+	/**
+	 * Computes a hash of the contents of the given database zip. It is based on the names, sizes and
+	 * CRCs of the entries recorded in the zip directory, so the entries themselves do not need to be
+	 * read.
+	 */
+	public static String hashDump(File zipFile) throws IOException {
+		List<String> entries = new ArrayList<String>();
+		try (ZipFile zip = new ZipFile(zipFile)) {
+			Enumeration<? extends ZipEntry> zipEntries = zip.entries();
+			while (zipEntries.hasMoreElements()) {
+				ZipEntry entry = zipEntries.nextElement();
+				if (!entry.isDirectory()) {
+					entries.add(entry.getName() + ":" + entry.getSize() + ":" + Long.toHexString(entry.getCrc()));
+				}
+			}
+		}
+		Collections.sort(entries);
+
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			for (String entry : entries) {
+				digest.update(entry.getBytes(StandardCharsets.UTF_8));
+				digest.update((byte) '\n');
+			}
+			StringBuilder hash = new StringBuilder();
+			for (byte b : digest.digest()) {
+				hash.append(String.format("%02x", b));
+			}
+			return hash.toString();
+		}
+		catch (NoSuchAlgorithmException ex) {
+			throw new IllegalStateException(ex);
+		}
+	}
+
+	/**
+	 * Writes the marker into the given data directory.
+	 */
+	public static void write(File dataDir, String dumpHash, String serverVersion) throws IOException {
+		Properties marker = new Properties();
+		marker.setProperty(KEY_DUMP_HASH, dumpHash);
+		marker.setProperty(KEY_SERVER_VERSION, serverVersion);
+		try (OutputStream out = new FileOutputStream(new File(dataDir, MARKER_FILE))) {
+			marker.store(out, "The dump this data directory was loaded from");
+		}
+	}
+
+	/**
+	 * @param serverVersion the version of the running server, or null to only compare the dumps.
+	 * @return true if the given data directory was loaded from the given dump, by a server of the
+	 *         same release series.
+	 */
+	public static boolean matches(File dataDir, String dumpHash, String serverVersion) {
+		Properties marker = read(dataDir);
+		if (marker == null || !dumpHash.equals(marker.getProperty(KEY_DUMP_HASH))) {
+			return false;
+		}
+		return serverVersion == null
+		        || DatabaseSnapshot.isCompatible(marker.getProperty(KEY_SERVER_VERSION), serverVersion);
+	}
+
+	/**
+	 * @return the directory holding the pristine data directory of the given database zip.
+	 */
+	public static File getPristineDir(File zipFile) {
+		String name = zipFile.getName();
+		if (name.toLowerCase().endsWith(".zip")) {
+			name = name.substring(0, name.length() - 4);
+		}
+		return new File(PRISTINE_DIR, name);
+	}
+
+	/**
+	 * Copies the given data directory, which must have its marker and not be in use by MariaDB, as
+	 * the pristine data directory of the given database zip.
+	 */
+	public static void savePristine(File dataDir, File zipFile) throws IOException {
+		File pristineDir = getPristineDir(zipFile);
+		FileUtils.deleteDirectory(pristineDir);
+		// Copy the marker last, so that an interrupted copy is never taken for a pristine one
+		FileUtils.copyDirectory(dataDir, pristineDir, file -> !isRuntimeFile(file) && !MARKER_FILE.equals(file.getName()));
+		FileUtils.copyFile(new File(dataDir, MARKER_FILE), new File(pristineDir, MARKER_FILE));
+		System.out.println("Saved the pristine database of " + zipFile.getName() + " to " + pristineDir);
+	}
+
+	/**
+	 * Copies the pristine data directory of the given database zip into the given data directory,
+	 * if there is one for the very same dump.
+	 *
+	 * @return true if the pristine data directory was restored.
+	 */
+	public static boolean restorePristine(File zipFile, File dataDir) throws IOException {
+		File pristineDir = getPristineDir(zipFile);
+		if (!pristineDir.isDirectory() || !matches(pristineDir, hashDump(zipFile), null)) {
+			return false;
+		}
+		FileUtils.copyDirectory(pristineDir, dataDir);
+		System.out.println("Restored the pristine database of " + zipFile.getName() + " from " + pristineDir);
+		return true;
+	}
+
+	private static Properties read(File dataDir) {
+		File markerFile = new File(dataDir, MARKER_FILE);
+		if (!markerFile.exists()) {
+			return null;
+		}
+		Properties marker = new Properties();
+		try (InputStream in = new FileInputStream(markerFile)) {
+			marker.load(in);
+			return marker;
+		}
+		catch (IOException ex) {
+			System.out.println("Failed to read " + markerFile + ": " + ex.getMessage());
+			return null;
+		}
+	}
+
+	private static boolean isRuntimeFile(File file) {
+		String name = file.getName();
+		return name.endsWith(".pid") || name.endsWith(".err") || name.endsWith(".sock");
+	}
+}
@@ -0,0 +1,112 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.standalone;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.Properties;
+
+/**
+ * Prepares the data directory of a build database to be shipped as a ready-to-use snapshot, which
+ * the standalone restores on first run instead of replaying the SQL dump.
+ */
+public class DatabaseSnapshot {
+
+    /** The name of the file describing the snapshot, next to the SQL dump in the database zip. */
+    public static final String SNAPSHOT_PROPERTIES = "snapshot.properties";
+
+    /** The folder holding the data directory inside the database zip. */
+    public static final String SNAPSHOT_ENTRY_PREFIX = "data/snapshot/";
+
+    private static final String KEY_SERVER_VERSION = "server.version";
+
+    // This is to be called via pom-step-03 and pom-step-05 after dumping the database, and before stopping it
+    public static void main(String[] args) throws Exception {
+        if (args.length < 3) {
+            System.err.println("Usage: java DatabaseSnapshot <snapshot properties file> <jdbcUrl> <user> [password]");
+            System.exit(1);
+        }
+
+        File propertiesFile = new File(args[0]);
+        String jdbcUrl = args[1];
+        String username = args[2];
+        String password = args.length > 3 ? args[3] : "";
+
+        Class.forName("org.mariadb.jdbc.Driver").getDeclaredConstructor().newInstance();
+
+        String version;
+        try (Connection connection = DriverManager.getConnection(jdbcUrl, username, password);
+             Statement stmt = connection.createStatement()) {
+            try (ResultSet resultSet = stmt.executeQuery("SELECT VERSION()")) {
+                resultSet.next();
+                version = resultSet.getString(1);
+            }
+
+            // Have InnoDB merge everything into the data files when the build stops the server,
+            // so that the copied data directory needs no crash recovery or purge on first run.
+            stmt.execute("SET GLOBAL innodb_fast_shutdown = 0");
+        }
+
+        Properties properties = new Properties();
+        properties.setProperty(KEY_SERVER_VERSION, version);
+        try (OutputStream out = new FileOutputStream(propertiesFile)) {
+            properties.store(out, "Data directory snapshot of the OpenMRS database");
+        }
+
+        System.out.println("✅ Prepared a data directory snapshot made by MariaDB " + version);
+    }
+
+    /**
+     * @param propertiesFile the snapshot properties file.
+     * @return the version of the MariaDB server which made the snapshot.
+     */
+    public static String readServerVersion(File propertiesFile) throws IOException {
+        Properties properties = new Properties();
+        try (InputStream in = new FileInputStream(propertiesFile)) {
+            properties.load(in);
+        }
+        return properties.getProperty(KEY_SERVER_VERSION);
+    }
+
+    /**
+     * A data directory can be used as is by any server of the same release series, e.g. 11.4.
+     *
+     * @param snapshotVersion the version of the server which made the snapshot.
+     * @param serverVersion the version of the server which is to use it.
+     * @return true if the snapshot can be used by the server.
+     */
+    public static boolean isCompatible(String snapshotVersion, String serverVersion) {
+        String series = getReleaseSeries(snapshotVersion);
+        return series != null && series.equals(getReleaseSeries(serverVersion));
+    }
+
+    private static String getReleaseSeries(String version) {
+        if (version == null) {
+            return null;
+        }
+        String[] parts = version.split("[.-]");
+        if (parts.length < 2) {
+            return null;
+        }
+        return parts[0] + "." + parts[1];
+    }
+}
@@ -19,6 +19,8 @@ import static org.openmrs.standalone.OpenmrsUtil.importSqlFile;
 
 public class DbInitializer {
     // This is to be called via pom-step-04 with id 'import-demo-sql'
+    // Optional 5th and 6th arguments are the packet size and the number of threads of the SqlImporter
+    // pom-step-04 starts MariaDB in bulk load mode for this, as MariaDbController does for the first run
     public static void main(String[] args) throws Exception {
         Class.forName("org.mariadb.jdbc.Driver").getDeclaredConstructor().newInstance();
 
@@ -26,7 +28,12 @@ public class DbInitializer {
         String jdbcUrl = args[1];
         String username = args[2];
         String password = args[3];
+        int packetSize = args.length > 4 ? Integer.parseInt(args[4]) : 0;
+        int threads = args.length > 5 ? Integer.parseInt(args[5]) : 0;
 
-        importSqlFile(new File(sqlFilePath), jdbcUrl, username, password);
+        // Run by exec:java in the Maven JVM, where throwing fails the build without exiting Maven
+        if (!importSqlFile(new File(sqlFilePath), jdbcUrl, username, password, packetSize, threads)) {
+            throw new RuntimeException("Failed to import " + sqlFilePath);
+        }
     }
 }
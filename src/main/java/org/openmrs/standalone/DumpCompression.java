@@ -0,0 +1,218 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.standalone;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Compresses database dumps as they are written, and decompresses them as they are read, telling
+ * the format from the magic bytes of the data. gzip is built into the JVM, while zstd needs the
+ * zstd command on the path, on the machine reading the dump as well as on the one writing it.
+ */
+public class DumpCompression {
+
+	public enum Format {
+
+		NONE(""), GZIP(".gz"), ZSTD(".zst");
+
+		private final String extension;
+
+		Format(String extension) {
+			this.extension = extension;
+		}
+
+		/**
+		 * @return the file name extension of this format, like ".gz", or an empty string.
+		 */
+		public String getExtension() {
+			return extension;
+		}
+	}
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private static final String ZSTD = "zstd";
+
+	private static final byte[] GZIP_MAGIC = { (byte) 0x1f, (byte) 0x8b };
+
+	private static final byte[] ZSTD_MAGIC = { (byte) 0x28, (byte) 0xb5, (byte) 0x2f, (byte) 0xfd };
+
+	private static Boolean zstdAvailable;
+
+	/**
+	 * @param name none, gzip or zstd, case insensitive.
+	 * @return the format to write with. zstd falls back to gzip if the zstd command is missing.
+	 */
+	public static Format forName(String name) {
+		Format format = Format.valueOf(name.trim().toUpperCase());
+		if (format == Format.ZSTD && !isZstdAvailable()) {
+			System.out.println("⚠️ zstd was not found on the path, compressing with gzip instead");
+			return Format.GZIP;
+		}
+		return format;
+	}
+
+	/**
+	 * Opens the given file for writing in the given format. For zstd, the data is piped through the
+	 * zstd command, and closing the stream waits for it to finish.
+	 */
+	public static OutputStream open(File file, Format format) throws IOException {
+		switch (format) {
+			case GZIP:
+				return new GZIPOutputStream(new FileOutputStream(file), BUFFER_SIZE);
+			case ZSTD:
+				ProcessBuilder builder = new ProcessBuilder(ZSTD, "-q", "-T0", "-c");
+				builder.redirectOutput(file);
+				builder.redirectError(ProcessBuilder.Redirect.INHERIT);
+				final Process process = builder.start();
+				return new FilterOutputStream(new BufferedOutputStream(process.getOutputStream(), BUFFER_SIZE)) {
+
+					@Override
+					public void write(byte[] bytes, int offset, int length) throws IOException {
+						out.write(bytes, offset, length);
+					}
+
+					@Override
+					public void close() throws IOException {
+						super.close();
+						waitFor(process);
+					}
+				};
+			default:
+				return new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE);
+		}
+	}
+
+	/**
+	 * @return a stream of the decompressed data, if the given stream is gzip or zstd compressed,
+	 *         else the data as is.
+	 */
+	public static InputStream decompress(InputStream in) throws IOException {
+		BufferedInputStream buffered = new BufferedInputStream(in, BUFFER_SIZE);
+		buffered.mark(ZSTD_MAGIC.length);
+		byte[] magic = new byte[ZSTD_MAGIC.length];
+		int read = 0;
+		int count;
+		while (read < magic.length && (count = buffered.read(magic, read, magic.length - read)) != -1) {
+			read += count;
+		}
+		buffered.reset();
+
+		if (startsWith(magic, read, GZIP_MAGIC)) {
+			return new GZIPInputStream(buffered, BUFFER_SIZE);
+		}
+		if (startsWith(magic, read, ZSTD_MAGIC)) {
+			if (!isZstdAvailable()) {
+				throw new IOException("The dump is zstd compressed, but zstd was not found on the path");
+			}
+			return decompressWithZstd(buffered);
+		}
+		return buffered;
+	}
+
+	private static InputStream decompressWithZstd(final InputStream in) throws IOException {
+		ProcessBuilder builder = new ProcessBuilder(ZSTD, "-q", "-d", "-c");
+		builder.redirectError(ProcessBuilder.Redirect.INHERIT);
+		final Process process = builder.start();
+
+		final IOException[] feedFailure = new IOException[1];
+		Thread feeder = new Thread(() -> {
+			try (OutputStream out = process.getOutputStream()) {
+				byte[] buffer = new byte[BUFFER_SIZE];
+				int count;
+				while ((count = in.read(buffer)) != -1) {
+					out.write(buffer, 0, count);
+				}
+			}
+			catch (IOException ex) {
+				feedFailure[0] = ex;
+			}
+		}, "zstd-feeder");
+		feeder.setDaemon(true);
+		feeder.start();
+
+		return new FilterInputStream(new BufferedInputStream(process.getInputStream(), BUFFER_SIZE)) {
+
+			@Override
+			public void close() throws IOException {
+				super.close();
+				try {
+					feeder.join();
+				}
+				catch (InterruptedException ex) {
+					Thread.currentThread().interrupt();
+				}
+				in.close();
+				if (feedFailure[0] != null) {
+					throw feedFailure[0];
+				}
+				waitFor(process);
+			}
+		};
+	}
+
+	private static void waitFor(Process process) throws IOException {
+		try {
+			if (!process.waitFor(1, TimeUnit.MINUTES)) {
+				process.destroy();
+				throw new IOException("zstd did not finish");
+			}
+		}
+		catch (InterruptedException ex) {
+			process.destroy();
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for zstd", ex);
+		}
+		if (process.exitValue() != 0) {
+			throw new IOException("zstd failed with exit code " + process.exitValue());
+		}
+	}
+
+	private static boolean startsWith(byte[] bytes, int length, byte[] prefix) {
+		if (length < prefix.length) {
+			return false;
+		}
+		for (int i = 0; i < prefix.length; i++) {
+			if (bytes[i] != prefix[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static synchronized boolean isZstdAvailable() {
+		if (zstdAvailable == null) {
+			try {
+				Process process = new ProcessBuilder(ZSTD, "--version").redirectErrorStream(true)
+				        .redirectOutput(ProcessBuilder.Redirect.DISCARD).start();
+				zstdAvailable = process.waitFor(10, TimeUnit.SECONDS) && process.exitValue() == 0;
+			}
+			catch (Exception ex) {
+				zstdAvailable = false;
+			}
+		}
+		return zstdAvailable;
+	}
+}
@@ -0,0 +1,175 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.standalone;
+
+/**
+ * A snapshot of how far a {@link SqlImporter} has got, as published to a {@link Listener} every so
+ * often while it runs.
+ */
+public class ImportProgress {
+
+	/**
+	 * Receives the progress of an import. It is called from a thread of its own, never from the
+	 * threads doing the import, so a slow listener does not slow the import down.
+	 */
+	public interface Listener {
+
+		void onProgress(ImportProgress progress);
+	}
+
+	private final long bytesRead;
+
+	private final long totalBytes;
+
+	private final long statements;
+
+	private final long rows;
+
+	private final long elapsedMillis;
+
+	private final String currentTable;
+
+	private final boolean finished;
+
+	private final boolean failed;
+
+	public ImportProgress(long bytesRead, long totalBytes, long statements, long rows, long elapsedMillis,
+	    String currentTable, boolean finished, boolean failed) {
+		this.bytesRead = bytesRead;
+		this.totalBytes = totalBytes;
+		this.statements = statements;
+		this.rows = rows;
+		this.elapsedMillis = elapsedMillis;
+		this.currentTable = currentTable;
+		this.finished = finished;
+		this.failed = failed;
+	}
+
+	/**
+	 * @return the number of bytes of the dump read so far, as stored, that is before decompressing.
+	 */
+	public long getBytesRead() {
+		return bytesRead;
+	}
+
+	/**
+	 * @return the size of the dump as stored, or -1 if it is not known.
+	 */
+	public long getTotalBytes() {
+		return totalBytes;
+	}
+
+	public long getStatements() {
+		return statements;
+	}
+
+	public long getRows() {
+		return rows;
+	}
+
+	public long getElapsedMillis() {
+		return elapsedMillis;
+	}
+
+	/**
+	 * @return the table last read from the dump, or null.
+	 */
+	public String getCurrentTable() {
+		return currentTable;
+	}
+
+	/**
+	 * @return true if this is the last progress of the import, whether it succeeded or not.
+	 */
+	public boolean isFinished() {
+		return finished;
+	}
+
+	/**
+	 * @return true if the import stopped on an error.
+	 */
+	public boolean isFailed() {
+		return failed;
+	}
+
+	public long getRowsPerSecond() {
+		return rows * 1000 / Math.max(1, elapsedMillis);
+	}
+
+	/**
+	 * @return how far the import has got, from 0 to 100, or -1 if the size of the dump is not known.
+	 */
+	public int getPercent() {
+		if (finished && !failed) {
+			return 100;
+		}
+		if (totalBytes <= 0) {
+			return -1;
+		}
+		return (int) Math.min(99, bytesRead * 100 / totalBytes);
+	}
+
+	/**
+	 * @return the estimated number of seconds left, from the rate the dump has been read at so far,
+	 *         or -1 if it cannot be estimated yet.
+	 */
+	public long getSecondsLeft() {
+		if (finished) {
+			return 0;
+		}
+		if (totalBytes <= 0 || bytesRead <= 0 || elapsedMillis < 1000) {
+			return -1;
+		}
+		return Math.max(0, totalBytes - bytesRead) * elapsedMillis / bytesRead / 1000;
+	}
+
+	/**
+	 * @return a one line description, like "42% - 12000 statements, 350000 rows (25000 rows/s) -
+	 *         obs - about 1m 20s left".
+	 */
+	@Override
+	public String toString() {
+		StringBuilder text = new StringBuilder();
+		int percent = getPercent();
+		if (percent >= 0) {
+			text.append(percent).append("% - ");
+		}
+		else {
+			text.append(bytesRead / 1024 / 1024).append(" MB - ");
+		}
+		text.append(statements).append(" statements, ").append(rows).append(" rows (").append(getRowsPerSecond())
+		        .append(" rows/s)");
+		if (currentTable != null && !finished) {
+			text.append(" - ").append(currentTable);
+		}
+		long secondsLeft = getSecondsLeft();
+		if (failed) {
+			text.append(" - failed after ").append(formatDuration(elapsedMillis / 1000));
+		}
+		else if (finished) {
+			text.append(" - done in ").append(formatDuration(elapsedMillis / 1000));
+		}
+		else if (secondsLeft >= 0) {
+			text.append(" - about ").append(formatDuration(secondsLeft)).append(" left");
+		}
+		return text.toString();
+	}
+
+	private static String formatDuration(long seconds) {
+		if (seconds < 60) {
+			return seconds + "s";
+		}
+		return (seconds / 60) + "m " + (seconds % 60) + "s";
+	}
+}
@@ -0,0 +1,161 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.standalone;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Properties;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Finds out at build time which jars of a WAR Tomcat actually needs to scan on startup, and
+ * records them in the WAR for the production mode of {@link TomcatManager}:
+ * <ul>
+ * <li>for TLDs, the jars with .tld files under META-INF,</li>
+ * <li>for pluggability, the jars with a web-fragment.xml, a ServletContainerInitializer, static
+ * resources under META-INF/resources or classes using the servlet annotations.</li>
+ * </ul>
+ * Classes of the other jars which only match the @HandlesTypes of an initializer are not found,
+ * the OpenMRS webapp is set up in its web.xml and has no need for them.
+ */
+public class JarScanIndexer {
+
+    /** Added to the WAR, with the comma separated names of the jars to scan. */
+    public static final String INDEX_ENTRY = "WEB-INF/jar-scan.properties";
+
+    public static final String KEY_TLD_SCAN = "tld.scan";
+
+    public static final String KEY_PLUGGABILITY_SCAN = "pluggability.scan";
+
+    private static final String LIB = "WEB-INF/lib/";
+
+    private static final String SERVLET_ANNOTATIONS = "javax/servlet/annotation/";
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("Usage: java JarScanIndexer <war file>");
+            System.exit(1);
+        }
+
+        File warFile = new File(args[0]);
+        long start = System.currentTimeMillis();
+        Properties index = index(warFile);
+
+        try (FileSystem war = FileSystems.newFileSystem(warFile.toPath());
+             OutputStream out = Files.newOutputStream(war.getPath(INDEX_ENTRY))) {
+            index.store(out, "The jars of this WAR which Tomcat scans in production mode");
+        }
+
+        System.out.println("✅ Indexed the jars of " + warFile.getName() + " in "
+                + (System.currentTimeMillis() - start) + " ms");
+        System.out.println("   Scanned for TLDs: " + index.getProperty(KEY_TLD_SCAN));
+        System.out.println("   Scanned for pluggability: " + index.getProperty(KEY_PLUGGABILITY_SCAN));
+    }
+
+    /**
+     * @return the jars of the given WAR to scan for TLDs and for pluggability, under
+     *         {@link #KEY_TLD_SCAN} and {@link #KEY_PLUGGABILITY_SCAN}.
+     */
+    static Properties index(File warFile) throws IOException {
+        List<String> tldJars = new ArrayList<>();
+        List<String> pluggabilityJars = new ArrayList<>();
+
+        try (ZipFile war = new ZipFile(warFile)) {
+            Enumeration<? extends ZipEntry> entries = war.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                String name = entry.getName();
+                if (entry.isDirectory() || !name.startsWith(LIB) || !name.endsWith(".jar")
+                        || name.indexOf('/', LIB.length()) >= 0) {
+                    continue;
+                }
+
+                boolean tlds = false;
+                boolean pluggable = false;
+                try (ZipInputStream jar = new ZipInputStream(war.getInputStream(entry))) {
+                    ZipEntry jarEntry;
+                    while ((jarEntry = jar.getNextEntry()) != null && !(tlds && pluggable)) {
+                        String jarEntryName = jarEntry.getName();
+                        if (jarEntryName.startsWith("META-INF/") && jarEntryName.endsWith(".tld")) {
+                            tlds = true;
+                        } else if (jarEntryName.equals("META-INF/web-fragment.xml")
+                                || jarEntryName.equals("META-INF/services/javax.servlet.ServletContainerInitializer")
+                                || jarEntryName.startsWith("META-INF/resources/")) {
+                            pluggable = true;
+                        } else if (!pluggable && jarEntryName.endsWith(".class") && contains(jar, SERVLET_ANNOTATIONS)) {
+                            pluggable = true;
+                        }
+                    }
+                }
+
+                String jarName = name.substring(LIB.length());
+                if (tlds) {
+                    tldJars.add(jarName);
+                }
+                if (pluggable) {
+                    pluggabilityJars.add(jarName);
+                }
+            }
+        }
+
+        Properties index = new Properties();
+        index.setProperty(KEY_TLD_SCAN, String.join(",", tldJars));
+        index.setProperty(KEY_PLUGGABILITY_SCAN, String.join(",", pluggabilityJars));
+        return index;
+    }
+
+    /**
+     * @return the jars to scan recorded in the given WAR, or null if it was not indexed.
+     */
+    public static Properties readIndex(File warFile) throws IOException {
+        try (ZipFile war = new ZipFile(warFile)) {
+            ZipEntry entry = war.getEntry(INDEX_ENTRY);
+            if (entry == null) {
+                return null;
+            }
+            Properties index = new Properties();
+            try (InputStream in = war.getInputStream(entry)) {
+                index.load(in);
+            }
+            return index;
+        }
+    }
+
+    /**
+     * @return true if the current entry of the given stream contains the given ASCII string, as the
+     *         constant pool of a class using a class of that package does.
+     */
+    private static boolean contains(InputStream in, String needle) throws IOException {
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int count;
+        while ((count = in.read(buffer)) != -1) {
+            content.write(buffer, 0, count);
+        }
+        // Latin-1 maps each byte to a char, so that the bytes can be searched as a string
+        return new String(content.toByteArray(), StandardCharsets.ISO_8859_1).contains(needle);
+    }
+}
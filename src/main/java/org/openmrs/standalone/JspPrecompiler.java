@@ -0,0 +1,192 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.standalone;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Properties;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.catalina.util.ServerInfo;
+import org.apache.commons.io.FileUtils;
+import org.apache.jasper.JspC;
+
+/**
+ * Compiles the JSPs of a WAR with the Jasper of the bundled Tomcat at build time, and puts the
+ * compiled servlets back into the WAR along with their servlet mappings in its web.xml. Tomcat
+ * then serves those pages straight from the compiled classes, without compiling them on first
+ * use. JSPs which fail to compile, for instance because they need classes of a module, are left
+ * to be compiled at runtime as before.
+ */
+public class JspPrecompiler {
+
+    /** Added to the WAR, to tell that its JSPs were precompiled and by which Tomcat version. */
+    public static final String MARKER_ENTRY = "WEB-INF/jspc.properties";
+
+    public static final String KEY_TOMCAT_VERSION = "tomcat.version";
+
+    public static final String KEY_SERVLETS = "servlets";
+
+    private static final String WEB_XML = "WEB-INF/web.xml";
+
+    private static final String CLASSES = "WEB-INF/classes/";
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println("Usage: java JspPrecompiler <war file> <work dir> [threads]");
+            System.exit(1);
+        }
+
+        File warFile = new File(args[0]);
+        File workDir = new File(args[1]);
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+
+        if (readMarker(warFile) != null) {
+            System.out.println("The JSPs of " + warFile.getName() + " are already precompiled");
+            return;
+        }
+
+        long start = System.currentTimeMillis();
+        FileUtils.deleteDirectory(workDir);
+        File webappDir = new File(workDir, "webapp");
+        File outputDir = new File(workDir, "classes");
+        File webXmlFragment = new File(workDir, "web-fragment.xml");
+        unzip(warFile, webappDir);
+
+        JspC jspc = new JspC();
+        jspc.setUriroot(webappDir.getAbsolutePath());
+        jspc.setOutputDir(outputDir.getAbsolutePath());
+        jspc.setPackage("org.apache.jsp");
+        jspc.setCompile(true);
+        // Merges the servlet mappings of the compiled JSPs into the web.xml of the webapp
+        jspc.setWebXmlInclude(webXmlFragment.getAbsolutePath());
+        jspc.setAddWebXmlMappings(true);
+        jspc.setFailOnError(false);
+        jspc.setThreadCount(String.valueOf(threads));
+        jspc.execute();
+
+        List<Path> classFiles;
+        try (Stream<Path> files = Files.walk(outputDir.toPath())) {
+            classFiles = files.filter(file -> file.toString().endsWith(".class")).collect(Collectors.toList());
+        }
+
+        File precompiledWar = new File(workDir, warFile.getName());
+        repack(warFile, precompiledWar, new File(webappDir, WEB_XML), outputDir.toPath(), classFiles);
+        Files.move(precompiledWar.toPath(), warFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+        System.out.println("✅ Precompiled the JSPs of " + warFile.getName() + " into " + classFiles.size()
+                + " classes with Tomcat " + ServerInfo.getServerNumber() + " in "
+                + (System.currentTimeMillis() - start) / 1000 + " s");
+    }
+
+    /**
+     * @return the properties recorded in the given WAR when its JSPs were precompiled, or null if
+     *         they were not.
+     */
+    public static Properties readMarker(File warFile) throws IOException {
+        try (ZipFile war = new ZipFile(warFile)) {
+            ZipEntry entry = war.getEntry(MARKER_ENTRY);
+            if (entry == null) {
+                return null;
+            }
+            Properties marker = new Properties();
+            try (InputStream in = war.getInputStream(entry)) {
+                marker.load(in);
+            }
+            return marker;
+        }
+    }
+
+    /**
+     * Copies the given WAR with the merged web.xml, the compiled JSPs and the marker.
+     */
+    private static void repack(File warFile, File target, File webXml, Path outputDir, List<Path> classFiles)
+            throws IOException {
+        try (ZipFile war = new ZipFile(warFile);
+             ZipOutputStream out = new ZipOutputStream(new FileOutputStream(target))) {
+            Enumeration<? extends ZipEntry> entries = war.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                if (entry.getName().equals(MARKER_ENTRY)) {
+                    continue;
+                }
+                out.putNextEntry(new ZipEntry(entry.getName()));
+                try (InputStream in = entry.getName().equals(WEB_XML) ? new FileInputStream(webXml)
+                        : war.getInputStream(entry)) {
+                    copy(in, out);
+                }
+                out.closeEntry();
+            }
+
+            for (Path classFile : classFiles) {
+                String name = CLASSES + outputDir.relativize(classFile).toString().replace(File.separatorChar, '/');
+                if (war.getEntry(name) != null) {
+                    continue;
+                }
+                out.putNextEntry(new ZipEntry(name));
+                Files.copy(classFile, out);
+                out.closeEntry();
+            }
+
+            Properties marker = new Properties();
+            marker.setProperty(KEY_TOMCAT_VERSION, ServerInfo.getServerNumber());
+            marker.setProperty(KEY_SERVLETS, String.valueOf(classFiles.size()));
+            out.putNextEntry(new ZipEntry(MARKER_ENTRY));
+            marker.store(out, "The JSPs of this WAR were precompiled");
+            out.closeEntry();
+        }
+    }
+
+    private static void unzip(File zipFile, File dir) throws IOException {
+        try (ZipFile zip = new ZipFile(zipFile)) {
+            Enumeration<? extends ZipEntry> entries = zip.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                File file = new File(dir, entry.getName());
+                if (!file.toPath().normalize().startsWith(dir.toPath().normalize())) {
+                    throw new IOException("Bad zip entry: " + entry.getName());
+                }
+                if (entry.isDirectory()) {
+                    file.mkdirs();
+                    continue;
+                }
+                file.getParentFile().mkdirs();
+                try (InputStream in = zip.getInputStream(entry); OutputStream out = new FileOutputStream(file)) {
+                    copy(in, out);
+                }
+            }
+        }
+    }
+
+    private static void copy(InputStream in, OutputStream out) throws IOException {
+        byte[] buffer = new byte[64 * 1024];
+        int count;
+        while ((count = in.read(buffer)) != -1) {
+            out.write(buffer, 0, count);
+        }
+    }
+}
@@ -0,0 +1,1290 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.standalone;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * An index of the lines of the log files under tomcat/logs, rolled over and compressed ones
+ * included, to find lines by level, time and words without reading the files.
+ * <p>
+ * For each line, the index only holds where it is in its file, its time and level, and the words
+ * in it point to the lines having them. A thread of its own follows the log file being written,
+ * which is the only one indexed in memory. Once a file is rolled over, its index is written next to
+ * it, under index/, and only read again for searching, a bounded number of them being kept in
+ * memory. The lines themselves are read from the files for the matches only, seeking in plain files
+ * and streaming once through compressed ones.
+ */
+public class LogIndex {
+
+	/**
+	 * The level of a log line, SEVERE counting as ERROR and WARNING as WARN.
+	 */
+	public enum Level {
+		TRACE, DEBUG, INFO, WARN, ERROR, FATAL
+	}
+
+	/**
+	 * A line found by a search.
+	 */
+	public static class Hit {
+
+		private final File file;
+
+		private final long time;
+
+		private final Level level;
+
+		private final String line;
+
+		Hit(File file, long time, Level level, String line) {
+			this.file = file;
+			this.time = time;
+			this.level = level;
+			this.line = line;
+		}
+
+		public File getFile() {
+			return file;
+		}
+
+		/**
+		 * @return the time of the line, as logged in it or else when it was written.
+		 */
+		public long getTime() {
+			return time;
+		}
+
+		/**
+		 * @return the level of the line, or null if it has none.
+		 */
+		public Level getLevel() {
+			return level;
+		}
+
+		public String getLine() {
+			return line;
+		}
+	}
+
+	/** How many days of log files are indexed. */
+	public static final int DEFAULT_RETENTION_DAYS = 7;
+
+	/** The directory of the indexes of the rolled over files, under the log directory. */
+	public static final String INDEX_DIR = "index";
+
+	/** How much memory the indexes of rolled over files read for searching may take. */
+	private static final long MAX_CACHED_BYTES = 16 * 1024 * 1024;
+
+	private static final int INDEX_MAGIC = 0x4f4c4958;
+
+	private static final int INDEX_VERSION = 1;
+
+	private static final int MIN_WORD_LENGTH = 2;
+
+	private static final int MAX_WORD_LENGTH = 64;
+
+	/** How far into a line its level and time are looked for. */
+	private static final int HEADER_LENGTH = 120;
+
+	private static final int BLOCK_SIZE = 64 * 1024;
+
+	private static final Pattern TIMESTAMP = Pattern.compile("\\d{4}-\\d{2}-\\d{2}[T ]\\d{2}:\\d{2}:\\d{2}");
+
+	private static final DateTimeFormatter FILE_DATE = DateTimeFormatter.ofPattern("yyyy-M-d");
+
+	private static final Pattern LOG_FILE = Pattern.compile("(\\d{4}-\\d{1,2}-\\d{1,2})(\\.\\d+)?\\.log(\\.gz)?");
+
+	/**
+	 * The lines of a log file, in the order they were indexed.
+	 */
+	private static class Segment {
+
+		int count;
+
+		long[] offsets;
+
+		int[] lengths;
+
+		long[] times;
+
+		byte[] levels;
+
+		long maxTime = Long.MIN_VALUE;
+
+		final Map<String, Postings> postings = new HashMap<String, Postings>();
+
+		/** The time of the last line, for the next ones which have none. */
+		long lastTime;
+
+		Level lastLevel;
+
+		Segment(int capacity) {
+			offsets = new long[capacity];
+			lengths = new int[capacity];
+			times = new long[capacity];
+			levels = new byte[capacity];
+		}
+
+		/**
+		 * @return roughly how much memory this takes.
+		 */
+		long estimateSize() {
+			long size = count * 21L;
+			for (Map.Entry<String, Postings> entry : postings.entrySet()) {
+				size += 64 + entry.getKey().length() * 2L + entry.getValue().size * 4L;
+			}
+			return size;
+		}
+	}
+
+	/**
+	 * A rolled over log file, whose index is on disk.
+	 */
+	private static class Entry {
+
+		/** The name of the file, without .gz, which is also the name of its index. */
+		volatile String name;
+
+		volatile File file;
+
+		final int count;
+
+		final long maxTime;
+
+		Entry(String name, File file, int count, long maxTime) {
+			this.name = name;
+			this.file = file;
+			this.count = count;
+			this.maxTime = maxTime;
+		}
+	}
+
+	/**
+	 * The sorted ids of the lines having a word.
+	 */
+	private static class Postings {
+
+		int[] ids;
+
+		int size;
+
+		Postings() {
+			ids = new int[4];
+		}
+
+		Postings(int[] ids) {
+			this.ids = ids;
+			this.size = ids.length;
+		}
+
+		void add(int id) {
+			if (size > 0 && ids[size - 1] == id) {
+				return;
+			}
+			if (size == ids.length) {
+				ids = Arrays.copyOf(ids, size * 2);
+			}
+			ids[size++] = id;
+		}
+	}
+
+	/**
+	 * Cuts bytes into lines, keeping the end of the last line until the rest of it comes.
+	 */
+	private static class LineSplitter {
+
+		private final ByteArrayOutputStream partial = new ByteArrayOutputStream();
+
+		private long partialStart = -1;
+
+		interface LineHandler {
+
+			void line(long offset, byte[] bytes, int off, int len);
+		}
+
+		void feed(long position, byte[] bytes, int off, int len, LineHandler handler) {
+			int start = off;
+			for (int i = off; i < off + len; i++) {
+				if (bytes[i] != '\n') {
+					continue;
+				}
+				long lineOffset = position + (start - off);
+				if (partial.size() > 0) {
+					partial.write(bytes, start, i + 1 - start);
+					handler.line(partialStart, partial.toByteArray(), 0, partial.size());
+					partial.reset();
+				} else {
+					handler.line(lineOffset, bytes, start, i + 1 - start);
+				}
+				start = i + 1;
+			}
+			if (start < off + len) {
+				if (partial.size() == 0) {
+					partialStart = position + (start - off);
+				}
+				partial.write(bytes, start, off + len - start);
+			}
+		}
+
+		void finish(LineHandler handler) {
+			if (partial.size() > 0) {
+				handler.line(partialStart, partial.toByteArray(), 0, partial.size());
+				partial.reset();
+			}
+		}
+	}
+
+	/**
+	 * A file to search, with the lines of its segment having the words searched for.
+	 */
+	private static class Source {
+
+		final File file;
+
+		final long maxTime;
+
+		final Entry entry;
+
+		Segment segment;
+
+		/** The lines of the segment to look at, or null for its first count lines. */
+		int[] ids;
+
+		int count;
+
+		Source(File file, long maxTime, Entry entry) {
+			this.file = file;
+			this.maxTime = maxTime;
+			this.entry = entry;
+		}
+	}
+
+	private final File dir;
+
+	private final File indexDir;
+
+	private final Charset charset;
+
+	/** Guarded by this, the rolled over files by name. */
+	private final Map<String, Entry> entries = new HashMap<String, Entry>();
+
+	/** Guarded by this, the file being written and its segment, or null. */
+	private File liveFile;
+
+	private Segment live;
+
+	/** Only used by the indexer thread, like the fields below. */
+	private FileChannel liveChannel;
+
+	private long liveRead;
+
+	/** What tells the live file from a new file of the same name, or null if the system has nothing. */
+	private Object liveKey;
+
+	/** Where the lines written while running start in the live file, the lines before having no time. */
+	private long liveFrom;
+
+	private final LineSplitter liveSplitter = new LineSplitter();
+
+	/** The last timestamp parsed and its time, as many lines in a row share the same second. */
+	private String lastTimestamp;
+
+	private long lastTimestampTime;
+
+	/** The segments of rolled over files read for searching, the least recently used first. */
+	private final LinkedHashMap<String, Segment> cache = new LinkedHashMap<String, Segment>(16, 0.75f, true);
+
+	private long cachedBytes;
+
+	private final BlockingQueue<Runnable> events = new LinkedBlockingQueue<Runnable>();
+
+	/** The file the appender writes to, which the indexer catches up with. */
+	private volatile File currentFile;
+
+	private final AtomicBoolean catchUpQueued = new AtomicBoolean();
+
+	/**
+	 * @param dir the directory of the log files.
+	 */
+	public LogIndex(File dir, Charset charset) {
+		this.dir = dir;
+		this.indexDir = new File(dir, INDEX_DIR);
+		this.charset = charset;
+	}
+
+	/**
+	 * Starts the thread which indexes the log files of the last given days, reading the indexes of
+	 * those which have one, and then follows the log file being written.
+	 */
+	public void start(final int days) {
+		Thread indexer = new Thread(() -> {
+			indexExisting(days);
+			try {
+				while (true) {
+					events.take().run();
+				}
+			}
+			catch (InterruptedException ex) {
+				//Shutting down
+			}
+		}, "log-indexer");
+		indexer.setDaemon(true);
+		indexer.setPriority(Thread.MIN_PRIORITY);
+		indexer.start();
+	}
+
+	/**
+	 * Tells the index that the given log file was written to. This only wakes up the indexer
+	 * thread, which reads what was written from the file.
+	 */
+	public void written(File file) {
+		currentFile = file;
+		if (catchUpQueued.compareAndSet(false, true)) {
+			events.add(() -> {
+				catchUpQueued.set(false);
+				catchUp(false);
+			});
+		}
+	}
+
+	/**
+	 * Follows a log file which was renamed or compressed. The offsets of the lines of a compressed
+	 * file are those in the uncompressed content.
+	 */
+	public void renamed(final File from, final File to) {
+		events.add(() -> {
+			if (liveChannel != null && from.equals(getLiveFile()) && isFollowing(from, to)) {
+				finishLive(to);
+				// The appender may already have written to a new file of the same name
+				catchUp(false);
+				return;
+			}
+			synchronized (this) {
+				for (Entry entry : entries.values()) {
+					if (entry.file.equals(from)) {
+						entry.file = to;
+						String name = getName(to);
+						if (!name.equals(entry.name)) {
+							getIndexFile(entry.name).renameTo(getIndexFile(name));
+							entries.remove(entry.name);
+							uncache(entry.name);
+							entry.name = name;
+							entries.put(name, entry);
+						}
+						return;
+					}
+				}
+			}
+			// Rolled over before the indexer got to it
+			addRolled(to);
+		});
+	}
+
+	/**
+	 * Forgets the lines of the files with nothing newer than the given time, and deletes their
+	 * indexes.
+	 */
+	public void prune(final long olderThan) {
+		events.add(() -> {
+			List<String> pruned = new ArrayList<String>();
+			synchronized (this) {
+				for (Iterator<Entry> it = entries.values().iterator(); it.hasNext();) {
+					Entry entry = it.next();
+					if (entry.maxTime < olderThan) {
+						it.remove();
+						pruned.add(entry.name);
+					}
+				}
+			}
+			for (String name : pruned) {
+				uncache(name);
+				getIndexFile(name).delete();
+			}
+		});
+	}
+
+	/**
+	 * Waits for the indexer thread to be done with what it was told so far.
+	 *
+	 * @return false if it was not in the given time.
+	 */
+	boolean sync(long timeoutMillis) throws InterruptedException {
+		final CountDownLatch latch = new CountDownLatch(1);
+		events.add(latch::countDown);
+		return latch.await(timeoutMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Finds the lines with all the words of the given text, at or above the given level, and
+	 * logged since the given time, the most recent first.
+	 *
+	 * @param text the words to look for, or an empty text for all lines.
+	 * @param minLevel the lowest level of the lines, or null for all lines including those with no
+	 *            level.
+	 */
+	public List<Hit> search(String text, Level minLevel, long since, int limit) {
+		String lowerCase = text.toLowerCase(Locale.ROOT);
+		// A text of numbers only, such as an id, has no words and is looked for in all the lines
+		String[] words = getWords(lowerCase).toArray(new String[0]);
+		// The words matched, the lines are then checked for the numbers and short words left out
+		String[] terms = getTerms(lowerCase).toArray(new String[0]);
+
+		List<Source> sources = new ArrayList<Source>();
+		synchronized (this) {
+			if (live != null && live.count > 0 && live.maxTime >= since) {
+				Source source = new Source(liveFile, live.maxTime, null);
+				// A copy of what the indexer thread may change while searching
+				source.segment = new Segment(0);
+				source.segment.offsets = live.offsets;
+				source.segment.lengths = live.lengths;
+				source.segment.times = live.times;
+				source.segment.levels = live.levels;
+				source.count = live.count;
+				source.ids = words.length > 0 ? match(live, words) : null;
+				sources.add(source);
+			}
+			for (Entry entry : entries.values()) {
+				if (entry.maxTime >= since) {
+					sources.add(new Source(entry.file, entry.maxTime, entry));
+				}
+			}
+		}
+		sources.sort((a, b) -> Long.compare(b.maxTime, a.maxTime));
+
+		List<Hit> hits = new ArrayList<Hit>();
+		for (Source source : sources) {
+			if (hits.size() >= limit) {
+				break;
+			}
+			if (source.entry != null) {
+				Segment segment = load(source.entry);
+				if (segment == null) {
+					continue;
+				}
+				source.segment = segment;
+				source.count = segment.count;
+				source.ids = words.length > 0 ? match(segment, words) : null;
+			}
+			try {
+				hits.addAll(search(source, terms, minLevel, since, limit - hits.size()));
+			}
+			catch (IOException ex) {
+				//Rolled over or deleted since, the search can be run again
+			}
+		}
+		return hits;
+	}
+
+	/**
+	 * @return the number of lines indexed.
+	 */
+	public synchronized int size() {
+		int size = live != null ? live.count : 0;
+		for (Entry entry : entries.values()) {
+			size += entry.count;
+		}
+		return size;
+	}
+
+	/**
+	 * Reads the indexes of the log files of the last given days, indexing those which have none,
+	 * and catches up with the log file of today.
+	 */
+	private void indexExisting(int days) {
+		File[] files = dir.listFiles((parent, name) -> LOG_FILE.matcher(name).matches());
+		File today = new File(dir, FILE_DATE.format(LocalDate.now()) + ".log");
+		if (files != null) {
+			// The plain files first, as a compressed copy next to one may not be complete
+			Arrays.sort(files, (a, b) -> Boolean.compare(a.getName().endsWith(".gz"), b.getName().endsWith(".gz")));
+			LocalDate oldest = LocalDate.now().minusDays(days);
+			for (File file : files) {
+				LocalDate date = getFileDate(file);
+				if (file.equals(today) || (date != null && date.isBefore(oldest))) {
+					continue;
+				}
+				String name = getName(file);
+				synchronized (this) {
+					if (entries.containsKey(name)) {
+						continue;
+					}
+				}
+				Entry entry = readEntry(name, file);
+				if (entry == null) {
+					try {
+						Segment segment = scan(file);
+						write(segment, getIndexFile(name));
+						entry = new Entry(name, file, segment.count, segment.maxTime);
+					}
+					catch (IOException ex) {
+						//Printing to the std streams here would end up in the log being indexed.
+						continue;
+					}
+				}
+				synchronized (this) {
+					entries.put(name, entry);
+				}
+			}
+		}
+
+		// The indexes of the files gone or too old
+		File[] indexes = indexDir.listFiles();
+		if (indexes != null) {
+			for (File index : indexes) {
+				String name = index.getName();
+				synchronized (this) {
+					if (name.endsWith(".idx") && entries.containsKey(name.substring(0, name.length() - ".idx".length()))) {
+						continue;
+					}
+				}
+				index.delete();
+			}
+		}
+
+		if (currentFile == null && today.exists()) {
+			currentFile = today;
+		}
+		catchUp(true);
+	}
+
+	/**
+	 * Indexes what was written to the current log file since last time, on the indexer thread.
+	 *
+	 * @param startup true if the lines already in the file were written before this started.
+	 */
+	private void catchUp(boolean startup) {
+		File file = currentFile;
+		if (file == null) {
+			return;
+		}
+		try {
+			if (liveChannel != null && !file.equals(getLiveFile())) {
+				// The day changed
+				finishLive(getLiveFile());
+			}
+			if (liveChannel == null) {
+				liveChannel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+				liveKey = getFileKey(file);
+				liveRead = 0;
+				liveFrom = startup ? liveChannel.size() : 0;
+				Segment segment = new Segment(1024);
+				segment.lastTime = getStartOfDay(file);
+				synchronized (this) {
+					liveFile = file;
+					live = segment;
+				}
+			}
+			readLive();
+		}
+		catch (IOException ex) {
+			closeLive();
+		}
+	}
+
+	/**
+	 * Indexes the rest of the live file, which is done with and now goes by the given file, and
+	 * writes its index.
+	 */
+	private void finishLive(File to) {
+		try {
+			readLive();
+		}
+		catch (IOException ex) {
+			//Index what was read
+		}
+		final Segment segment;
+		synchronized (this) {
+			segment = live;
+			// Nothing more is written to it, so its last line is complete
+			liveSplitter.finish((offset, line, lineOff, lineLen) -> addLine(segment, offset, line, lineOff, lineLen,
+			    segment.lastTime));
+		}
+		closeLive();
+
+		String name = getName(to);
+		Entry entry = null;
+		if (segment.count > 0) {
+			try {
+				write(segment, getIndexFile(name));
+				entry = new Entry(name, to, segment.count, segment.maxTime);
+			}
+			catch (IOException ex) {
+				//Not searchable then
+			}
+		}
+		synchronized (this) {
+			if (entry != null) {
+				entries.put(name, entry);
+			}
+			live = null;
+			liveFile = null;
+		}
+		if (entry != null) {
+			// Most likely to be searched next
+			cache(name, segment);
+		}
+	}
+
+	private void readLive() throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(BLOCK_SIZE);
+		int count;
+		while ((count = liveChannel.read(buffer, liveRead)) > 0) {
+			final long now = System.currentTimeMillis();
+			synchronized (this) {
+				final Segment segment = live;
+				liveSplitter.feed(liveRead, buffer.array(), 0, count, (offset, line, lineOff, lineLen) -> addLine(segment,
+				    offset, line, lineOff, lineLen, offset >= liveFrom ? now : -1));
+			}
+			liveRead += count;
+			buffer.clear();
+		}
+	}
+
+	private void closeLive() {
+		if (liveChannel != null) {
+			try {
+				liveChannel.close();
+			}
+			catch (IOException ex) {
+				//Nothing else to do with it
+			}
+			liveChannel = null;
+		}
+	}
+
+	private synchronized File getLiveFile() {
+		return liveFile;
+	}
+
+	/**
+	 * @return true if the live segment follows the file renamed from the given one, rather than a
+	 *         new file of the same name opened once it was renamed.
+	 */
+	private boolean isFollowing(File from, File to) {
+		if (to.getName().equals(from.getName() + ".gz") || liveKey == null) {
+			return true;
+		}
+		return !liveKey.equals(getFileKey(from));
+	}
+
+	/**
+	 * Indexes a rolled over file which was never followed, and writes its index.
+	 */
+	private void addRolled(File to) {
+		File file = to.exists() ? to : new File(to.getPath() + ".gz");
+		String name = getName(to);
+		synchronized (this) {
+			if (entries.containsKey(name)) {
+				return;
+			}
+		}
+		try {
+			Segment segment = scan(file);
+			write(segment, getIndexFile(name));
+			synchronized (this) {
+				entries.put(name, new Entry(name, file, segment.count, segment.maxTime));
+			}
+		}
+		catch (IOException ex) {
+			//Not searchable then
+		}
+	}
+
+	/**
+	 * @return the segment of all the lines of the given file.
+	 */
+	private Segment scan(File file) throws IOException {
+		final Segment segment = new Segment(1024);
+		segment.lastTime = getStartOfDay(file);
+		LineSplitter splitter = new LineSplitter();
+		LineSplitter.LineHandler handler = (offset, line, lineOff, lineLen) -> addLine(segment, offset, line, lineOff,
+		    lineLen, -1);
+		try (InputStream in = open(file)) {
+			byte[] buffer = new byte[BLOCK_SIZE];
+			long position = 0;
+			int count;
+			while ((count = in.read(buffer)) != -1) {
+				splitter.feed(position, buffer, 0, count, handler);
+				position += count;
+			}
+		}
+		splitter.finish(handler);
+		return segment;
+	}
+
+	/**
+	 * @param time when the line was written, or -1 if unknown.
+	 */
+	private void addLine(Segment segment, long offset, byte[] bytes, int off, int len, long time) {
+		String line = new String(bytes, off, len, charset);
+		String header = line.length() > HEADER_LENGTH ? line.substring(0, HEADER_LENGTH) : line;
+
+		Level level = getLevel(header);
+		long lineTime = time >= 0 ? time : segment.lastTime;
+		Matcher timeMatcher = TIMESTAMP.matcher(header);
+		if (timeMatcher.find()) {
+			String timestamp = timeMatcher.group();
+			if (timestamp.equals(lastTimestamp)) {
+				lineTime = lastTimestampTime;
+			} else {
+				try {
+					lineTime = LocalDateTime.parse(timestamp.replace(' ', 'T')).atZone(ZoneId.systemDefault()).toInstant()
+					        .toEpochMilli();
+					lastTimestamp = timestamp;
+					lastTimestampTime = lineTime;
+				}
+				catch (DateTimeParseException ex) {
+					//Not a time after all
+				}
+			}
+		} else if (level == null && isContinuation(line) && segment.count > 0) {
+			// Such as the lines of a stack trace, which go with the line before them
+			level = segment.lastLevel;
+			lineTime = segment.lastTime;
+		}
+		segment.lastTime = lineTime;
+		segment.lastLevel = level;
+
+		int id = segment.count;
+		if (id == segment.offsets.length) {
+			int capacity = id * 2;
+			segment.offsets = Arrays.copyOf(segment.offsets, capacity);
+			segment.lengths = Arrays.copyOf(segment.lengths, capacity);
+			segment.times = Arrays.copyOf(segment.times, capacity);
+			segment.levels = Arrays.copyOf(segment.levels, capacity);
+		}
+		segment.offsets[id] = offset;
+		segment.lengths[id] = len;
+		segment.times[id] = lineTime;
+		segment.levels[id] = level != null ? (byte) level.ordinal() : -1;
+		segment.maxTime = Math.max(segment.maxTime, lineTime);
+		segment.count++;
+
+		for (String word : getWords(line.toLowerCase(Locale.ROOT))) {
+			Postings postings = segment.postings.get(word);
+			if (postings == null) {
+				postings = new Postings();
+				segment.postings.put(word, postings);
+			}
+			postings.add(id);
+		}
+	}
+
+	/**
+	 * @return the level named by the first of the upper case words of the given text which is one,
+	 *         such as ERROR or SEVERE, or null if none is.
+	 */
+	private static Level getLevel(String text) {
+		int start = -1;
+		for (int i = 0; i <= text.length(); i++) {
+			char ch = i < text.length() ? text.charAt(i) : ' ';
+			if (ch >= 'A' && ch <= 'Z') {
+				if (start == -1) {
+					start = i;
+				}
+			} else if (Character.isLetterOrDigit(ch)) {
+				// Part of a word which is not all upper case
+				start = -2;
+			} else {
+				if (start >= 0) {
+					switch (text.substring(start, i)) {
+						case "TRACE":
+							return Level.TRACE;
+						case "DEBUG":
+							return Level.DEBUG;
+						case "INFO":
+							return Level.INFO;
+						case "WARN":
+						case "WARNING":
+							return Level.WARN;
+						case "ERROR":
+						case "SEVERE":
+							return Level.ERROR;
+						case "FATAL":
+							return Level.FATAL;
+						default:
+					}
+				}
+				start = -1;
+			}
+		}
+		return null;
+	}
+
+	private static boolean isContinuation(String line) {
+		return line.startsWith("\t") || line.startsWith("    at ") || line.startsWith("Caused by:")
+		        || line.startsWith("\t...");
+	}
+
+	/**
+	 * @return the ids of the lines of the segment having all the given words, in order.
+	 */
+	private static int[] match(Segment segment, String[] words) {
+		// Start with the rarest word, the intersection only gets smaller
+		Postings[] lists = new Postings[words.length];
+		for (int i = 0; i < words.length; i++) {
+			lists[i] = segment.postings.get(words[i]);
+			if (lists[i] == null) {
+				return new int[0];
+			}
+		}
+		Arrays.sort(lists, (a, b) -> Integer.compare(a.size, b.size));
+		int[] ids = Arrays.copyOf(lists[0].ids, lists[0].size);
+		int size = ids.length;
+		for (int i = 1; i < lists.length && size > 0; i++) {
+			int kept = 0;
+			for (int j = 0; j < size; j++) {
+				if (Arrays.binarySearch(lists[i].ids, 0, lists[i].size, ids[j]) >= 0) {
+					ids[kept++] = ids[j];
+				}
+			}
+			size = kept;
+		}
+		return Arrays.copyOf(ids, size);
+	}
+
+	/**
+	 * @return the distinct words of the given lower case text, leaving out the numbers.
+	 */
+	private static List<String> getWords(String text) {
+		List<String> words = new ArrayList<String>();
+		int start = -1;
+		boolean letters = false;
+		for (int i = 0; i <= text.length(); i++) {
+			char ch = i < text.length() ? text.charAt(i) : ' ';
+			if (Character.isLetterOrDigit(ch)) {
+				if (start < 0) {
+					start = i;
+					letters = false;
+				}
+				letters |= !Character.isDigit(ch);
+			} else if (start >= 0) {
+				int length = i - start;
+				// Numbers, mostly ids, would take most of the index and are found by the text itself
+				if (letters && length >= MIN_WORD_LENGTH && length <= MAX_WORD_LENGTH) {
+					String word = text.substring(start, i);
+					if (!words.contains(word)) {
+						words.add(word);
+					}
+				}
+				start = -1;
+			}
+		}
+		return words;
+	}
+
+	/**
+	 * @return the distinct words and numbers of the given lower case text, whatever their length.
+	 */
+	private static List<String> getTerms(String text) {
+		List<String> terms = new ArrayList<String>();
+		int start = -1;
+		for (int i = 0; i <= text.length(); i++) {
+			char ch = i < text.length() ? text.charAt(i) : ' ';
+			if (Character.isLetterOrDigit(ch)) {
+				if (start < 0) {
+					start = i;
+				}
+			} else if (start >= 0) {
+				String term = text.substring(start, i);
+				if (!terms.contains(term)) {
+					terms.add(term);
+				}
+				start = -1;
+			}
+		}
+		return terms;
+	}
+
+	/**
+	 * @return the last lines of the given source having all the terms, at or above the given level
+	 *         and logged since the given time, the most recent first.
+	 */
+	private List<Hit> search(Source source, String[] terms, Level minLevel, long since, int limit) throws IOException {
+		Segment segment = source.segment;
+		int size = source.ids != null ? source.ids.length : source.count;
+		List<Hit> hits = new ArrayList<Hit>();
+
+		if (!source.file.getName().endsWith(".gz")) {
+			// Going back from the last line, in blocks, until there are enough
+			try (RandomAccessFile in = new RandomAccessFile(source.file, "r")) {
+				byte[] block = new byte[BLOCK_SIZE];
+				long blockStart = 0;
+				int blockLength = 0;
+				for (int i = size - 1; i >= 0 && hits.size() < limit; i--) {
+					int id = source.ids != null ? source.ids[i] : i;
+					if (!accept(segment, id, minLevel, since)) {
+						continue;
+					}
+					long offset = segment.offsets[id];
+					int length = segment.lengths[id];
+					byte[] bytes;
+					int off;
+					if (length > block.length) {
+						bytes = new byte[length];
+						off = 0;
+						in.seek(offset);
+						in.readFully(bytes);
+					} else {
+						if (offset < blockStart || offset + length > blockStart + blockLength) {
+							blockStart = Math.max(0, offset + length - block.length);
+							in.seek(blockStart);
+							blockLength = (int) Math.min(block.length, offset + length - blockStart);
+							in.readFully(block, 0, blockLength);
+						}
+						bytes = block;
+						off = (int) (offset - blockStart);
+					}
+					Hit hit = toHit(source.file, segment, id, bytes, off, length, terms);
+					if (hit != null) {
+						hits.add(hit);
+					}
+				}
+			}
+			return hits;
+		}
+
+		// Streaming once through the compressed file, keeping the last lines found
+		ArrayDeque<Hit> last = new ArrayDeque<Hit>();
+		try (InputStream in = open(source.file)) {
+			long position = 0;
+			for (int i = 0; i < size; i++) {
+				int id = source.ids != null ? source.ids[i] : i;
+				if (!accept(segment, id, minLevel, since)) {
+					continue;
+				}
+				long offset = segment.offsets[id];
+				while (position < offset) {
+					long skipped = in.skip(offset - position);
+					if (skipped <= 0) {
+						throw new EOFException("Truncated " + source.file);
+					}
+					position += skipped;
+				}
+				byte[] bytes = in.readNBytes(segment.lengths[id]);
+				position += bytes.length;
+				Hit hit = toHit(source.file, segment, id, bytes, 0, bytes.length, terms);
+				if (hit != null) {
+					last.addLast(hit);
+					if (last.size() > limit) {
+						last.removeFirst();
+					}
+				}
+			}
+		}
+		while (!last.isEmpty()) {
+			hits.add(last.removeLast());
+		}
+		return hits;
+	}
+
+	private static boolean accept(Segment segment, int id, Level minLevel, long since) {
+		if (segment.times[id] < since) {
+			return false;
+		}
+		return minLevel == null || (segment.levels[id] >= 0 && segment.levels[id] >= minLevel.ordinal());
+	}
+
+	/**
+	 * @return the hit of the given line, or null if it does not have all the terms, in any order.
+	 */
+	private Hit toHit(File file, Segment segment, int id, byte[] bytes, int off, int length, String[] terms) {
+		String line = new String(bytes, off, length, charset);
+		int end = line.length();
+		while (end > 0 && (line.charAt(end - 1) == '\n' || line.charAt(end - 1) == '\r')) {
+			end--;
+		}
+		line = line.substring(0, end);
+		if (terms.length > 0) {
+			String lowerCase = line.toLowerCase(Locale.ROOT);
+			for (String term : terms) {
+				if (!lowerCase.contains(term)) {
+					return null;
+				}
+			}
+		}
+		byte level = segment.levels[id];
+		return new Hit(file, segment.times[id], level >= 0 ? Level.values()[level] : null, line);
+	}
+
+	/**
+	 * @return the segment of the given rolled over file, read from its index unless cached, or null
+	 *         if it cannot be read.
+	 */
+	private Segment load(Entry entry) {
+		String name = entry.name;
+		synchronized (cache) {
+			Segment segment = cache.get(name);
+			if (segment != null) {
+				return segment;
+			}
+		}
+		try {
+			Segment segment = read(getIndexFile(name));
+			cache(name, segment);
+			return segment;
+		}
+		catch (IOException ex) {
+			return null;
+		}
+	}
+
+	private void cache(String name, Segment segment) {
+		synchronized (cache) {
+			Segment previous = cache.put(name, segment);
+			if (previous != null) {
+				cachedBytes -= previous.estimateSize();
+			}
+			cachedBytes += segment.estimateSize();
+			Iterator<Segment> eldest = cache.values().iterator();
+			while (cachedBytes > MAX_CACHED_BYTES && cache.size() > 1) {
+				cachedBytes -= eldest.next().estimateSize();
+				eldest.remove();
+			}
+		}
+	}
+
+	private void uncache(String name) {
+		synchronized (cache) {
+			Segment segment = cache.remove(name);
+			if (segment != null) {
+				cachedBytes -= segment.estimateSize();
+			}
+		}
+	}
+
+	/**
+	 * Writes the index of a segment: the line count and latest time, then the offsets, lengths,
+	 * times and levels of the lines, then the words and their lines, all as deltas.
+	 */
+	private static void write(Segment segment, File indexFile) throws IOException {
+		File dir = indexFile.getParentFile();
+		dir.mkdirs();
+		File temp = File.createTempFile(indexFile.getName(), ".tmp", dir);
+		try {
+			try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp),
+			        BLOCK_SIZE))) {
+				out.writeInt(INDEX_MAGIC);
+				out.writeInt(INDEX_VERSION);
+				out.writeInt(segment.count);
+				out.writeLong(segment.maxTime);
+				long previousOffset = 0;
+				long previousTime = 0;
+				for (int i = 0; i < segment.count; i++) {
+					writeVarLong(out, segment.offsets[i] - previousOffset);
+					writeVarLong(out, segment.lengths[i]);
+					writeVarLong(out, zigZag(segment.times[i] - previousTime));
+					previousOffset = segment.offsets[i];
+					previousTime = segment.times[i];
+				}
+				out.write(segment.levels, 0, segment.count);
+				out.writeInt(segment.postings.size());
+				for (Map.Entry<String, Postings> entry : segment.postings.entrySet()) {
+					Postings postings = entry.getValue();
+					out.writeUTF(entry.getKey());
+					writeVarLong(out, postings.size);
+					int previousId = 0;
+					for (int i = 0; i < postings.size; i++) {
+						writeVarLong(out, postings.ids[i] - previousId);
+						previousId = postings.ids[i];
+					}
+				}
+			}
+			try {
+				Files.move(temp.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+				    StandardCopyOption.ATOMIC_MOVE);
+			}
+			catch (AtomicMoveNotSupportedException ex) {
+				Files.move(temp.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+		}
+		finally {
+			temp.delete();
+		}
+	}
+
+	private static Segment read(File indexFile) throws IOException {
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile), BLOCK_SIZE))) {
+			if (in.readInt() != INDEX_MAGIC || in.readInt() != INDEX_VERSION) {
+				throw new IOException("Not an index: " + indexFile);
+			}
+			int count = in.readInt();
+			Segment segment = new Segment(count);
+			segment.count = count;
+			segment.maxTime = in.readLong();
+			long offset = 0;
+			long time = 0;
+			for (int i = 0; i < count; i++) {
+				offset += readVarLong(in);
+				segment.offsets[i] = offset;
+				segment.lengths[i] = (int) readVarLong(in);
+				time += unZigZag(readVarLong(in));
+				segment.times[i] = time;
+			}
+			in.readFully(segment.levels, 0, count);
+			int words = in.readInt();
+			for (int w = 0; w < words; w++) {
+				String word = in.readUTF();
+				int[] ids = new int[(int) readVarLong(in)];
+				int id = 0;
+				for (int i = 0; i < ids.length; i++) {
+					id += (int) readVarLong(in);
+					ids[i] = id;
+				}
+				segment.postings.put(word, new Postings(ids));
+			}
+			return segment;
+		}
+	}
+
+	/**
+	 * @return the entry of the given file from the start of its index, or null if it has none.
+	 */
+	private Entry readEntry(String name, File file) {
+		File indexFile = getIndexFile(name);
+		if (!indexFile.isFile()) {
+			return null;
+		}
+		try (DataInputStream in = new DataInputStream(new FileInputStream(indexFile))) {
+			if (in.readInt() != INDEX_MAGIC || in.readInt() != INDEX_VERSION) {
+				return null;
+			}
+			int count = in.readInt();
+			return new Entry(name, file, count, in.readLong());
+		}
+		catch (IOException ex) {
+			return null;
+		}
+	}
+
+	private static void writeVarLong(DataOutputStream out, long value) throws IOException {
+		while ((value & ~0x7FL) != 0) {
+			out.writeByte((int) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		out.writeByte((int) value);
+	}
+
+	private static long readVarLong(DataInputStream in) throws IOException {
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			int b = in.readUnsignedByte();
+			value |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new IOException("Malformed index");
+	}
+
+	private static long zigZag(long value) {
+		return (value << 1) ^ (value >> 63);
+	}
+
+	private static long unZigZag(long value) {
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	private static Object getFileKey(File file) {
+		try {
+			return Files.readAttributes(file.toPath(), BasicFileAttributes.class).fileKey();
+		}
+		catch (IOException ex) {
+			return null;
+		}
+	}
+
+	private File getIndexFile(String name) {
+		return new File(indexDir, name + ".idx");
+	}
+
+	/**
+	 * @return the name of the given log file without .gz, which stays the same once compressed.
+	 */
+	private static String getName(File file) {
+		String name = file.getName();
+		return name.endsWith(".gz") ? name.substring(0, name.length() - ".gz".length()) : name;
+	}
+
+	private static InputStream open(File file) throws IOException {
+		InputStream in = new BufferedInputStream(new FileInputStream(file), BLOCK_SIZE);
+		return file.getName().endsWith(".gz") ? new GZIPInputStream(in, BLOCK_SIZE) : in;
+	}
+
+	/**
+	 * @return the start of the day of a log file, from its name, or its last modification time if
+	 *         its name has no day.
+	 */
+	private static long getStartOfDay(File file) {
+		LocalDate date = getFileDate(file);
+		return date != null ? date.atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli() : file.lastModified();
+	}
+
+	/**
+	 * @return the day of a log file, from its name, or null if it has none.
+	 */
+	private static LocalDate getFileDate(File file) {
+		Matcher matcher = LOG_FILE.matcher(file.getName());
+		if (!matcher.matches()) {
+			return null;
+		}
+		try {
+			return LocalDate.parse(matcher.group(1), FILE_DATE);
+		}
+		catch (DateTimeParseException ex) {
+			return null;
+		}
+	}
+}
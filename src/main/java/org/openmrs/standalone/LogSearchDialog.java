@@ -0,0 +1,136 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.standalone;
+
+import java.awt.BorderLayout;
+import java.awt.Font;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+
+import javax.swing.JButton;
+import javax.swing.JComboBox;
+import javax.swing.JDialog;
+import javax.swing.JFrame;
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+import javax.swing.JScrollPane;
+import javax.swing.JSpinner;
+import javax.swing.JTextArea;
+import javax.swing.JTextField;
+import javax.swing.SpinnerNumberModel;
+
+/**
+ * Searches the log files through the {@link LogIndex}, for instance for all the errors mentioning
+ * a word in the last three days.
+ */
+public class LogSearchDialog extends JDialog implements ActionListener {
+
+	private static final long serialVersionUID = 1L;
+
+	private static final String ANY_LEVEL = "Any level";
+
+	private static final int MAX_HITS = 500;
+
+	private final LogIndex index;
+
+	private JTextField txtWords;
+
+	private JComboBox<String> cmbLevel;
+
+	private JSpinner spnDays;
+
+	private JButton btnSearch;
+
+	private JLabel lblStatus;
+
+	private JTextArea txtResults;
+
+	public LogSearchDialog(JFrame owner, LogIndex index) {
+		super(owner, "Search Logs", false);
+		this.index = index;
+
+		txtWords = new JTextField(20);
+		txtWords.addActionListener(this);
+		cmbLevel = new JComboBox<String>(new String[] { ANY_LEVEL, LogIndex.Level.ERROR.name(),
+		        LogIndex.Level.WARN.name(), LogIndex.Level.INFO.name(), LogIndex.Level.DEBUG.name() });
+		cmbLevel.setSelectedItem(LogIndex.Level.ERROR.name());
+		spnDays = new JSpinner(new SpinnerNumberModel(3, 1, LogIndex.DEFAULT_RETENTION_DAYS, 1));
+		btnSearch = new JButton("Search");
+		btnSearch.addActionListener(this);
+
+		JPanel searchPanel = new JPanel();
+		searchPanel.add(new JLabel("Words"));
+		searchPanel.add(txtWords);
+		searchPanel.add(cmbLevel);
+		searchPanel.add(new JLabel("Last days"));
+		searchPanel.add(spnDays);
+		searchPanel.add(btnSearch);
+
+		txtResults = new JTextArea();
+		txtResults.setEditable(false);
+		txtResults.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+
+		lblStatus = new JLabel(" ");
+
+		getContentPane().setLayout(new BorderLayout());
+		getContentPane().add(searchPanel, BorderLayout.NORTH);
+		getContentPane().add(new JScrollPane(txtResults), BorderLayout.CENTER);
+		getContentPane().add(lblStatus, BorderLayout.SOUTH);
+
+		setSize(800, 400);
+		setLocationRelativeTo(owner);
+	}
+
+	public void actionPerformed(ActionEvent event) {
+		final String words = txtWords.getText();
+		final LogIndex.Level level = ANY_LEVEL.equals(cmbLevel.getSelectedItem()) ? null
+		        : LogIndex.Level.valueOf((String) cmbLevel.getSelectedItem());
+		final long since = System.currentTimeMillis() - ((Integer) spnDays.getValue()) * 24L * 60 * 60 * 1000;
+
+		btnSearch.setEnabled(false);
+		lblStatus.setText("Searching...");
+
+		SwingWorker worker = new SwingWorker() {
+
+			private long millis;
+
+			public Object construct() {
+				long start = System.currentTimeMillis();
+				List<LogIndex.Hit> hits = index.search(words, level, since, MAX_HITS);
+				millis = System.currentTimeMillis() - start;
+				return hits;
+			}
+
+			@SuppressWarnings("unchecked")
+			public void finished() {
+				List<LogIndex.Hit> hits = (List<LogIndex.Hit>) get();
+				SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+				StringBuilder results = new StringBuilder();
+				for (LogIndex.Hit hit : hits) {
+					results.append(format.format(new Date(hit.getTime()))).append("  ").append(hit.getFile().getName())
+					        .append("  ").append(hit.getLine()).append('\n');
+				}
+				txtResults.setText(results.toString());
+				txtResults.setCaretPosition(0);
+				lblStatus.setText((hits.size() < MAX_HITS ? hits.size() + " lines" : "The last " + MAX_HITS + " lines")
+				        + " found in " + millis + " ms, out of " + index.size() + " indexed");
+				btnSearch.setEnabled(true);
+			}
+		};
+		worker.start();
+	}
+}
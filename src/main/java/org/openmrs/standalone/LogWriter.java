@@ -14,10 +14,7 @@
 package org.openmrs.standalone;
 
 import java.io.ByteArrayOutputStream;
-import java.io.File;
-import java.io.FileWriter;
 import java.io.FilterOutputStream;
-import java.util.Calendar;
 
 
 /**
@@ -34,25 +31,12 @@ public class LogWriter extends FilterOutputStream {
 	}
 	
 	/**
-	 * Writes a given text to the log file.
+	 * Writes a given text to the log file, through the {@link AsyncLogAppender}.
 	 * 
 	 * @param aString the text.
 	 */
 	public static void write(String aString) {
 		//Append to the log file under currentdir/tomcat/logs
-		try {
-			Calendar cal = Calendar.getInstance();
-			String fileName = cal.get(Calendar.YEAR) + "-" + (cal.get(Calendar.MONTH) + 1) + "-" + cal.get(Calendar.DATE)
-			        + ".log";
-			String path = new File(fileName).getAbsolutePath();
-			path = path.substring(0, path.lastIndexOf(File.separatorChar) + 1) + "tomcat" + File.separatorChar + "logs";
-			new File(path).mkdirs();
-			FileWriter aWriter = new FileWriter(path + File.separatorChar + fileName, true);
-			aWriter.write(aString);
-			aWriter.close();
-		}
-		catch (Exception ex) {
-			//printing to the std streams here may result in an infinite loop since will keep calling into this same routine.
-		}
+		AsyncLogAppender.getDefault().append(aString);
 	}
 }
@@ -52,6 +52,7 @@ import javax.swing.JMenuBar;
 import javax.swing.JMenuItem;
 import javax.swing.JOptionPane;
 import javax.swing.JPanel;
+import javax.swing.JProgressBar;
 import javax.swing.JScrollPane;
 import javax.swing.JSeparator;
 import javax.swing.JTextArea;
@@ -151,6 +152,19 @@ public class MainFrame extends javax.swing.JFrame implements ActionListener, Use
 		
 		fileMenu.add(clearMenuItem);
 		
+		JMenuItem searchLogsMenuItem = new JMenuItem();
+		searchLogsMenuItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_F, preferredMetaKey));
+		searchLogsMenuItem.setMnemonic('S');
+		searchLogsMenuItem.setText("Search Logs");
+		searchLogsMenuItem.addActionListener(new java.awt.event.ActionListener() {
+			
+			public void actionPerformed(java.awt.event.ActionEvent evt) {
+				searchLogsMenuItemActionPerformed(evt);
+			}
+		});
+		
+		fileMenu.add(searchLogsMenuItem);
+		
 		fileMenu.add(new JSeparator());
 		//Tray Initialization
 		if(SystemTray.isSupported()){
@@ -276,6 +290,17 @@ public class MainFrame extends javax.swing.JFrame implements ActionListener, Use
 		c.weightx = 1.0;
 		mainPanel.add(btnPanel, c);
 		
+		//Only shown while the database is imported
+		importProgressBar = new JProgressBar(0, 100);
+		importProgressBar.setStringPainted(true);
+		importProgressBar.setVisible(false);
+		
+		c.fill = GridBagConstraints.HORIZONTAL;
+		c.gridx = 0;
+		c.gridy = 2; //third row
+		c.weightx = 1.0;
+		mainPanel.add(importProgressBar, c);
+		
 		txtLog.setLineWrap(true);
 		txtLog.setWrapStyleWord(true);
 		txtLog.setBorder(BorderFactory.createEmptyBorder(4, 4, 4, 4));
@@ -284,7 +309,7 @@ public class MainFrame extends javax.swing.JFrame implements ActionListener, Use
 		
 		c.fill = GridBagConstraints.BOTH;
 		c.gridx = 0;
-		c.gridy = 2; //third row
+		c.gridy = 3; //fourth row
 		c.weightx = 1.0;
 		c.weighty = 1.0; //request any extra vertical space
 		mainPanel.add(scrolltxt, c);
@@ -336,6 +361,12 @@ public class MainFrame extends javax.swing.JFrame implements ActionListener, Use
 	private void clearMenuItemActionPerformed(java.awt.event.ActionEvent evt) {
 		textAreaWriter.clear();
 	}
+	private void searchLogsMenuItemActionPerformed(java.awt.event.ActionEvent evt) {
+		if (logSearchDialog == null) {
+			logSearchDialog = new LogSearchDialog(this, AsyncLogAppender.getDefault().getIndex());
+		}
+		logSearchDialog.setVisible(true);
+	}
 	private void trayMenuItemActionPerformed(java.awt.event.ActionEvent evt) {
 		minimizeToTray();
 	}
@@ -369,6 +400,27 @@ public class MainFrame extends javax.swing.JFrame implements ActionListener, Use
 		setTitle(TITLE + " - [" + status + "]");
 	}
 	
+	public void showImportProgress(final ImportProgress progress) {
+		SwingUtilities.invokeLater(new Runnable() {
+			
+			public void run() {
+				int percent = progress.getPercent();
+				importProgressBar.setIndeterminate(percent < 0);
+				if (percent >= 0) {
+					importProgressBar.setValue(percent);
+				}
+				importProgressBar.setString(progress.toString());
+				importProgressBar.setToolTipText(progress.toString());
+				importProgressBar.setVisible(!progress.isFinished());
+				mainPanel.revalidate();
+			}
+		});
+		
+		if (progress.isFinished()) {
+			System.out.println("Importing database: " + progress);
+		}
+	}
+	
 	public void actionPerformed(ActionEvent event) {
 		try {
 			setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
@@ -431,25 +483,21 @@ public class MainFrame extends javax.swing.JFrame implements ActionListener, Use
 	}
 	
 	/**
-	 * Sets the default tomcat and mysql port numbers to those that are available.
+	 * Sets the default tomcat and mysql port numbers to those that are available, and reserves them
+	 * until the servers start.
 	 */
 	private void setAvailablePorts() {
 		tomcatPort = StandaloneUtil.fromStringToInt(txtTomcatPort.getText());
-		while (tomcatPort < StandaloneUtil.MAX_PORT_NUMBER) {
-			if (!StandaloneUtil.isPortAvailable(tomcatPort))
-				tomcatPort++;
-			else
-				break;
-		}
+		int port = PortAllocator.reserveFrom(tomcatPort);
+		if (port > 0)
+			tomcatPort = port;
 		txtTomcatPort.setText(String.valueOf(tomcatPort));
 		
+		//The tomcat port is bound by now, so it cannot be picked for mysql as well.
 		int mysqlPort = StandaloneUtil.fromStringToInt(txtMySqlPort.getText());
-		while (mysqlPort < StandaloneUtil.MAX_PORT_NUMBER) {
-			if (!StandaloneUtil.isPortAvailable(mysqlPort) || mysqlPort == tomcatPort)
-				mysqlPort++;
-			else
-				break;
-		}
+		port = PortAllocator.reserveFrom(mysqlPort);
+		if (port > 0)
+			mysqlPort = port;
 		txtMySqlPort.setText(String.valueOf(mysqlPort));
 	}
 	
@@ -462,7 +510,10 @@ public class MainFrame extends javax.swing.JFrame implements ActionListener, Use
 	 */
 	private boolean validPorts() {
 		tomcatPort = StandaloneUtil.fromStringToInt(txtTomcatPort.getText());
-		if (!StandaloneUtil.isPortAvailable(tomcatPort)) {
+		int mySqlPort = StandaloneUtil.fromStringToInt(txtMySqlPort.getText());
+		PortAllocator.retainOnly(tomcatPort, mySqlPort);
+		
+		if (!PortAllocator.reserve(tomcatPort)) {
 			JOptionPane.showMessageDialog(this, "The Tomcat port is not available. Please enter another one.", getTitle(),
 			    JOptionPane.ERROR_MESSAGE);
 			
@@ -476,8 +527,7 @@ public class MainFrame extends javax.swing.JFrame implements ActionListener, Use
 			return false;
 		}
 		
-		int mySqlPort = StandaloneUtil.fromStringToInt(txtMySqlPort.getText());
-		if (!StandaloneUtil.isPortAvailable(mySqlPort) || mySqlPort == tomcatPort) {
+		if (mySqlPort == tomcatPort || !PortAllocator.reserve(mySqlPort)) {
 			JOptionPane.showMessageDialog(this, "The MySQL port is not available. Please enter another one.", getTitle(),
 			    JOptionPane.ERROR_MESSAGE);
 			
@@ -510,6 +560,8 @@ public class MainFrame extends javax.swing.JFrame implements ActionListener, Use
 	
 	private JMenuItem configlogMenuItem;
 	
+	private LogSearchDialog logSearchDialog;
+	
 	private JPanel mainPanel;
 	
 	private JPanel portPanel;
@@ -528,6 +580,8 @@ public class MainFrame extends javax.swing.JFrame implements ActionListener, Use
 	
 	private JTextArea txtLog;
 	
+	private JProgressBar importProgressBar;
+	
 	private TrayIcon trayIcon;
     
 	private SystemTray tray;
@@ -14,9 +14,14 @@
 package org.openmrs.standalone;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.sql.Connection;
 import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.Properties;
 
@@ -36,6 +41,26 @@ public class MariaDbController {
     private static DB mariaDB;
     private static DBConfigurationBuilder mariaDBConfig;
 
+    private static int runningPort;
+
+    private static DB preparedDB;
+    private static int preparedPort;
+    private static boolean preparedBulkLoad;
+
+    /** Written into the data directory while a dump is bulk loaded, and holding the name of the dump. */
+    public static final String BULK_LOAD_MARKER = "openmrs-standalone-bulk-load.txt";
+
+    /**
+     * The options trading durability for speed while a dump is loaded: the redo log is written out
+     * about once a second instead of at every commit, pages are not written twice and there is no binary
+     * log. The redo log size is left as is, since ib_logfile0 is copied along with the data directory
+     * when the pristine copy is saved.
+     */
+    private static final String[] BULK_LOAD_ARGS = { "--innodb_flush_log_at_trx_commit=0", "--innodb_doublewrite=0",
+            "--skip-log-bin", "--innodb_log_buffer_size=64M" };
+
+    private static boolean bulkLoad;
+
     public static String KEY_MARIADB_BASE_DIR = "connection.database.base_dir";
     public static String KEY_MARIADB_DATA_DIR = "connection.database.data_dir";
 
@@ -45,39 +70,115 @@ public class MariaDbController {
 
     /**
      * Starts MariaDB with the given port and user password. If password is null or blank, defaults to empty string.
+     * If MariaDB is already running on the given port, for instance because it was kept running after provisioning
+     * the database, it is left running as is.
      */
     public static void startMariaDB(int port, String userPassword) throws Exception {
         if (userPassword == null) {
             userPassword = "";
         }
 
+        if (mariaDB != null) {
+            if (runningPort == port) {
+                System.out.println("MariaDB is already running on port " + port);
+                return;
+            }
+            stopMariaDB();
+        }
+
         String os = System.getProperty("os.name").toLowerCase();
         boolean isWindows = os.contains("win");
 
-        // Build DB configuration
-        mariaDBConfig = DBConfigurationBuilder.newBuilder();
-        mariaDBConfig.setPort(port);
-        mariaDBConfig.setSecurityDisabled(false);
+        // Reuse the binaries unpacked by prepareMariaDB() if they were prepared for this port and mode
+        DB db = preparedDB;
+        preparedDB = null;
+        if (db == null || preparedPort != port || preparedBulkLoad != bulkLoad) {
+            db = DB.newEmbeddedDB(buildConfiguration(port, bulkLoad));
+        }
+        mariaDB = db;
+        runningPort = port;
+        try (StartupTimeline.Phase phase = StartupTimeline.start("mariadb-start")) {
+            PortAllocator.release(port);
+            mariaDB.start();
+        }
 
-        Properties properties = OpenmrsUtil.getRuntimeProperties(StandaloneUtil.getContextName());
+        try (StartupTimeline.Phase phase = StartupTimeline.start("mariadb-create-users")) {
+            createUsers(port, userPassword, isWindows);
+        }
+    }
 
-        String baseDirPath = safeResolveProperty(properties, KEY_MARIADB_BASE_DIR, MARIA_DB_BASE_DIR);
-        String dataDirPath = safeResolveProperty(properties, KEY_MARIADB_DATA_DIR, MARIA_DB_DATA_DIR);
+    /**
+     * Starts MariaDB in its bulk load mode, restarting it if it is running. This is only safe while
+     * loading a dump that can be loaded again: a crash may leave the data directory corrupt. Until
+     * {@link #endBulkLoad(boolean)} is told the dump was loaded, the data directory is marked as
+     * such, and {@link #getInterruptedBulkLoad()} tells the next startup to load the dump again.
+     *
+     * @param dumpName the name of the dump being loaded, such as demodatabase.zip.
+     */
+    public static void startMariaDBForBulkLoad(int port, String userPassword, String dumpName) throws Exception {
+        if (mariaDB != null) {
+            stopMariaDB();
+        }
+        File dataDir = getDataDir();
+        dataDir.mkdirs();
+        Files.write(new File(dataDir, BULK_LOAD_MARKER).toPath(), dumpName.getBytes(StandardCharsets.UTF_8));
 
-        File baseDir = new File(Paths.get(baseDirPath).toAbsolutePath().toString());
-        File dataDir = new File(Paths.get(dataDirPath).toAbsolutePath().toString());
+        System.out.println("Starting MariaDB in bulk load mode to load " + dumpName);
+        bulkLoad = true;
+        try {
+            startMariaDB(port, userPassword);
+        } catch (Exception ex) {
+            bulkLoad = false;
+            throw ex;
+        }
+    }
 
-        mariaDBConfig.setBaseDir(baseDir);
-        mariaDBConfig.setDataDir(dataDir);
+    /**
+     * Stops MariaDB started by {@link #startMariaDBForBulkLoad(int, String, String)}. The clean
+     * shutdown writes out everything the bulk load mode left unflushed, such that MariaDB can then be
+     * started again in its durable mode.
+     *
+     * @param loaded true if the whole dump was loaded, which clears the bulk load marker.
+     */
+    public static void endBulkLoad(boolean loaded) throws ManagedProcessException {
+        try {
+            stopMariaDB();
+        } finally {
+            bulkLoad = false;
+        }
+        if (loaded && !new File(getDataDir(), BULK_LOAD_MARKER).delete()) {
+            System.out.println("Failed to delete the bulk load marker in " + getDataDir());
+        }
+    }
 
-        mariaDBConfig.addArg("--max_allowed_packet=96M");
-        mariaDBConfig.addArg("--collation-server=utf8_general_ci");
-        mariaDBConfig.addArg("--character-set-server=utf8");
+    /**
+     * @return true if MariaDB was started in its bulk load mode, and the bulk load has not ended yet.
+     */
+    public static boolean isBulkLoading() {
+        return bulkLoad;
+    }
 
-        DBConfiguration config = mariaDBConfig.build();
-        mariaDB = DB.newEmbeddedDB(config);
-        mariaDB.start();
+    /**
+     * @return the name of the dump whose bulk load was interrupted, for instance by a crash or a
+     *         power cut, or null if none was.
+     */
+    public static String getInterruptedBulkLoad() {
+        File marker = new File(getDataDir(), BULK_LOAD_MARKER);
+        if (bulkLoad || !marker.exists()) {
+            return null;
+        }
+        try {
+            return new String(Files.readAllBytes(marker.toPath()), StandardCharsets.UTF_8).trim();
+        } catch (IOException ex) {
+            System.out.println("Failed to read the bulk load marker: " + ex.getMessage());
+            return marker.getName();
+        }
+    }
 
+    /**
+     * Sets the root password, and creates the OpenMRS database and the openmrs user.
+     */
+    private static void createUsers(int port, String userPassword, boolean isWindows) throws Exception {
         if (isWindows) {
             // Windows-specific setup using JDBC try-with-resources
             try (Connection conn = DriverManager.getConnection("jdbc:mariadb://localhost:" + port + "/", ROOT_USER, ROOT_PASSWORD);
@@ -112,6 +213,80 @@ public class MariaDbController {
         }
     }
 
+    /**
+     * Unpacks the MariaDB binaries and installs the system tables without starting the server, so
+     * that this can be done in parallel with other startup work. The next call to startMariaDB()
+     * with the same port will use the prepared instance.
+     */
+    public static void prepareMariaDB(int port) throws Exception {
+        prepareMariaDB(port, false);
+    }
+
+    /**
+     * Same as {@link #prepareMariaDB(int)}, for {@link #startMariaDBForBulkLoad(int, String, String)}
+     * to use if bulkLoad is true.
+     */
+    public static void prepareMariaDB(int port, boolean bulkLoad) throws Exception {
+        preparedDB = DB.newEmbeddedDB(buildConfiguration(port, bulkLoad));
+        preparedPort = port;
+        preparedBulkLoad = bulkLoad;
+    }
+
+    private static DBConfiguration buildConfiguration(int port, boolean bulkLoad) {
+        // Build DB configuration
+        mariaDBConfig = DBConfigurationBuilder.newBuilder();
+        mariaDBConfig.setPort(port);
+        mariaDBConfig.setSecurityDisabled(false);
+
+        Properties properties = OpenmrsUtil.getRuntimeProperties(StandaloneUtil.getContextName());
+
+        String baseDirPath = safeResolveProperty(properties, KEY_MARIADB_BASE_DIR, MARIA_DB_BASE_DIR);
+
+        File baseDir = new File(Paths.get(baseDirPath).toAbsolutePath().toString());
+
+        mariaDBConfig.setBaseDir(baseDir);
+        mariaDBConfig.setDataDir(getDataDir(properties));
+
+        mariaDBConfig.addArg("--max_allowed_packet=96M");
+        mariaDBConfig.addArg("--collation-server=utf8_general_ci");
+        mariaDBConfig.addArg("--character-set-server=utf8");
+        for (String arg : MariaDbProfile.getArguments(properties)) {
+            mariaDBConfig.addArg(arg);
+        }
+        if (bulkLoad) {
+            // Last, as the last of repeated options wins
+            for (String arg : BULK_LOAD_ARGS) {
+                mariaDBConfig.addArg(arg);
+            }
+        }
+
+        return mariaDBConfig.build();
+    }
+
+    /**
+     * @return the MariaDB data directory configured in the runtime properties.
+     */
+    public static File getDataDir() {
+        return getDataDir(OpenmrsUtil.getRuntimeProperties(StandaloneUtil.getContextName()));
+    }
+
+    private static File getDataDir(Properties properties) {
+        String dataDirPath = safeResolveProperty(properties, KEY_MARIADB_DATA_DIR, MARIA_DB_DATA_DIR);
+        return new File(Paths.get(dataDirPath).toAbsolutePath().toString());
+    }
+
+    /**
+     * @return the version of the running MariaDB server, as reported by SELECT VERSION().
+     */
+    public static String getServerVersion() throws SQLException {
+        try (Connection connection = DriverManager.getConnection("jdbc:mariadb://localhost:" + runningPort + "/", ROOT_USER, ROOT_PASSWORD);
+             Statement stmt = connection.createStatement();
+             ResultSet resultSet = stmt.executeQuery("SELECT VERSION()")) {
+            resultSet.next();
+            return resultSet.getString(1);
+        }
+    }
+
     private static String safeResolveProperty(Properties properties, String key, String defaultValue) {
         if (properties == null || !properties.containsKey(key)) {
             return defaultValue;
@@ -119,15 +294,31 @@ public class MariaDbController {
         return properties.getProperty(key, defaultValue);
     }
 
-    public static void stopMariaDB() throws ManagedProcessException {
-        if (mariaDB != null) {
-            mariaDB.stop();
-            mariaDB = null;
+    /**
+     * Stops MariaDB if it is running. Synchronized, as the shutdown hooks may call it at the same time
+     * as the rest of the application.
+     */
+    public static synchronized void stopMariaDB() throws ManagedProcessException {
+        DB db = mariaDB;
+        if (db != null) {
+            try {
+                db.stop();
+            } finally {
+                // Also forget an instance which failed to start or stop, so that it can be started afresh
+                mariaDB = null;
+            }
         } else {
             System.out.println("MariaDB has already been stopped");
         }
     }
 
+    /**
+     * @return true if MariaDB has been started and not yet stopped.
+     */
+    public static boolean isRunning() {
+        return mariaDB != null;
+    }
+
     public static String getRootPassword() {
         return ROOT_PASSWORD;
     }
@@ -0,0 +1,169 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.standalone;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * The MariaDB server options sized for the host: the InnoDB buffer pool and redo log, the in memory
+ * temporary tables, the thread handling and the table caches.
+ * <p>
+ * The profile is chosen with the {@value #KEY_PROFILE} runtime property, and any option can be set
+ * with a runtime property named {@value #KEY_OPTION_PREFIX} followed by the option name, an empty
+ * value leaving the option to MariaDB. The default {@value #AUTO} profile sizes the options from the
+ * memory and cores of the host, leaving room for the heap of this JVM, which runs Tomcat.
+ */
+public class MariaDbProfile {
+
+    /** The runtime property naming the profile. */
+    public static final String KEY_PROFILE = "mariadb.profile";
+
+    /** The prefix of the runtime properties setting MariaDB options, such as mariadb.option.tmp_table_size. */
+    public static final String KEY_OPTION_PREFIX = "mariadb.option.";
+
+    public static final String LAPTOP = "laptop";
+
+    public static final String CLINIC_SERVER = "clinic-server";
+
+    public static final String LARGE_SERVER = "large-server";
+
+    public static final String AUTO = "auto";
+
+    private static final long MB = 1024 * 1024;
+
+    private static final long GB = 1024 * MB;
+
+    /** InnoDB sizes the buffer pool in chunks of this size. */
+    private static final long BUFFER_POOL_CHUNK = 128 * MB;
+
+    private static final String ONE_THREAD_PER_CONNECTION = "one-thread-per-connection";
+
+    private static final String POOL_OF_THREADS = "pool-of-threads";
+
+    /**
+     * @param properties the runtime properties, or null.
+     * @return the command line arguments for MariaDB of the profile and options set in the given
+     *         runtime properties.
+     */
+    public static List<String> getArguments(Properties properties) {
+        String profile = properties != null ? properties.getProperty(KEY_PROFILE, AUTO).trim() : AUTO;
+        Map<String, String> options = getOptions(profile);
+
+        if (properties != null) {
+            for (String key : properties.stringPropertyNames()) {
+                if (key.startsWith(KEY_OPTION_PREFIX)) {
+                    String value = properties.getProperty(key).trim();
+                    String option = key.substring(KEY_OPTION_PREFIX.length());
+                    if (value.isEmpty()) {
+                        options.remove(option);
+                    } else {
+                        options.put(option, value);
+                    }
+                }
+            }
+        }
+        System.out.println("Using the " + profile + " MariaDB profile: " + options);
+
+        List<String> arguments = new ArrayList<String>();
+        for (Map.Entry<String, String> option : options.entrySet()) {
+            arguments.add("--" + option.getKey() + "=" + option.getValue());
+        }
+        return arguments;
+    }
+
+    /**
+     * @param profile one of the profile names, anything else counting as {@value #AUTO}.
+     * @return the MariaDB options of the given profile, by name.
+     */
+    public static Map<String, String> getOptions(String profile) {
+        if (LAPTOP.equalsIgnoreCase(profile)) {
+            return options(256 * MB, 64 * MB, 32 * MB, ONE_THREAD_PER_CONNECTION, 1000, 800);
+        }
+        if (CLINIC_SERVER.equalsIgnoreCase(profile)) {
+            return options(2 * GB, 512 * MB, 64 * MB, POOL_OF_THREADS, 2000, 1400);
+        }
+        if (LARGE_SERVER.equalsIgnoreCase(profile)) {
+            return options(8 * GB, 2 * GB, 128 * MB, POOL_OF_THREADS, 4000, 2000);
+        }
+        if (!AUTO.equalsIgnoreCase(profile)) {
+            System.out.println("Unknown MariaDB profile " + profile + ", sizing MariaDB for this host instead");
+        }
+
+        long totalMemory = getTotalMemory();
+        if (totalMemory <= 0) {
+            return getOptions(LAPTOP);
+        }
+        return getAutoOptions(totalMemory, Runtime.getRuntime().maxMemory(), Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Sizes the options for a host with the given memory and cores.
+     *
+     * @param totalMemory the memory of the host.
+     * @param heap the memory to leave to the JVM running Tomcat.
+     * @param cores the number of cores of the host.
+     */
+    static Map<String, String> getAutoOptions(long totalMemory, long heap, int cores) {
+        // Leave room for the operating system, the rest of the JVM and what MariaDB uses per connection,
+        // then take a third of what is left, as the host is often also the desktop running the browser
+        long reserved = heap + (totalMemory >= 4 * GB ? GB : 512 * MB);
+        long bufferPool = clamp((totalMemory - reserved) / 3 / BUFFER_POOL_CHUNK * BUFFER_POOL_CHUNK, BUFFER_POOL_CHUNK,
+                32 * GB);
+        long logFile = clamp(bufferPool / 4, 48 * MB, 2 * GB);
+        long tmpTable = clamp(totalMemory / 128, 16 * MB, 256 * MB);
+        // The thread pool only pays off with enough cores to run it
+        String threadHandling = cores >= 4 ? POOL_OF_THREADS : ONE_THREAD_PER_CONNECTION;
+        return options(bufferPool, logFile, tmpTable, threadHandling, (int) clamp(cores * 500, 1000, 4000),
+                (int) clamp(cores * 200, 800, 2000));
+    }
+
+    private static Map<String, String> options(long bufferPool, long logFile, long tmpTable, String threadHandling,
+            int tableOpenCache, int tableDefinitionCache) {
+        Map<String, String> options = new LinkedHashMap<String, String>();
+        options.put("innodb_buffer_pool_size", toSize(bufferPool));
+        options.put("innodb_log_file_size", toSize(logFile));
+        // An in memory temporary table is limited by the smaller of the two
+        options.put("tmp_table_size", toSize(tmpTable));
+        options.put("max_heap_table_size", toSize(tmpTable));
+        options.put("thread_handling", threadHandling);
+        options.put("table_open_cache", String.valueOf(tableOpenCache));
+        options.put("table_definition_cache", String.valueOf(tableDefinitionCache));
+        return options;
+    }
+
+    /**
+     * @return the physical memory of the host, or of the container it runs in, or -1 if unknown.
+     */
+    private static long getTotalMemory() {
+        OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        if (os instanceof com.sun.management.OperatingSystemMXBean) {
+            return ((com.sun.management.OperatingSystemMXBean) os).getTotalMemorySize();
+        }
+        return -1;
+    }
+
+    private static long clamp(long value, long min, long max) {
+        return Math.max(min, Math.min(max, value));
+    }
+
+    private static String toSize(long bytes) {
+        return bytes % GB == 0 ? bytes / GB + "G" : bytes / MB + "M";
+    }
+}
@@ -13,8 +13,6 @@
  */
 package org.openmrs.standalone;
 
-import org.apache.ibatis.jdbc.ScriptRunner;
-
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
@@ -22,18 +20,17 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.UnsupportedEncodingException;
 import java.io.File;
-import java.io.Reader;
-import java.io.FileReader;
 import java.io.OutputStream;
 import java.net.HttpURLConnection;
 import java.net.URL;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.sql.Connection;
-import java.sql.DriverManager;
 import java.util.Properties;
 import java.util.Base64;
+import java.util.Enumeration;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 
 public class OpenmrsUtil {
 
@@ -73,74 +70,74 @@ public class OpenmrsUtil {
 	 * 2) an environment variable called "{APPLICATIONNAME}_RUNTIME_PROPERTIES_FILE"
 	 * 3) {openmrs_app_dir}/{applicationName}_runtime.properties   // openmrs_app_dir is typically {user_home}/.OpenMRS
 	 * </pre>
+	 * The file is only read the first time, and again when it is changed on disk, see
+	 * {@link RuntimeConfig}.
 	 * 
 	 * @see #getApplicationDataDirectory()
 	 * @param applicationName (defaults to "openmrs") the name of the running OpenMRS application,
 	 *            e.g. if you have deployed OpenMRS as a web application you would give the deployed
 	 *            context path here
-	 * @return runtime properties, or null if none can be found
+	 * @return a copy of the runtime properties which the caller may change, or null if none can be
+	 *         found
 	 * @since 1.8
 	 */
 
 	public static Properties getRuntimeProperties(String applicationName) {
 		
 		setDummyOS();
-		if (applicationName == null)
-			applicationName = "openmrs";
 		
-		FileInputStream propertyStream = null;
+		RuntimeConfig config = RuntimeConfig.get(applicationName);
+		runtimePropertiesPathName = config.getFile().getPath();
+		return config.exists() ? config.copy() : null;
+	}
+	
+	/**
+	 * Looks for the runtime properties file in the places listed in
+	 * {@link #getRuntimeProperties(String)}.
+	 * 
+	 * @return the file found, or the one in the application data directory if none is found.
+	 */
+	static File findRuntimePropertiesFile(String applicationName) {
 		
 		String filename = applicationName + "-runtime.properties";
 		// first look in the current directory (that java was started from)
-		runtimePropertiesPathName = filename;
-		System.out.println("Attempting to load properties file in current directory: " + runtimePropertiesPathName);
-		try {
-			propertyStream = new FileInputStream(runtimePropertiesPathName);
-		}
-		catch (FileNotFoundException e) {
+		String pathName = filename;
+		System.out.println("Attempting to load properties file in current directory: " + pathName);
+		if (new File(pathName).isFile()) {
+			return new File(pathName);
 		}
 		
 		// next look for an environment variable
-		if (propertyStream == null) {
-			String envVarName = applicationName.toUpperCase() + "_RUNTIME_PROPERTIES_FILE";
-			runtimePropertiesPathName = System.getenv(envVarName);
-			if (runtimePropertiesPathName != null) {
-				System.out.println("Attempting to load runtime properties from: " + runtimePropertiesPathName);
-				try {
-					propertyStream = new FileInputStream(runtimePropertiesPathName);
-				}
-				catch (IOException e) {
-				}
+		String envVarName = applicationName.toUpperCase() + "_RUNTIME_PROPERTIES_FILE";
+		pathName = System.getenv(envVarName);
+		if (pathName != null) {
+			System.out.println("Attempting to load runtime properties from: " + pathName);
+			if (new File(pathName).isFile()) {
+				return new File(pathName);
 			}
 		}
 		
 		// next look in the OpenMRS application data directory
-		if (propertyStream == null) {
-			runtimePropertiesPathName = OpenmrsUtil.getApplicationDataDirectory() + filename;
-			System.out.println("Attempting to load property file from: " + runtimePropertiesPathName);
-			try {
-				propertyStream = new FileInputStream(runtimePropertiesPathName);
-			}
-			catch (FileNotFoundException e) {
-			}
-		}
-		
+		pathName = OpenmrsUtil.getApplicationDataDirectory() + filename;
+		System.out.println("Attempting to load property file from: " + pathName);
+		return new File(pathName);
+	}
+	
+	/**
+	 * Loads the given runtime properties file.
+	 * 
+	 * @return the properties, or null if the file cannot be read.
+	 */
+	static Properties loadRuntimeProperties(File file) {
 		try {
-			if (propertyStream != null) {
-				Properties props = new Properties();
-				loadProperties(props, propertyStream);
-				propertyStream.close();
-				System.out.println("Using runtime properties file: " + runtimePropertiesPathName);
-				return props;
-			}
+			FileInputStream propertyStream = new FileInputStream(file);
+			Properties props = new Properties();
+			loadProperties(props, propertyStream);
+			return props;
 		}
-		catch (Exception ex) {
-			ex.printStackTrace();
+		catch (FileNotFoundException e) {
+			return null;
 		}
-		
-		System.out.println("Failed to get runtime properties file.");
-		
-		return null;
 	}
 	
 	/**
@@ -222,30 +219,116 @@ public class OpenmrsUtil {
 		System.setProperty(OPERATING_SYSTEM_KEY,OPERATING_SYSTEM);
 	}
 
-	public static void importSqlFile(File sqlFile, String jdbcUrl, String user, String password) {
+	public static boolean importSqlFile(File sqlFile, String jdbcUrl, String user, String password) {
+		return importSqlFile(sqlFile, jdbcUrl, user, password, 0, 0);
+	}
+
+	public static boolean importSqlFile(File sqlFile, String jdbcUrl, String user, String password, int packetSize,
+	        int threads) {
+		return importSqlFile(sqlFile, jdbcUrl, user, password, packetSize, threads, null);
+	}
+
+	/**
+	 * Imports the given SQL file with a {@link SqlImporter}. If it is a directory, it is expected to
+	 * hold the chunks of a {@link ParallelDatabaseDumper} dump.
+	 * 
+	 * @param packetSize the maximum size of merged INSERT statements, or 0 for the default.
+	 * @param threads the number of connections to load tables over, or 0 for the default.
+	 * @param progressListener to be told how far the import has got, or null.
+	 * @return true if the file was imported successfully.
+	 */
+	public static boolean importSqlFile(File sqlFile, String jdbcUrl, String user, String password, int packetSize,
+	        int threads, ImportProgress.Listener progressListener) {
 		if (!sqlFile.exists()) {
 			System.err.println(":x: SQL file not found: " + sqlFile.getAbsolutePath());
-			return;
+			return false;
 		}
 
 		System.out.println("✅ Preparing to import "+sqlFile+" data");
-		try (Connection conn = DriverManager.getConnection(jdbcUrl, user, password)) {
-
+		try {
 			System.out.println("📥 Importing SQL from: " + sqlFile.getAbsolutePath());
-			try (Reader reader = new FileReader(sqlFile)) {
-				ScriptRunner scriptRunner = new ScriptRunner(conn);
-				scriptRunner.setLogWriter(null); // Disable logs
-				scriptRunner.setStopOnError(true);
-				scriptRunner.runScript(reader);
-				System.out.println("✅ Successfully imported SQL: " + sqlFile.getAbsolutePath());
+			SqlImporter importer = new SqlImporter(jdbcUrl, user, password);
+			importer.setPacketSize(packetSize);
+			importer.setThreads(threads);
+			importer.setProgressListener(progressListener);
+			if (sqlFile.isDirectory()) {
+				importer.importChunks(SqlImporter.ChunkSource.fromDirectory(sqlFile));
+			} else {
+				importer.importSql(sqlFile);
 			}
+			System.out.println("✅ Successfully imported SQL: " + sqlFile.getAbsolutePath());
+			return true;
 
 		} catch (Exception e) {
 			System.err.println("❌ Error importing SQL: " + e.getMessage());
 			e.printStackTrace();
+			return false;
 		}
 	}
 
+	/**
+	 * Imports the parallel dump in the given zip file if it has one, else the first SQL file found
+	 * in it, streaming them out of the zip instead of extracting them first.
+	 * 
+	 * @param packetSize the maximum size of merged INSERT statements, or 0 for the default.
+	 * @param threads the number of connections to load tables over, or 0 for the default.
+	 * @param progressListener to be told how far the import has got, or null.
+	 * @return true if the zip had SQL to import, which was imported successfully.
+	 */
+	public static boolean importSqlFromZip(File zipFile, String jdbcUrl, String user, String password, int packetSize,
+	        int threads, ImportProgress.Listener progressListener) {
+		try (ZipFile zip = new ZipFile(zipFile)) {
+			SqlImporter importer = new SqlImporter(jdbcUrl, user, password);
+			importer.setPacketSize(packetSize);
+			importer.setThreads(threads);
+			importer.setProgressListener(progressListener);
+
+			if (zip.getEntry(ParallelDatabaseDumper.DUMP_ENTRY_PREFIX + ParallelDatabaseDumper.MANIFEST) != null) {
+				System.out.println("📥 Importing SQL chunks from: " + zipFile.getAbsolutePath() + "!/"
+				        + ParallelDatabaseDumper.DUMP_ENTRY_PREFIX);
+				importer.importChunks(SqlImporter.ChunkSource.fromZip(zip, ParallelDatabaseDumper.DUMP_ENTRY_PREFIX));
+				System.out.println("✅ Successfully imported SQL chunks from: " + zipFile.getName());
+				return true;
+			}
+
+			Enumeration<? extends ZipEntry> entries = zip.entries();
+			while (entries.hasMoreElements()) {
+				ZipEntry entry = entries.nextElement();
+				if (entry.isDirectory() || !isSqlFile(entry.getName())) {
+					continue;
+				}
+
+				System.out.println("📥 Importing SQL from: " + zipFile.getAbsolutePath() + "!/" + entry.getName());
+				try (InputStream in = zip.getInputStream(entry)) {
+					importer.importSql(in, entry.getSize());
+				}
+				System.out.println("✅ Successfully imported SQL: " + entry.getName());
+				return true;
+			}
+			System.out.println("No SQL file to import in " + zipFile.getAbsolutePath());
+			return false;
+
+		} catch (Exception e) {
+			System.err.println("❌ Error importing SQL: " + e.getMessage());
+			e.printStackTrace();
+			return false;
+		}
+	}
+
+	/**
+	 * @return true if the given file or zip entry name is that of a SQL script, which may be
+	 *         compressed.
+	 */
+	public static boolean isSqlFile(String name) {
+		String lowerCaseName = name.toLowerCase();
+		for (DumpCompression.Format format : DumpCompression.Format.values()) {
+			if (lowerCaseName.endsWith(".sql" + format.getExtension())) {
+				return true;
+			}
+		}
+		return false;
+	}
+
 	public static String findDumpExecutable(String baseDir, String dbDir) {
 		String os = System.getProperty("os.name").toLowerCase();
 		boolean isWindows = os.contains("win");
@@ -265,7 +348,7 @@ public class OpenmrsUtil {
 
 	public static void rebuildEntireSearchIndex(String resourceUrl) {
 		final String SEARCH_INDEX_URL = resourceUrl + "/ws/rest/v1/searchindexupdate";
-		try {
+		try (StartupTimeline.Phase phase = StartupTimeline.start("rebuild-search-index")) {
 			URL url = new URL(SEARCH_INDEX_URL);
 			HttpURLConnection conn = (HttpURLConnection) url.openConnection();
 
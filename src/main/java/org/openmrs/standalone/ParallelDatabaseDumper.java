@@ -0,0 +1,401 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.standalone;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Dumps a database table by table over several connections, all reading from one consistent
+ * snapshot. Each table goes to its own chunk file, and a manifest lists the chunks biggest first,
+ * so that {@link SqlImporter#importChunks(SqlImporter.ChunkSource)} can load them concurrently.
+ * Views go to a separate chunk which is loaded last. Triggers and routines are not dumped.
+ */
+public class ParallelDatabaseDumper {
+
+    /** The name of the file listing the chunks of a dump. */
+    public static final String MANIFEST = "manifest.properties";
+
+    /** The folder holding the chunks inside the database zip. */
+    public static final String DUMP_ENTRY_PREFIX = "data/dump/";
+
+    static final String KEY_CHUNKS = "chunks";
+    static final String KEY_VIEWS = "views";
+    static final String KEY_ROWS_PREFIX = "rows.";
+
+    /** The name of the chunk holding the views, which cannot clash with a table as it has a dot. */
+    private static final String VIEWS = "views.all";
+
+
+    /** The size in characters up to which rows are grouped into one INSERT. */
+    private static final int INSERT_SIZE = 1024 * 1024;
+
+    private final String jdbcUrl;
+    private final String user;
+    private final String password;
+    private final File chunkDir;
+
+    private int threads = Runtime.getRuntime().availableProcessors();
+
+    private DumpCompression.Format compression = DumpCompression.Format.NONE;
+
+    private final Map<String, Long> rowCounts = new ConcurrentHashMap<>();
+
+    public ParallelDatabaseDumper(String jdbcUrl, String user, String password, File chunkDir) {
+        this.jdbcUrl = jdbcUrl;
+        this.user = user;
+        this.password = password;
+        this.chunkDir = chunkDir;
+    }
+
+    /**
+     * @param threads the number of connections to dump tables over. Values below 1 restore the
+     *            default, which is the number of cores.
+     */
+    public void setThreads(int threads) {
+        this.threads = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * @param compression the format to compress the chunks with.
+     */
+    public void setCompression(DumpCompression.Format compression) {
+        this.compression = compression;
+    }
+
+    public void dump() throws Exception {
+        long start = System.currentTimeMillis();
+        if (!chunkDir.exists() && !chunkDir.mkdirs()) {
+            throw new IOException("Cannot create " + chunkDir);
+        }
+        File[] previous = chunkDir.listFiles();
+        if (previous != null) {
+            for (File file : previous) {
+                file.delete();
+            }
+        }
+
+        List<Connection> connections = new ArrayList<>();
+        try (Connection coordinator = openConnection()) {
+            List<String> tables = listTables(coordinator, "BASE TABLE");
+            List<String> views = listTables(coordinator, "VIEW");
+            warnAboutUndumpedObjects(coordinator);
+
+            int workers = Math.max(1, Math.min(threads, tables.size()));
+            for (int i = 0; i < workers; i++) {
+                connections.add(openConnection());
+            }
+
+            // Briefly block writes so that all workers start their snapshot at the same point
+            boolean locked = false;
+            try (Statement stmt = coordinator.createStatement()) {
+                stmt.execute("FLUSH TABLES WITH READ LOCK");
+                locked = true;
+            } catch (SQLException ex) {
+                System.out.println("⚠️ Could not lock the database (" + ex.getMessage()
+                        + "), the tables are only consistent if nothing writes to them during the dump");
+            }
+            for (Connection connection : connections) {
+                try (Statement stmt = connection.createStatement()) {
+                    stmt.execute("START TRANSACTION WITH CONSISTENT SNAPSHOT");
+                }
+            }
+            if (locked) {
+                try (Statement stmt = coordinator.createStatement()) {
+                    stmt.execute("UNLOCK TABLES");
+                }
+            }
+
+            final Queue<String> pending = new ConcurrentLinkedQueue<>(tables);
+            ExecutorService executor = Executors.newFixedThreadPool(workers);
+            try {
+                List<Future<?>> futures = new ArrayList<>();
+                for (final Connection connection : connections) {
+                    futures.add(executor.submit(() -> {
+                        String table;
+                        while ((table = pending.poll()) != null) {
+                            dumpTable(connection, table);
+                        }
+                        return null;
+                    }));
+                }
+                for (Future<?> future : futures) {
+                    future.get();
+                }
+            } finally {
+                executor.shutdownNow();
+            }
+
+            dumpViews(coordinator, views);
+            writeManifest(tables);
+
+            System.out.println("✅ Dumped " + tables.size() + " tables and " + views.size() + " views over " + workers
+                    + " connection(s) in " + (System.currentTimeMillis() - start) + " ms to " + chunkDir);
+        } finally {
+            for (Connection connection : connections) {
+                connection.close();
+            }
+        }
+    }
+
+    private Connection openConnection() throws SQLException {
+        Connection connection = DriverManager.getConnection(jdbcUrl, user, password);
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute("SET NAMES utf8mb4");
+            // Timestamps are written and read back in UTC, whatever the time zone of the machines
+            stmt.execute("SET time_zone = '+00:00'");
+        }
+        return connection;
+    }
+
+    /**
+     * @return the tables or views of the current database, biggest first.
+     */
+    private List<String> listTables(Connection connection, String type) throws SQLException {
+        List<String> tables = new ArrayList<>();
+        try (Statement stmt = connection.createStatement();
+             ResultSet resultSet = stmt.executeQuery("SELECT TABLE_NAME FROM information_schema.TABLES"
+                     + " WHERE TABLE_SCHEMA = DATABASE() AND TABLE_TYPE = '" + type + "'"
+                     + " ORDER BY COALESCE(DATA_LENGTH, 0) + COALESCE(INDEX_LENGTH, 0) DESC, TABLE_NAME")) {
+            while (resultSet.next()) {
+                tables.add(resultSet.getString(1));
+            }
+        }
+        return tables;
+    }
+
+    private void warnAboutUndumpedObjects(Connection connection) throws SQLException {
+        try (Statement stmt = connection.createStatement();
+             ResultSet resultSet = stmt.executeQuery("SELECT"
+                     + " (SELECT COUNT(*) FROM information_schema.TRIGGERS WHERE TRIGGER_SCHEMA = DATABASE()),"
+                     + " (SELECT COUNT(*) FROM information_schema.ROUTINES WHERE ROUTINE_SCHEMA = DATABASE())")) {
+            resultSet.next();
+            if (resultSet.getInt(1) > 0 || resultSet.getInt(2) > 0) {
+                System.out.println("⚠️ The database has " + resultSet.getInt(1) + " trigger(s) and " + resultSet.getInt(2)
+                        + " routine(s) which the parallel dump does not include");
+            }
+        }
+    }
+
+    private void dumpTable(Connection connection, String table) throws SQLException, IOException {
+        long rows = 0;
+        try (Writer out = openChunk(getChunkName(table)); Statement stmt = connection.createStatement()) {
+            out.write("-- Table " + quoteName(table) + "\n");
+            out.write("SET NAMES utf8mb4;\n");
+            out.write("SET time_zone = '+00:00';\n");
+            out.write("SET sql_mode = 'NO_AUTO_VALUE_ON_ZERO';\n");
+            out.write("DROP TABLE IF EXISTS " + quoteName(table) + ";\n");
+            try (ResultSet resultSet = stmt.executeQuery("SHOW CREATE TABLE " + quoteName(table))) {
+                resultSet.next();
+                out.write(resultSet.getString(2) + ";\n");
+            }
+
+            List<String> columns = listInsertableColumns(connection, table);
+            StringBuilder columnList = new StringBuilder();
+            for (String column : columns) {
+                columnList.append(columnList.length() == 0 ? "" : ",").append(quoteName(column));
+            }
+            String insert = "INSERT INTO " + quoteName(table) + " (" + columnList + ") VALUES ";
+
+            stmt.setFetchSize(1000);
+            try (ResultSet resultSet = stmt.executeQuery("SELECT " + columnList + " FROM " + quoteName(table))) {
+                ResultSetMetaData metaData = resultSet.getMetaData();
+                int[] types = new int[columns.size()];
+                for (int i = 0; i < types.length; i++) {
+                    types[i] = metaData.getColumnType(i + 1);
+                    // TINYINT(1) may be reported as BIT, but it comes as text unlike real BIT columns
+                    if (types[i] == Types.BIT && !"BIT".equalsIgnoreCase(metaData.getColumnTypeName(i + 1))) {
+                        types[i] = Types.TINYINT;
+                    }
+                }
+
+                StringBuilder statement = new StringBuilder(INSERT_SIZE + 64 * 1024);
+                while (resultSet.next()) {
+                    statement.append(statement.length() == 0 ? insert : ",").append('(');
+                    for (int i = 0; i < types.length; i++) {
+                        if (i > 0) {
+                            statement.append(',');
+                        }
+                        appendValue(statement, resultSet, i + 1, types[i]);
+                    }
+                    statement.append(')');
+                    rows++;
+                    if (statement.length() >= INSERT_SIZE) {
+                        out.append(statement).append(";\n");
+                        statement.setLength(0);
+                    }
+                }
+                if (statement.length() > 0) {
+                    out.append(statement).append(";\n");
+                }
+            }
+        }
+        rowCounts.put(table, rows);
+    }
+
+    /**
+     * @return the columns of the given table, leaving out generated ones which cannot be inserted.
+     */
+    private List<String> listInsertableColumns(Connection connection, String table) throws SQLException {
+        List<String> columns = new ArrayList<>();
+        try (Statement stmt = connection.createStatement();
+             ResultSet resultSet = stmt.executeQuery("SELECT COLUMN_NAME, EXTRA FROM information_schema.COLUMNS"
+                     + " WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = '" + table.replace("'", "''") + "'"
+                     + " ORDER BY ORDINAL_POSITION")) {
+            while (resultSet.next()) {
+                String extra = resultSet.getString(2);
+                if (extra == null || !(extra.contains("GENERATED") || extra.contains("VIRTUAL") || extra.contains("PERSISTENT")
+                        || extra.contains("STORED"))) {
+                    columns.add(resultSet.getString(1));
+                }
+            }
+        }
+        return columns;
+    }
+
+    private static void appendValue(StringBuilder out, ResultSet resultSet, int column, int type) throws SQLException {
+        switch (type) {
+            case Types.BIT:
+            case Types.BINARY:
+            case Types.VARBINARY:
+            case Types.LONGVARBINARY:
+            case Types.BLOB:
+                byte[] bytes = resultSet.getBytes(column);
+                if (bytes == null) {
+                    out.append("NULL");
+                } else if (bytes.length == 0) {
+                    out.append("''");
+                } else {
+                    out.append("0x");
+                    for (byte b : bytes) {
+                        out.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+                    }
+                }
+                return;
+            case Types.TINYINT:
+            case Types.SMALLINT:
+            case Types.INTEGER:
+            case Types.BIGINT:
+            case Types.DECIMAL:
+            case Types.NUMERIC:
+            case Types.REAL:
+            case Types.FLOAT:
+            case Types.DOUBLE:
+                String number = resultSet.getString(column);
+                out.append(number == null ? "NULL" : number);
+                return;
+            default:
+                String text = resultSet.getString(column);
+                if (text == null) {
+                    out.append("NULL");
+                } else {
+                    appendQuoted(out, text);
+                }
+        }
+    }
+
+    private static void appendQuoted(StringBuilder out, String text) {
+        out.append('\'');
+        for (int i = 0; i < text.length(); i++) {
+            char ch = text.charAt(i);
+            switch (ch) {
+                case '\0':
+                    out.append("\\0");
+                    break;
+                case '\'':
+                    out.append("\\'");
+                    break;
+                case '\\':
+                    out.append("\\\\");
+                    break;
+                case '\n':
+                    out.append("\\n");
+                    break;
+                case '\r':
+                    out.append("\\r");
+                    break;
+                case '\u001a':
+                    out.append("\\Z");
+                    break;
+                default:
+                    out.append(ch);
+            }
+        }
+        out.append('\'');
+    }
+
+    private void dumpViews(Connection connection, List<String> views) throws SQLException, IOException {
+        try (Writer out = openChunk(getChunkName(VIEWS)); Statement stmt = connection.createStatement()) {
+            out.write("SET NAMES utf8mb4;\n");
+            for (String view : views) {
+                out.write("DROP TABLE IF EXISTS " + quoteName(view) + ";\n");
+                out.write("DROP VIEW IF EXISTS " + quoteName(view) + ";\n");
+                try (ResultSet resultSet = stmt.executeQuery("SHOW CREATE VIEW " + quoteName(view))) {
+                    resultSet.next();
+                    out.write(resultSet.getString(2) + ";\n");
+                }
+            }
+        }
+    }
+
+    private void writeManifest(List<String> tables) throws IOException {
+        Properties manifest = new Properties();
+        StringBuilder chunks = new StringBuilder();
+        for (String table : tables) {
+            chunks.append(chunks.length() == 0 ? "" : ",").append(getChunkName(table));
+            manifest.setProperty(KEY_ROWS_PREFIX + table, String.valueOf(rowCounts.get(table)));
+        }
+        manifest.setProperty(KEY_CHUNKS, chunks.toString());
+        manifest.setProperty(KEY_VIEWS, getChunkName(VIEWS));
+        try (OutputStream out = new FileOutputStream(new File(chunkDir, MANIFEST))) {
+            manifest.store(out, "Chunks of the OpenMRS database dump, biggest first");
+        }
+    }
+
+    private String getChunkName(String table) {
+        return table + ".sql" + compression.getExtension();
+    }
+
+    private Writer openChunk(String name) throws IOException {
+        return new BufferedWriter(new OutputStreamWriter(DumpCompression.open(new File(chunkDir, name), compression),
+                StandardCharsets.UTF_8), 256 * 1024);
+    }
+
+    private static String quoteName(String name) {
+        return "`" + name.replace("`", "``") + "`";
+    }
+}
@@ -0,0 +1,233 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.standalone;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Finds available ports for Tomcat and MariaDB, and keeps them bound until just before the server
+ * binds them, so that nothing else can take them in between.
+ * <p>
+ * The ports are probed a window at a time, all the ports of a window at once, and the lowest one
+ * available is kept. A server releases its port with {@link #release(int)} right before it starts.
+ */
+public class PortAllocator {
+
+	/** How many ports are probed at once. */
+	private static final int WINDOW = 32;
+
+	/** How long in milliseconds to wait for something listening on a port to answer. */
+	private static final int CONNECT_TIMEOUT = 250;
+
+	private static final Map<Integer, ServerSocket> reservations = new HashMap<Integer, ServerSocket>();
+
+	/**
+	 * Reserves the given port, unless it is taken.
+	 *
+	 * @return true if the port is reserved, including by an earlier call.
+	 */
+	public static boolean reserve(int port) {
+		synchronized (reservations) {
+			if (reservations.containsKey(port)) {
+				return true;
+			}
+		}
+		ServerSocket socket = reserveSocket(port);
+		if (socket == null) {
+			return false;
+		}
+		synchronized (reservations) {
+			reservations.put(port, socket);
+		}
+		return true;
+	}
+
+	/**
+	 * Reserves the lowest available port from the given one.
+	 *
+	 * @return the port reserved, or -1 if none is available.
+	 */
+	public static int reserveFrom(int firstPort) {
+		synchronized (reservations) {
+			if (reservations.containsKey(firstPort)) {
+				return firstPort;
+			}
+		}
+		int start = Math.max(firstPort, StandaloneUtil.MIN_PORT_NUMBER);
+		ExecutorService executor = Executors.newFixedThreadPool(WINDOW, runnable -> {
+			Thread thread = new Thread(runnable, "port-probe");
+			thread.setDaemon(true);
+			return thread;
+		});
+		try {
+			while (start <= StandaloneUtil.MAX_PORT_NUMBER) {
+				int end = Math.min(start + WINDOW - 1, StandaloneUtil.MAX_PORT_NUMBER);
+				//First look for listeners on all the ports, then bind those with none, since the
+				//client sockets of the first probes may otherwise hold some of the ports being bound.
+				List<Future<Boolean>> listened = new ArrayList<Future<Boolean>>();
+				for (int port = start; port <= end; port++) {
+					final int candidate = port;
+					listened.add(executor.submit(() -> isListenedOn(candidate)));
+				}
+				List<Future<ServerSocket>> probes = new ArrayList<Future<ServerSocket>>();
+				for (int i = 0; i < listened.size(); i++) {
+					final int candidate = start + i;
+					probes.add(Boolean.FALSE.equals(getQuietly(listened.get(i))) ? executor.submit(() -> bind(candidate))
+					        : CompletableFuture.completedFuture((ServerSocket) null));
+				}
+
+				int reserved = -1;
+				for (int i = 0; i < probes.size(); i++) {
+					ServerSocket socket = getQuietly(probes.get(i));
+					if (socket == null) {
+						continue;
+					}
+					if (reserved < 0) {
+						reserved = start + i;
+						synchronized (reservations) {
+							reservations.put(reserved, socket);
+						}
+					} else {
+						close(socket);
+					}
+				}
+				if (reserved >= 0) {
+					return reserved;
+				}
+				start = end + 1;
+			}
+			return -1;
+		}
+		finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Unbinds the given port, if reserved, for the server about to bind it.
+	 */
+	public static void release(int port) {
+		ServerSocket socket;
+		synchronized (reservations) {
+			socket = reservations.remove(port);
+		}
+		if (socket != null) {
+			close(socket);
+		}
+	}
+
+	/**
+	 * Unbinds the reserved ports other than the given ones, such as those the user chose not to use.
+	 */
+	public static void retainOnly(int... ports) {
+		List<Integer> released = new ArrayList<Integer>();
+		synchronized (reservations) {
+			released.addAll(reservations.keySet());
+		}
+		for (int port : ports) {
+			released.remove(Integer.valueOf(port));
+		}
+		for (int port : released) {
+			release(port);
+		}
+	}
+
+	/**
+	 * @return whether the given port is reserved.
+	 */
+	public static boolean isReserved(int port) {
+		synchronized (reservations) {
+			return reservations.containsKey(port);
+		}
+	}
+
+	/**
+	 * Binds the given port, if nothing listens on it and it can be bound.
+	 *
+	 * @return the socket bound to the port, or null if the port is taken.
+	 */
+	private static ServerSocket reserveSocket(int port) {
+		return isListenedOn(port) ? null : bind(port);
+	}
+
+	/**
+	 * Checks if port is open by trying to connect as a client, as something listening on a single
+	 * address may not keep others from binding the port.
+	 */
+	private static boolean isListenedOn(int port) {
+		try (Socket client = new Socket()) {
+			client.connect(new InetSocketAddress("127.0.0.1", port), CONNECT_TIMEOUT);
+			return true; //Someone responding on port - so not available;
+		}
+		catch (IOException ex) {
+			//Connection refused, so port must be available
+			return false;
+		}
+	}
+
+	/**
+	 * @return the socket bound to the given port, or null if it cannot be bound.
+	 */
+	private static ServerSocket bind(int port) {
+		if (port < StandaloneUtil.MIN_PORT_NUMBER || port > StandaloneUtil.MAX_PORT_NUMBER)
+			return null;
+
+		ServerSocket socket = null;
+		try {
+			socket = new ServerSocket();
+			//Such that the server can bind the port as soon as it is released.
+			socket.setReuseAddress(true);
+			socket.bind(new InetSocketAddress(port), 1);
+			return socket;
+		}
+		catch (IOException ex) {
+			if (socket != null) {
+				close(socket);
+			}
+			return null;
+		}
+	}
+
+	private static <T> T getQuietly(Future<T> probe) {
+		try {
+			return probe.get();
+		}
+		catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+		catch (ExecutionException ex) {
+			//Not available then
+		}
+		return null;
+	}
+
+	private static void close(ServerSocket socket) {
+		try {
+			socket.close();
+		}
+		catch (IOException ex) {}
+	}
+}
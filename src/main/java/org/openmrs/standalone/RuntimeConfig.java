@@ -0,0 +1,376 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.standalone;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * The runtime properties file of an application, read once and kept in memory.
+ * <p>
+ * Readers get a read only snapshot, which no later change affects. Changes are written to a
+ * temporary file which then replaces the runtime properties file, so that nobody ever reads half a
+ * file, and the file is read again whenever something else changes it.
+ */
+public class RuntimeConfig {
+
+	private static final Map<String, RuntimeConfig> configs = new HashMap<String, RuntimeConfig>();
+
+	private final File file;
+
+	/** The properties as last read or written, null when there is no file. */
+	private volatile Snapshot snapshot;
+
+	/** The size and time of the file as last read or written, to ignore the changes made here. */
+	private long loadedLength = -1;
+
+	private long loadedLastModified = -1;
+
+	RuntimeConfig(File file) {
+		this.file = file.getAbsoluteFile();
+		reload();
+		if (snapshot != null) {
+			System.out.println("Using runtime properties file: " + file);
+		} else {
+			System.out.println("Failed to get runtime properties file.");
+		}
+	}
+
+	/**
+	 * @param applicationName the name of the application, openmrs if null.
+	 * @return the runtime properties of the given application, found as described in
+	 *         {@link OpenmrsUtil#getRuntimeProperties(String)}.
+	 */
+	public static synchronized RuntimeConfig get(String applicationName) {
+		if (applicationName == null)
+			applicationName = "openmrs";
+
+		RuntimeConfig config = configs.get(applicationName);
+		if (config == null) {
+			config = new RuntimeConfig(OpenmrsUtil.findRuntimePropertiesFile(applicationName));
+			config.watch();
+			configs.put(applicationName, config);
+		}
+		return config;
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * @return true if the runtime properties file was found.
+	 */
+	public boolean exists() {
+		return snapshot != null;
+	}
+
+	/**
+	 * @return the runtime properties, which cannot be changed, empty if there is no file.
+	 */
+	public Properties getProperties() {
+		Snapshot properties = snapshot;
+		return properties != null ? properties : new Snapshot(new Properties());
+	}
+
+	/**
+	 * @return a copy of the runtime properties, which can be changed and then stored.
+	 */
+	public Properties copy() {
+		Properties copy = new Properties();
+		copy.putAll(getProperties());
+		return copy;
+	}
+
+	/**
+	 * Replaces the runtime properties file with the given properties.
+	 */
+	public void store(Properties properties) {
+		store(file, properties);
+	}
+
+	/**
+	 * Replaces the given file with the given properties, which become the runtime properties if it
+	 * is the runtime properties file.
+	 */
+	public synchronized void store(File target, Properties properties) {
+		target = target.getAbsoluteFile();
+		write(target, properties);
+		if (target.equals(file)) {
+			snapshot = new Snapshot(properties);
+			loadedLength = file.length();
+			loadedLastModified = file.lastModified();
+		}
+	}
+
+	/**
+	 * Replaces the given file with the given properties, without having to find the runtime
+	 * properties first. The runtime properties already read from that file are updated too.
+	 */
+	public static void store(File target, Properties properties, String applicationName) {
+		RuntimeConfig config;
+		synchronized (RuntimeConfig.class) {
+			config = configs.get(applicationName != null ? applicationName : "openmrs");
+		}
+		if (config != null) {
+			config.store(target, properties);
+		} else {
+			write(target.getAbsoluteFile(), properties);
+		}
+	}
+
+	private static void write(File target, Properties properties) {
+		File dir = target.getParentFile();
+		Path temp = null;
+		try {
+			temp = Files.createTempFile(dir.toPath(), target.getName(), ".tmp");
+			//I just do not like the extra characters that the store() method puts in the properties file.
+			try (Writer out = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+				out.write("\n#Last updated by the OpenMRS Standalone application.\n");
+				out.write("#" + new Date() + "\n");
+				for (Map.Entry<Object, Object> e : properties.entrySet()) {
+					out.write(e.getKey() + "=" + e.getValue() + "\n");
+				}
+				out.write("\n");
+			}
+			try {
+				Files.move(temp, target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			}
+			catch (AtomicMoveNotSupportedException ex) {
+				Files.move(temp, target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+		}
+		catch (IOException ex) {
+			if (temp != null) {
+				temp.toFile().delete();
+			}
+			throw new RuntimeException("Error writing runtime properties file", ex);
+		}
+	}
+
+	/**
+	 * Reads the runtime properties file again if it changed since it was last read or written.
+	 */
+	synchronized void reload() {
+		if (file.length() == loadedLength && file.lastModified() == loadedLastModified) {
+			return;
+		}
+		loadedLength = file.length();
+		loadedLastModified = file.lastModified();
+		Properties properties = OpenmrsUtil.loadRuntimeProperties(file);
+		if (properties != null) {
+			snapshot = new Snapshot(properties);
+		} else if (!file.exists()) {
+			snapshot = null;
+		}
+	}
+
+	/**
+	 * Reloads the runtime properties whenever the file system reports a change to their file.
+	 */
+	void watch() {
+		final Path dir = file.getParentFile().toPath();
+		final WatchService watchService;
+		try {
+			watchService = FileSystems.getDefault().newWatchService();
+			dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY,
+			    StandardWatchEventKinds.ENTRY_DELETE);
+		}
+		catch (IOException ex) {
+			System.out.println("Not watching " + file + " for changes: " + ex.getMessage());
+			return;
+		}
+
+		Thread watcher = new Thread(() -> {
+			try {
+				while (true) {
+					WatchKey key = watchService.take();
+					boolean changed = false;
+					for (WatchEvent<?> event : key.pollEvents()) {
+						Object context = event.context();
+						changed |= event.kind() == StandardWatchEventKinds.OVERFLOW
+						        || (context instanceof Path && file.getName().equals(context.toString()));
+					}
+					if (changed) {
+						reload();
+					}
+					if (!key.reset()) {
+						return;
+					}
+				}
+			}
+			catch (InterruptedException ex) {
+				//Shutting down
+			}
+		}, "runtime-config-watcher");
+		watcher.setDaemon(true);
+		watcher.start();
+	}
+
+	/**
+	 * Properties which cannot be changed once created.
+	 */
+	private static class Snapshot extends Properties {
+
+		private static final long serialVersionUID = 1L;
+
+		private final boolean frozen;
+
+		Snapshot(Properties properties) {
+			super.putAll(properties);
+			frozen = true;
+		}
+
+		private void checkNotFrozen() {
+			if (frozen) {
+				throw new UnsupportedOperationException("The runtime properties cannot be changed, copy them first");
+			}
+		}
+
+		@Override
+		public synchronized Object put(Object key, Object value) {
+			checkNotFrozen();
+			return super.put(key, value);
+		}
+
+		@Override
+		public synchronized void putAll(Map<?, ?> t) {
+			checkNotFrozen();
+			super.putAll(t);
+		}
+
+		@Override
+		public synchronized Object remove(Object key) {
+			checkNotFrozen();
+			return super.remove(key);
+		}
+
+		@Override
+		public synchronized boolean remove(Object key, Object value) {
+			checkNotFrozen();
+			return super.remove(key, value);
+		}
+
+		@Override
+		public synchronized void clear() {
+			checkNotFrozen();
+			super.clear();
+		}
+
+		@Override
+		public synchronized Object putIfAbsent(Object key, Object value) {
+			checkNotFrozen();
+			return super.putIfAbsent(key, value);
+		}
+
+		@Override
+		public synchronized Object replace(Object key, Object value) {
+			checkNotFrozen();
+			return super.replace(key, value);
+		}
+
+		@Override
+		public synchronized boolean replace(Object key, Object oldValue, Object newValue) {
+			checkNotFrozen();
+			return super.replace(key, oldValue, newValue);
+		}
+
+		@Override
+		public synchronized void replaceAll(BiFunction<? super Object, ? super Object, ?> function) {
+			checkNotFrozen();
+			super.replaceAll(function);
+		}
+
+		@Override
+		public synchronized Object compute(Object key, BiFunction<? super Object, ? super Object, ?> remappingFunction) {
+			checkNotFrozen();
+			return super.compute(key, remappingFunction);
+		}
+
+		@Override
+		public synchronized Object computeIfAbsent(Object key, Function<? super Object, ?> mappingFunction) {
+			checkNotFrozen();
+			return super.computeIfAbsent(key, mappingFunction);
+		}
+
+		@Override
+		public synchronized Object computeIfPresent(Object key,
+		        BiFunction<? super Object, ? super Object, ?> remappingFunction) {
+			checkNotFrozen();
+			return super.computeIfPresent(key, remappingFunction);
+		}
+
+		@Override
+		public synchronized Object merge(Object key, Object value,
+		        BiFunction<? super Object, ? super Object, ?> remappingFunction) {
+			checkNotFrozen();
+			return super.merge(key, value, remappingFunction);
+		}
+
+		@Override
+		public synchronized void load(Reader reader) throws IOException {
+			checkNotFrozen();
+			super.load(reader);
+		}
+
+		@Override
+		public synchronized void load(InputStream inStream) throws IOException {
+			checkNotFrozen();
+			super.load(inStream);
+		}
+
+		@Override
+		public synchronized void loadFromXML(InputStream in) throws IOException {
+			checkNotFrozen();
+			super.loadFromXML(in);
+		}
+
+		@Override
+		public Set<Object> keySet() {
+			return Collections.unmodifiableSet(super.keySet());
+		}
+
+		@Override
+		public Set<Map.Entry<Object, Object>> entrySet() {
+			return Collections.unmodifiableSet(super.entrySet());
+		}
+
+		@Override
+		public Collection<Object> values() {
+			return Collections.unmodifiableCollection(super.values());
+		}
+	}
+}
@@ -0,0 +1,763 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.standalone;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Imports a SQL dump much faster than running it statement by statement:
+ * <ul>
+ * <li>consecutive single row INSERTs into the same table, as written with --skip-extended-insert,
+ * are merged into multi-row INSERTs of up to the packet size,</li>
+ * <li>unique and foreign key checks are turned off, and rows are committed in large transactions,</li>
+ * <li>tables are loaded in parallel over a small pool of connections, each table always going
+ * through the same connection so that its statements keep their order.</li>
+ * </ul>
+ * Session statements such as SET are run on every connection. Any other statement which does not
+ * belong to a single table, like creating a view, waits for all pending work and runs alone.
+ * <p>
+ * The progress of an import can be followed with an {@link ImportProgress.Listener}, which is
+ * called from a thread of its own every {@link #PROGRESS_INTERVAL} milliseconds.
+ */
+public class SqlImporter {
+
+	public static final int DEFAULT_PACKET_SIZE = 4 * 1024 * 1024;
+
+	public static final int DEFAULT_THREADS = Math.min(4, Runtime.getRuntime().availableProcessors());
+
+	/** How often in milliseconds the progress listener is called. */
+	public static final long PROGRESS_INTERVAL = 500;
+
+	/** How many statements may be waiting for each connection before the reader blocks. */
+	private static final int QUEUE_CAPACITY = 4;
+
+	private static final String VERSIONED_COMMENT = "^(?:/\\*M?!\\d*\\s*)?";
+
+	private static final Pattern INSERT = Pattern.compile(VERSIONED_COMMENT
+	        + "((?:INSERT|REPLACE)\\s+(?:IGNORE\\s+)?INTO\\s+(`[^`]+`|[\\w$]+)\\s*(?:\\([^)]*\\)\\s*)?VALUES)\\s*",
+	    Pattern.CASE_INSENSITIVE);
+
+	private static final Pattern TABLE_STATEMENT = Pattern.compile(VERSIONED_COMMENT
+	        + "(?:(?:CREATE|DROP)\\s+TABLE(?:\\s+IF\\s+(?:NOT\\s+)?EXISTS)?|ALTER\\s+TABLE|TRUNCATE(?:\\s+TABLE)?)\\s+(`[^`]+`|[\\w$]+)",
+	    Pattern.CASE_INSENSITIVE);
+
+	private static final Pattern SESSION_STATEMENT = Pattern.compile(VERSIONED_COMMENT + "(?:SET|USE)\\b",
+	    Pattern.CASE_INSENSITIVE);
+
+	/** Table locks do not make sense across connections, and we commit on our own. */
+	private static final Pattern SKIPPED_STATEMENT = Pattern.compile(VERSIONED_COMMENT
+	        + "(?:LOCK\\s+TABLES|UNLOCK\\s+TABLES|COMMIT)\\b", Pattern.CASE_INSENSITIVE);
+
+	private static final Object END = new Object();
+
+	private final String jdbcUrl;
+
+	private final String user;
+
+	private final String password;
+
+	private int packetSize = DEFAULT_PACKET_SIZE;
+
+	private int threads = DEFAULT_THREADS;
+
+	private final AtomicReference<Exception> failure = new AtomicReference<Exception>();
+
+	private final AtomicLong executedStatements = new AtomicLong();
+
+	private List<Worker> workers;
+
+	private Map<String, Worker> tableWorkers;
+
+	private String batchPrefix;
+
+	private Worker batchWorker;
+
+	private StringBuilder batch;
+
+	/** Whether to leave out the summary, when importing a chunk as part of a larger import. */
+	private boolean quiet;
+
+	private ImportProgress.Listener progressListener;
+
+	/** Shared with the importers of the chunks, when importing a parallel dump. */
+	private Progress progress = new Progress();
+
+	public SqlImporter(String jdbcUrl, String user, String password) {
+		this.jdbcUrl = jdbcUrl;
+		this.user = user;
+		this.password = password;
+	}
+
+	/**
+	 * @param packetSize the maximum size in characters of a merged INSERT statement. Values below
+	 *            1 restore the default.
+	 */
+	public void setPacketSize(int packetSize) {
+		this.packetSize = packetSize > 0 ? packetSize : DEFAULT_PACKET_SIZE;
+	}
+
+	/**
+	 * @param threads the number of connections to load tables over. Values below 1 restore the
+	 *            default.
+	 */
+	public void setThreads(int threads) {
+		this.threads = threads > 0 ? threads : DEFAULT_THREADS;
+	}
+
+	/**
+	 * @param progressListener to be told how far the import has got, or null.
+	 */
+	public void setProgressListener(ImportProgress.Listener progressListener) {
+		this.progressListener = progressListener;
+	}
+
+	/**
+	 * Imports the given UTF-8 encoded SQL file, which may be compressed.
+	 *
+	 * @return the number of statements read from the file.
+	 */
+	public long importSql(File sqlFile) throws Exception {
+		try (InputStream in = new FileInputStream(sqlFile)) {
+			return importSql(in, sqlFile.length());
+		}
+	}
+
+	/**
+	 * Imports the given UTF-8 encoded SQL script, decompressing it on the fly if it is gzip or zstd
+	 * compressed. The stream is read, decompressed and decoded by the calling thread while the
+	 * statements run over the connections, so reading for instance straight out of a zip file
+	 * overlaps with the import.
+	 *
+	 * @return the number of statements read from the stream.
+	 */
+	public long importSql(InputStream in) throws Exception {
+		return importSql(in, -1);
+	}
+
+	/**
+	 * Imports the given SQL script like {@link #importSql(InputStream)}.
+	 *
+	 * @param size the number of bytes in the stream, or -1 if it is not known, to estimate how long
+	 *            the import is going to take.
+	 * @return the number of statements read from the stream.
+	 */
+	public long importSql(InputStream in, long size) throws Exception {
+		Thread sampler = quiet ? null : startProgress(size);
+		boolean succeeded = false;
+		try (Reader reader = new InputStreamReader(DumpCompression.decompress(new CountingInputStream(in)),
+		        StandardCharsets.UTF_8)) {
+			long statements = importSql(reader);
+			succeeded = true;
+			return statements;
+		}
+		finally {
+			//The progress of a chunk is the one of the whole import, which only the parent ends
+			if (!quiet) {
+				stopProgress(sampler, succeeded);
+			}
+		}
+	}
+
+	/**
+	 * Imports the given SQL script, stopping at the first failing statement.
+	 *
+	 * @return the number of statements read from the script.
+	 */
+	public long importSql(Reader reader) throws Exception {
+		long start = System.currentTimeMillis();
+		long statements = 0;
+
+		failure.set(null);
+		executedStatements.set(0);
+		tableWorkers = new HashMap<String, Worker>();
+		workers = new ArrayList<Worker>();
+		try {
+			for (int i = 0; i < threads; i++) {
+				Worker worker = new Worker(i + 1, openConnection());
+				workers.add(worker);
+				worker.start();
+			}
+
+			SqlStatementReader statementReader = new SqlStatementReader(reader);
+			String sql;
+			while ((sql = statementReader.next()) != null) {
+				statements++;
+				progress.statements.incrementAndGet();
+				dispatch(sql);
+				checkFailure();
+			}
+			flushBatch();
+			awaitWorkers();
+			checkFailure();
+		}
+		finally {
+			for (Worker worker : workers) {
+				worker.finish();
+			}
+			batch = null;
+		}
+
+		if (quiet) {
+			return statements;
+		}
+		long millis = Math.max(1, System.currentTimeMillis() - start);
+		System.out.println("✅ Imported " + statements + " statements (" + executedStatements.get() + " after merging INSERTs) in "
+		        + (millis / 1000.0) + " s over " + threads + " connection(s), " + (statements * 1000 / millis)
+		        + " statements/s");
+		return statements;
+	}
+
+	/**
+	 * Imports a dump made by {@link ParallelDatabaseDumper}, loading its table chunks concurrently
+	 * over as many connections as this importer has threads, and its views last.
+	 *
+	 * @return the number of statements read from the chunks.
+	 */
+	public long importChunks(final ChunkSource source) throws Exception {
+		long start = System.currentTimeMillis();
+
+		Properties manifest = new Properties();
+		try (InputStream in = source.open(ParallelDatabaseDumper.MANIFEST)) {
+			manifest.load(in);
+		}
+		List<String> chunks = new ArrayList<String>();
+		for (String chunk : manifest.getProperty(ParallelDatabaseDumper.KEY_CHUNKS, "").split(",")) {
+			if (!chunk.trim().isEmpty()) {
+				chunks.add(chunk.trim());
+			}
+		}
+
+		String views = manifest.getProperty(ParallelDatabaseDumper.KEY_VIEWS);
+		long size = 0;
+		for (String chunk : chunks) {
+			size += source.size(chunk);
+		}
+		if (views != null && !views.isEmpty()) {
+			size += source.size(views);
+		}
+
+		Thread sampler = startProgress(size);
+		boolean succeeded = false;
+		long statements = 0;
+		try {
+			statements = importChunks(source, chunks, views);
+			succeeded = true;
+		}
+		finally {
+			stopProgress(sampler, succeeded);
+		}
+
+		long millis = Math.max(1, System.currentTimeMillis() - start);
+		System.out.println("✅ Imported " + chunks.size() + " chunks, " + statements + " statements in " + (millis / 1000.0)
+		        + " s over " + threads + " connection(s), " + (statements * 1000 / millis) + " statements/s");
+		return statements;
+	}
+
+	private long importChunks(final ChunkSource source, List<String> chunks, String views) throws Exception {
+		long statements = 0;
+		final AtomicLong threadCount = new AtomicLong();
+		ExecutorService executor = Executors.newFixedThreadPool(threads, runnable -> {
+			Thread thread = new Thread(runnable, "sql-import-chunks-" + threadCount.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+		try {
+			List<Future<Long>> futures = new ArrayList<Future<Long>>();
+			for (final String chunk : chunks) {
+				futures.add(executor.submit(() -> importChunk(source, chunk)));
+			}
+			for (Future<Long> future : futures) {
+				try {
+					statements += future.get();
+				}
+				catch (ExecutionException ex) {
+					throw ex.getCause() instanceof Exception ? (Exception) ex.getCause() : ex;
+				}
+			}
+		}
+		finally {
+			executor.shutdownNow();
+		}
+
+		if (views != null && !views.isEmpty()) {
+			statements += importChunk(source, views);
+		}
+		return statements;
+	}
+
+	private long importChunk(ChunkSource source, String chunk) throws Exception {
+		SqlImporter importer = new SqlImporter(jdbcUrl, user, password);
+		importer.setPacketSize(packetSize);
+		importer.setThreads(1);
+		importer.quiet = true;
+		importer.progress = progress;
+		try (InputStream in = source.open(chunk)) {
+			return importer.importSql(in);
+		}
+		catch (Exception ex) {
+			throw new Exception("Failed to import " + chunk + ": " + ex.getMessage(), ex);
+		}
+	}
+
+	/**
+	 * Resets the progress and, if there is a listener, starts the thread which samples it.
+	 *
+	 * @return the sampling thread, or null.
+	 */
+	private Thread startProgress(long totalBytes) {
+		progress.reset(totalBytes);
+		final ImportProgress.Listener listener = progressListener;
+		if (listener == null) {
+			return null;
+		}
+		Thread sampler = new Thread(() -> {
+			ImportProgress snapshot;
+			do {
+				try {
+					Thread.sleep(PROGRESS_INTERVAL);
+				}
+				catch (InterruptedException ex) {
+					//Woken up because the import is over
+				}
+				snapshot = progress.snapshot();
+				try {
+					listener.onProgress(snapshot);
+				}
+				catch (RuntimeException ex) {
+					ex.printStackTrace();
+				}
+			} while (!snapshot.isFinished());
+		}, "sql-import-progress");
+		sampler.setDaemon(true);
+		sampler.start();
+		return sampler;
+	}
+
+	/**
+	 * Has the sampling thread, if any, publish the final progress and waits for it to end.
+	 */
+	private void stopProgress(Thread sampler, boolean succeeded) throws InterruptedException {
+		progress.failed = !succeeded;
+		progress.done = true;
+		if (sampler != null) {
+			sampler.interrupt();
+			sampler.join();
+		}
+	}
+
+	private Connection openConnection() throws SQLException {
+		Connection connection = DriverManager.getConnection(jdbcUrl, user, password);
+		try (Statement stmt = connection.createStatement()) {
+			stmt.execute("SET SESSION unique_checks = 0, foreign_key_checks = 0");
+		}
+		connection.setAutoCommit(false);
+		return connection;
+	}
+
+	private void dispatch(String sql) throws Exception {
+		Matcher insert = INSERT.matcher(sql);
+		int rows = insert.lookingAt() ? countRows(sql, insert.end()) : 0;
+		if (rows > 0) {
+			progress.rows.addAndGet(rows);
+			String prefix = insert.group(1);
+			if (batch != null && prefix.equals(batchPrefix)
+			        && batch.length() + 1 + sql.length() - insert.end() <= packetSize) {
+				batch.append(',').append(sql, insert.end(), sql.length());
+				return;
+			}
+			flushBatch();
+			batchPrefix = prefix;
+			batchWorker = getWorker(insert.group(2));
+			progress.currentTable = unquote(insert.group(2));
+			batch = new StringBuilder(Math.min(packetSize, sql.length() * 16));
+			batch.append(prefix).append(' ').append(sql, insert.end(), sql.length());
+			return;
+		}
+
+		flushBatch();
+
+		if (SKIPPED_STATEMENT.matcher(sql).lookingAt()) {
+			return;
+		}
+
+		Matcher table = TABLE_STATEMENT.matcher(sql);
+		if (table.lookingAt()) {
+			progress.currentTable = unquote(table.group(1));
+			getWorker(table.group(1)).submit(sql);
+		} else if (SESSION_STATEMENT.matcher(sql).lookingAt()) {
+			for (Worker worker : workers) {
+				worker.submit(sql);
+			}
+		} else {
+			awaitWorkers();
+			workers.get(0).submit(sql);
+			awaitWorkers();
+		}
+	}
+
+	private void flushBatch() throws InterruptedException {
+		if (batch != null) {
+			batchWorker.submit(batch.toString());
+			batch = null;
+			batchPrefix = null;
+		}
+	}
+
+	private Worker getWorker(String table) {
+		String name = unquote(table);
+		Worker worker = tableWorkers.get(name);
+		if (worker == null) {
+			worker = workers.get(tableWorkers.size() % workers.size());
+			tableWorkers.put(name, worker);
+		}
+		return worker;
+	}
+
+	/**
+	 * Waits for all connections to run and commit what was submitted to them.
+	 */
+	private void awaitWorkers() throws InterruptedException {
+		CountDownLatch latch = new CountDownLatch(workers.size());
+		for (Worker worker : workers) {
+			worker.submit(latch);
+		}
+		latch.await();
+	}
+
+	private void checkFailure() throws Exception {
+		Exception ex = failure.get();
+		if (ex != null) {
+			throw ex;
+		}
+	}
+
+	private static String unquote(String table) {
+		return table.startsWith("`") ? table.substring(1, table.length() - 1) : table;
+	}
+
+	/**
+	 * @return the number of rows if the text from the given index on is nothing but a list of
+	 *         parenthesized rows, so that more rows can be appended to it, else 0.
+	 */
+	private static int countRows(String sql, int from) {
+		int depth = 0;
+		int rows = 0;
+		boolean expectRow = true;
+		for (int i = from; i < sql.length(); i++) {
+			char ch = sql.charAt(i);
+			if (depth == 0) {
+				if (Character.isWhitespace(ch)) {
+					continue;
+				}
+				if (expectRow && ch == '(') {
+					depth = 1;
+					rows++;
+					expectRow = false;
+				} else if (!expectRow && ch == ',') {
+					expectRow = true;
+				} else {
+					return 0;
+				}
+			} else if (ch == '\'' || ch == '"' || ch == '`') {
+				i = skipQuoted(sql, i);
+			} else if (ch == '(') {
+				depth++;
+			} else if (ch == ')') {
+				depth--;
+			}
+		}
+		return depth == 0 && !expectRow ? rows : 0;
+	}
+
+	private static int skipQuoted(String sql, int start) {
+		char quote = sql.charAt(start);
+		for (int i = start + 1; i < sql.length(); i++) {
+			char ch = sql.charAt(i);
+			if (ch == '\\' && quote != '`') {
+				i++;
+			} else if (ch == quote) {
+				if (i + 1 < sql.length() && sql.charAt(i + 1) == quote) {
+					i++;
+				} else {
+					return i;
+				}
+			}
+		}
+		return sql.length();
+	}
+
+	private static String abbreviate(String sql) {
+		return sql.length() > 200 ? sql.substring(0, 200) + "..." : sql;
+	}
+
+	/**
+	 * Where the manifest and chunks of a parallel dump are read from.
+	 */
+	public interface ChunkSource {
+
+		InputStream open(String name) throws IOException;
+
+		/**
+		 * @return the number of bytes in the given chunk, or 0 if it is not known.
+		 */
+		default long size(String name) {
+			return 0;
+		}
+
+		/**
+		 * @return the chunks in the given directory.
+		 */
+		static ChunkSource fromDirectory(final File dir) {
+			return new ChunkSource() {
+
+				@Override
+				public InputStream open(String name) throws IOException {
+					return new BufferedInputStream(new FileInputStream(new File(dir, name)));
+				}
+
+				@Override
+				public long size(String name) {
+					return new File(dir, name).length();
+				}
+			};
+		}
+
+		/**
+		 * @return the chunks in the given zip file, under the given folder. Chunks can be read
+		 *         concurrently.
+		 */
+		static ChunkSource fromZip(final ZipFile zip, final String folder) {
+			return new ChunkSource() {
+
+				@Override
+				public InputStream open(String name) throws IOException {
+					ZipEntry entry = zip.getEntry(folder + name);
+					if (entry == null) {
+						throw new FileNotFoundException(zip.getName() + "!/" + folder + name);
+					}
+					return zip.getInputStream(entry);
+				}
+
+				@Override
+				public long size(String name) {
+					ZipEntry entry = zip.getEntry(folder + name);
+					return entry != null ? Math.max(0, entry.getSize()) : 0;
+				}
+			};
+		}
+	}
+
+	/**
+	 * The counters behind {@link ImportProgress}, updated by the reading threads without ever
+	 * waiting on the listener.
+	 */
+	private static class Progress {
+
+		final AtomicLong bytesRead = new AtomicLong();
+
+		final AtomicLong statements = new AtomicLong();
+
+		final AtomicLong rows = new AtomicLong();
+
+		volatile String currentTable;
+
+		volatile boolean done;
+
+		volatile boolean failed;
+
+		private long totalBytes;
+
+		private long start;
+
+		void reset(long totalBytes) {
+			this.totalBytes = totalBytes > 0 ? totalBytes : -1;
+			this.start = System.currentTimeMillis();
+			bytesRead.set(0);
+			statements.set(0);
+			rows.set(0);
+			currentTable = null;
+			done = false;
+			failed = false;
+		}
+
+		ImportProgress snapshot() {
+			return new ImportProgress(bytesRead.get(), totalBytes, statements.get(), rows.get(),
+			        System.currentTimeMillis() - start, currentTable, done, failed);
+		}
+	}
+
+	/**
+	 * Counts the bytes read from the dump, before they are decompressed.
+	 */
+	private class CountingInputStream extends FilterInputStream {
+
+		CountingInputStream(InputStream in) {
+			super(in);
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = super.read();
+			if (b != -1) {
+				progress.bytesRead.incrementAndGet();
+			}
+			return b;
+		}
+
+		@Override
+		public int read(byte[] bytes, int offset, int length) throws IOException {
+			int count = super.read(bytes, offset, length);
+			if (count > 0) {
+				progress.bytesRead.addAndGet(count);
+			}
+			return count;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			long skipped = super.skip(n);
+			progress.bytesRead.addAndGet(skipped);
+			return skipped;
+		}
+	}
+
+	/**
+	 * Runs statements over its own connection, in the order they were submitted.
+	 */
+	private class Worker extends Thread {
+
+		private final BlockingQueue<Object> queue = new ArrayBlockingQueue<Object>(QUEUE_CAPACITY);
+
+		private final Connection connection;
+
+		private final Statement stmt;
+
+		private long uncommitted;
+
+		Worker(int number, Connection connection) throws SQLException {
+			super("sql-import-" + number);
+			setDaemon(true);
+			this.connection = connection;
+			this.stmt = connection.createStatement();
+		}
+
+		void submit(Object item) throws InterruptedException {
+			queue.put(item);
+		}
+
+		/**
+		 * Stops the worker once it has run what is queued, unless a statement has failed, and closes
+		 * its connection.
+		 */
+		void finish() throws InterruptedException {
+			if (failure.get() != null) {
+				queue.clear();
+			}
+			queue.put(END);
+			join();
+		}
+
+		@Override
+		public void run() {
+			try {
+				while (true) {
+					Object item = queue.take();
+					if (item == END) {
+						commit();
+						break;
+					}
+					try {
+						if (item instanceof CountDownLatch) {
+							commit();
+						} else if (failure.get() == null) {
+							execute((String) item);
+						}
+					}
+					catch (Exception ex) {
+						failure.compareAndSet(null, ex);
+					}
+					finally {
+						if (item instanceof CountDownLatch) {
+							((CountDownLatch) item).countDown();
+						}
+					}
+				}
+			}
+			catch (Exception ex) {
+				failure.compareAndSet(null, ex);
+			}
+			finally {
+				try {
+					connection.close();
+				}
+				catch (SQLException ex) {
+					//Nothing more we can do
+				}
+			}
+		}
+
+		private void execute(String sql) {
+			try {
+				stmt.execute(sql);
+				executedStatements.incrementAndGet();
+				uncommitted += sql.length();
+				if (uncommitted >= packetSize) {
+					commit();
+				}
+			}
+			catch (SQLException ex) {
+				failure.compareAndSet(null, new SQLException("Failed to execute " + abbreviate(sql) + ": " + ex.getMessage(),
+				        ex.getSQLState(), ex.getErrorCode(), ex));
+			}
+		}
+
+		private void commit() throws SQLException {
+			if (failure.get() == null && uncommitted > 0) {
+				connection.commit();
+			}
+			uncommitted = 0;
+		}
+	}
+}
@@ -0,0 +1,258 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.standalone;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Splits a SQL script, as written by mariadb-dump, into statements. Quoted strings and
+ * identifiers (with backslash escapes), comments and the DELIMITER command are handled like the
+ * mariadb command line client does. Plain comments are dropped, while executable comments such as
+ * <code>/*!40101 SET NAMES utf8 *&#47;</code> are kept for the server to interpret.
+ */
+public class SqlStatementReader implements Closeable {
+
+	private static final String DEFAULT_DELIMITER = ";";
+
+	private static final String DELIMITER_COMMAND = "DELIMITER";
+
+	/** The version of the sandbox mode marker, which is only meant for the command line client. */
+	private static final String SANDBOX_VERSION = "999999";
+
+	private final Reader reader;
+
+	private final char[] buffer = new char[64 * 1024];
+
+	private int position;
+
+	private int limit;
+
+	private String delimiter = DEFAULT_DELIMITER;
+
+	private final StringBuilder statement = new StringBuilder();
+
+	/** Whether anything other than white space has been added to the current statement. */
+	private boolean started;
+
+	public SqlStatementReader(Reader reader) {
+		this.reader = reader;
+	}
+
+	/**
+	 * @return the next statement, trimmed and without its delimiter, or null at the end of the
+	 *         script.
+	 * @throws IOException
+	 */
+	public String next() throws IOException {
+		statement.setLength(0);
+		started = false;
+
+		while (true) {
+			int c = read();
+			if (c == -1) {
+				//A last statement without a delimiter is still a statement
+				return started ? statement.toString().trim() : null;
+			}
+
+			char ch = (char) c;
+			if (ch == '\'' || ch == '"' || ch == '`') {
+				append(ch);
+				readQuoted(ch);
+			} else if (ch == '-' && peek(0) == '-' && isWhitespaceOrEnd(peek(1))) {
+				skipLine();
+				append('\n');
+			} else if (ch == '#') {
+				skipLine();
+				append('\n');
+			} else if (ch == '/' && peek(0) == '*') {
+				if (isExecutableComment()) {
+					//The comment body is parsed as regular text, including its closing */
+					append(ch);
+				} else {
+					skipBlockComment();
+					append(' ');
+				}
+			} else if (!started && (ch == 'D' || ch == 'd') && isDelimiterCommand()) {
+				delimiter = readLine().substring(DELIMITER_COMMAND.length() - 1).trim();
+				if (delimiter.isEmpty()) {
+					delimiter = DEFAULT_DELIMITER;
+				}
+				statement.setLength(0);
+			} else {
+				append(ch);
+				if (started && endsWithDelimiter()) {
+					statement.setLength(statement.length() - delimiter.length());
+					String sql = statement.toString().trim();
+					if (!sql.isEmpty()) {
+						return sql;
+					}
+					statement.setLength(0);
+					started = false;
+				}
+			}
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		reader.close();
+	}
+
+	private void append(char ch) {
+		statement.append(ch);
+		if (!started && !Character.isWhitespace(ch)) {
+			started = true;
+		}
+	}
+
+	private void readQuoted(char quote) throws IOException {
+		int c;
+		while ((c = read()) != -1) {
+			statement.append((char) c);
+			if (c == '\\' && quote != '`') {
+				c = read();
+				if (c == -1) {
+					return;
+				}
+				statement.append((char) c);
+			} else if (c == quote) {
+				if (peek(0) != quote) {
+					return;
+				}
+				//A doubled quote stands for itself
+				statement.append((char) read());
+			}
+		}
+	}
+
+	/**
+	 * Called with the opening slash consumed and the asterisk next.
+	 */
+	private boolean isExecutableComment() throws IOException {
+		int offset = 1;
+		if (peek(offset) == 'M') {
+			offset++;
+		}
+		if (peek(offset) != '!') {
+			return false;
+		}
+		offset++;
+
+		StringBuilder version = new StringBuilder();
+		int c;
+		while ((c = peek(offset)) >= '0' && c <= '9') {
+			version.append((char) c);
+			offset++;
+		}
+		return !SANDBOX_VERSION.equals(version.toString());
+	}
+
+	private void skipBlockComment() throws IOException {
+		read(); //the asterisk
+		int c;
+		while ((c = read()) != -1) {
+			if (c == '*' && peek(0) == '/') {
+				read();
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Called with the first letter consumed.
+	 */
+	private boolean isDelimiterCommand() throws IOException {
+		for (int i = 1; i < DELIMITER_COMMAND.length(); i++) {
+			int c = peek(i - 1);
+			if (c == -1 || Character.toUpperCase((char) c) != DELIMITER_COMMAND.charAt(i)) {
+				return false;
+			}
+		}
+		int c = peek(DELIMITER_COMMAND.length() - 1);
+		return c == ' ' || c == '\t';
+	}
+
+	private boolean endsWithDelimiter() {
+		int length = statement.length();
+		int delimiterLength = delimiter.length();
+		if (length < delimiterLength) {
+			return false;
+		}
+		for (int i = 0; i < delimiterLength; i++) {
+			if (statement.charAt(length - delimiterLength + i) != delimiter.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private void skipLine() throws IOException {
+		int c;
+		while ((c = read()) != -1 && c != '\n') {
+			//skip
+		}
+	}
+
+	private String readLine() throws IOException {
+		StringBuilder line = new StringBuilder();
+		int c;
+		while ((c = read()) != -1 && c != '\n') {
+			if (c != '\r') {
+				line.append((char) c);
+			}
+		}
+		return line.toString();
+	}
+
+	private static boolean isWhitespaceOrEnd(int c) {
+		return c == -1 || Character.isWhitespace((char) c);
+	}
+
+	private int read() throws IOException {
+		if (position >= limit && !fill(1)) {
+			return -1;
+		}
+		return buffer[position++];
+	}
+
+	private int peek(int offset) throws IOException {
+		if (position + offset >= limit && !fill(offset + 1)) {
+			return -1;
+		}
+		return buffer[position + offset];
+	}
+
+	/**
+	 * Makes sure that at least the given number of characters are buffered after the current
+	 * position.
+	 *
+	 * @return false if the end of the script comes first.
+	 */
+	private boolean fill(int needed) throws IOException {
+		int remaining = limit - position;
+		System.arraycopy(buffer, position, buffer, 0, remaining);
+		position = 0;
+		limit = remaining;
+		while (limit < needed) {
+			int count = reader.read(buffer, limit, buffer.length - limit);
+			if (count == -1) {
+				return false;
+			}
+			limit += count;
+		}
+		return true;
+	}
+}
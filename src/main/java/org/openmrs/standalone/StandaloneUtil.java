@@ -15,9 +15,6 @@ package org.openmrs.standalone;
 
 import java.awt.Desktop;
 import java.io.*;
-import java.net.DatagramSocket;
-import java.net.ServerSocket;
-import java.net.Socket;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.sql.Connection;
@@ -33,6 +30,7 @@ import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import ch.vorburger.exec.ManagedProcessException;
+import org.apache.commons.io.FileUtils;
 
 import static org.openmrs.standalone.OpenmrsUtil.importSqlFile;
 
@@ -51,62 +49,23 @@ public class StandaloneUtil {
 	 */
 	public static final int MAX_PORT_NUMBER = 49151;
 	private static final String ROOT_USER = "root";
+	
+	/** The maximum size of the INSERT statements the SQL importer merges rows into. */
+	public static final String KEY_IMPORT_PACKET_SIZE = "import.packet_size";
+	
+	/** The number of connections the SQL importer loads tables over. */
+	public static final String KEY_IMPORT_THREADS = "import.threads";
+	
+	/** If false, MariaDB keeps its full durability while the SQL dump is imported. */
+	public static final String KEY_IMPORT_BULK_LOAD = "import.bulk_load";
+	
+	/** If true, the SQL dump is unzipped to db/data before being imported, instead of streamed. */
+	public static final String KEY_STAGE_SQL = "debug.stage_sql";
 
 	private static String CONTEXT_NAME;
 
 	static Properties properties = OpenmrsUtil.getRuntimeProperties(StandaloneUtil.getContextName());
 	
-	/**
-	 * Checks to see if a specific port is available.
-	 * 
-	 * @param port the port to check for availability
-	 */
-	public static boolean isPortAvailable(int port) {
-		
-		if ((port < MIN_PORT_NUMBER) || (port > MAX_PORT_NUMBER))
-			return false;
-		
-		ServerSocket ss = null;
-		DatagramSocket ds = null;
-		try {
-			ss = new ServerSocket(port);
-			ss.setReuseAddress(true);
-			ds = new DatagramSocket(port);
-			ds.setReuseAddress(true);
-			
-			try {
-				closeConnections(ss, ds);
-				
-				//Checking if port is open by trying to connect as a client;
-		        Socket socket = new Socket("127.0.0.1", port);          
-		        socket.close();
-		        return false; //Someone responding on port - so not available;
-		    } catch (Exception e) {    
-		        //Connection refused, so port must be available
-		    }
-
-			return true;
-		}
-		catch (IOException e) {}
-		finally {
-			closeConnections(ss, ds);
-		}
-		
-		return false;
-	}
-	
-	private static void closeConnections(ServerSocket ss, DatagramSocket ds) {
-		if (ds != null)
-			ds.close();
-		
-		if (ss != null) {
-			try {
-				ss.close();
-			}
-			catch (IOException e) {}
-		}
-	}
-
 	private static String generateSecurePassword() {
 		// intentionally left out these characters: ufsb$() to prevent certain words forming randomly
 		String chars = "acdeghijklmnopqrtvwxyzACDEGHIJKLMNOPQRTVWXYZ0123456789.|~@^&";
@@ -220,33 +179,12 @@ public class StandaloneUtil {
 	}
 	
 	/**
-     * Auto generated method comment
+     * Replaces the runtime properties file with the given properties.
      * 
      * @param properties
      */
     private static void writeRuntimeProperties(Properties properties) {
-    	//I just do not like the extra characters that the store() method puts in the properties file.
-		//properties.store(output, null);
-    	OutputStreamWriter output = null;
-    	try {
-    		output = new OutputStreamWriter(new FileOutputStream(OpenmrsUtil.getRuntimePropertiesPathName()), "UTF-8");
-
-    		Writer out = new BufferedWriter(output);
-    		out.write("\n#Last updated by the OpenMRS Standalone application.\n");
-    		out.write("#" + new Date() + "\n");
-    		for (Map.Entry<Object, Object> e : properties.entrySet()) {
-    			out.write(e.getKey() + "=" + e.getValue() + "\n");
-    		}
-    		out.write("\n");
-    		out.flush();
-    		out.close();
-    	} catch (IOException ex) {
-    		throw new RuntimeException("Error writing runtime properties file", ex);
-    	} finally {
-    		try {
-    			output.close();
-    		} catch (Exception ex) { }
-    	}
+    	RuntimeConfig.store(new File(OpenmrsUtil.getRuntimePropertiesPathName()), properties, getContextName());
     }
 
 	/**
@@ -315,10 +253,15 @@ public class StandaloneUtil {
 	}
 
 	private static boolean setMysqlPassword(String url, String mysqlPort, String username, String newPassword) throws Exception {
+		boolean startedHere = false;
 		try {
 			Class.forName("org.mariadb.jdbc.Driver").getDeclaredConstructor().newInstance();
 
-			MariaDbController.startMariaDB(mysqlPort, properties.getProperty("connection.password", ""));
+			//Reuse the provisioning session if there is one, instead of paying for another cold start.
+			startedHere = !MariaDbController.isRunning();
+			if (startedHere) {
+				MariaDbController.startMariaDB(mysqlPort, properties.getProperty("connection.password", ""));
+			}
 
 			String sqlCreate = "CREATE USER IF NOT EXISTS '" + username + "'@'localhost' IDENTIFIED BY '" + newPassword + "';";
 			String sqlAlter = "ALTER USER '" + username + "'@'localhost' IDENTIFIED BY '" + newPassword + "';";
@@ -345,11 +288,13 @@ public class StandaloneUtil {
 			return false;
 
 		} finally {
-			try {
-				MariaDbController.stopMariaDB();
-			} catch (ManagedProcessException e) {
-				System.out.println("Failed to stop MariaDB: " + e.getMessage());
-				e.printStackTrace();
+			if (startedHere) {
+				try {
+					MariaDbController.stopMariaDB();
+				} catch (ManagedProcessException e) {
+					System.out.println("Failed to stop MariaDB: " + e.getMessage());
+					e.printStackTrace();
+				}
 			}
 		}
 	}
@@ -417,6 +362,35 @@ public class StandaloneUtil {
 	 * @throws Exception 
 	 */
 	public static void startupDatabaseToCreateDefaultUser(String mariaDBPort) throws Exception {
+		startupDatabaseToCreateDefaultUser(mariaDBPort, false);
+	}
+	
+	/**
+	 * Starts MariaDB so that it can create the default user, and imports the unzipped database if
+	 * any.
+	 * 
+	 * @param mariaDBPort the MariaDB port number.
+	 * @param keepRunning if true, MariaDB is left running after a successful import such that the
+	 *            password reset and the server can use the same session instead of each paying for a
+	 *            cold start of mysqld.
+	 * @throws Exception
+	 */
+	public static void startupDatabaseToCreateDefaultUser(String mariaDBPort, boolean keepRunning) throws Exception {
+		startupDatabaseToCreateDefaultUser(mariaDBPort, keepRunning, null, null);
+	}
+	
+	/**
+	 * Starts MariaDB so that it can create the default user, and imports the database if any.
+	 * 
+	 * @param mariaDBPort the MariaDB port number.
+	 * @param keepRunning if true, MariaDB is left running after a successful import.
+	 * @param databaseZip if not null, the zip file to stream the SQL dump from when it was not
+	 *            unzipped to db/data.
+	 * @param progressListener to be told how far the import has got, or null.
+	 * @throws Exception
+	 */
+	public static void startupDatabaseToCreateDefaultUser(String mariaDBPort, boolean keepRunning, File databaseZip,
+	        ImportProgress.Listener progressListener) throws Exception {
 		try {
 			Class.forName("org.mariadb.jdbc.Driver");
 		} catch (ClassNotFoundException ex) {
@@ -428,10 +402,33 @@ public class StandaloneUtil {
 		String password = props.getProperty("connection.password");
 		String username = props.getProperty("connection.username");
 
+		String dumpHash = databaseZip != null ? DatabaseMarker.hashDump(databaseZip) : null;
+
+		// Find sql if exist to preload DB
+		File dataDir = new File("db/data");
+		File chunkDir = new File(dataDir, "dump");
+		File[] sqlFiles = dataDir.listFiles((dir, name) -> OpenmrsUtil.isSqlFile(name));
+		boolean hasChunks = new File(chunkDir, ParallelDatabaseDumper.MANIFEST).exists();
+		boolean hasSqlFile = sqlFiles != null && sqlFiles.length != 0;
+
+		// Start MariaDB right away in its bulk load mode if there is a dump to import, unless the
+		// data directory is the pristine one of the dump
+		String bulkLoadDump = null;
+		if ((hasChunks || hasSqlFile || databaseZip != null) && isBulkLoadEnabled()
+		        && (dumpHash == null || !DatabaseMarker.matches(MariaDbController.getDataDir(), dumpHash, null))) {
+			bulkLoadDump = databaseZip != null ? databaseZip.getName() : (hasChunks ? chunkDir : sqlFiles[0]).getName();
+		}
+
 		System.out.println("Starting MariaDB on port " + mariaDBPort + "...");
-		MariaDbController.startMariaDB(mariaDBPort, password);
+		boolean snapshotInUse;
+		try (StartupTimeline.Phase phase = StartupTimeline.start("start-on-database-snapshot")) {
+			snapshotInUse = startOnDatabaseSnapshot(mariaDBPort, password, bulkLoadDump);
+		}
+		boolean bulkLoading = MariaDbController.isBulkLoading();
 
 		System.out.println("Attempting to connect to the database: " + url);
+		boolean succeeded = false;
+		boolean loaded = false;
 		try (Connection conn = DriverManager.getConnection(url, ROOT_USER, MariaDbController.getRootPassword());
 			 Statement stmt = conn.createStatement()) {
 
@@ -440,28 +437,151 @@ public class StandaloneUtil {
 
 				System.out.println("✅ Connection to MariaDB successful.");
 
-				// Find sql if exist to preload DB
-				File dataDir = new File("db/data");
-
-				if (dataDir.exists() && dataDir.isDirectory()) {
-					// Find the first .sql file in the unzipped folder
-					File[] sqlFiles = dataDir.listFiles((dir, name) -> name.toLowerCase().endsWith(".sql"));
-					if (sqlFiles != null && sqlFiles.length != 0) {
-						// Run the first found SQL file
-						File sqlFile = sqlFiles[0];
-						importSqlFile(sqlFile, url, username, password);
+				int packetSize = fromStringToInt(props.getProperty(KEY_IMPORT_PACKET_SIZE));
+				int threads = fromStringToInt(props.getProperty(KEY_IMPORT_THREADS));
+
+				try (StartupTimeline.Phase phase = StartupTimeline.start("import-database")) {
+					if (dumpHash != null
+					        && DatabaseMarker.matches(MariaDbController.getDataDir(), dumpHash, MariaDbController.getServerVersion())) {
+						System.out.println("✅ The database is the pristine one of " + databaseZip.getName()
+						        + ", no need to import the SQL dump.");
+					} else if (snapshotInUse) {
+						System.out.println("✅ Using the prebuilt database snapshot, no need to import the SQL dump.");
+						loaded = true;
+					} else if (hasChunks) {
+						// The chunks of a parallel dump, which are only unzipped when staging is asked for
+						loaded = importSqlFile(chunkDir, url, username, password, packetSize, threads, progressListener);
+					} else if (hasSqlFile) {
+						// Run the first found SQL file, which is only unzipped when staging is asked for
+						loaded = importSqlFile(sqlFiles[0], url, username, password, packetSize, threads, progressListener);
+					} else if (databaseZip != null) {
+						loaded = OpenmrsUtil.importSqlFromZip(databaseZip, url, username, password, packetSize, threads,
+						    progressListener);
 					}
 				}
+				
+				if (loaded && dumpHash != null) {
+					DatabaseMarker.write(MariaDbController.getDataDir(), dumpHash, MariaDbController.getServerVersion());
+				}
 			} else {
 				System.err.println("❌ Connection established, but it is not valid.");
 			}
+			succeeded = true;
 
 		} finally {
-			System.out.println("Stopping MariaDB...");
+			if (bulkLoading) {
+				// MariaDB is started again below in its durable mode if it is to keep running
+				System.out.println("Stopping MariaDB to leave the bulk load mode...");
+				MariaDbController.endBulkLoad(loaded);
+			} else if (keepRunning && succeeded) {
+				System.out.println("Keeping MariaDB running for the rest of the startup");
+			} else {
+				System.out.println("Stopping MariaDB...");
+				MariaDbController.stopMariaDB();
+			}
+		}
+		
+		// The prebuilt snapshot is as quick to restore from the zip file as a pristine copy would be
+		if (loaded && dumpHash != null && !snapshotInUse) {
+			try (StartupTimeline.Phase phase = StartupTimeline.start("save-pristine-database")) {
+				savePristineDatabase(databaseZip, mariaDBPort, password);
+			}
+		}
+		
+		if (bulkLoading && keepRunning && succeeded) {
+			try (StartupTimeline.Phase phase = StartupTimeline.start("mariadb-restart-durable")) {
+				MariaDbController.startMariaDB(mariaDBPort, password);
+			}
+		}
+	}
+	
+	/**
+	 * @return false if the import.bulk_load runtime property is false, to keep MariaDB durable while
+	 *         the SQL dump is imported.
+	 */
+	public static boolean isBulkLoadEnabled() {
+		Properties properties = OpenmrsUtil.getRuntimeProperties(getContextName());
+		return properties == null || !"false".equalsIgnoreCase(properties.getProperty(KEY_IMPORT_BULK_LOAD));
+	}
+	
+	/**
+	 * Keeps a copy of the freshly imported data directory, such that resetting to the same database
+	 * later on only has to copy it back. MariaDB has to be stopped for the copy to be consistent,
+	 * and is started again if it was running. Failing to save the copy only costs a full import on
+	 * the next reset, so it is not treated as an error.
+	 */
+	private static void savePristineDatabase(File databaseZip, String mariaDBPort, String password) throws Exception {
+		boolean running = MariaDbController.isRunning();
+		if (running) {
 			MariaDbController.stopMariaDB();
 		}
+		try {
+			DatabaseMarker.savePristine(MariaDbController.getDataDir(), databaseZip);
+		}
+		catch (IOException ex) {
+			System.out.println("Failed to save the pristine database: " + ex.getMessage());
+		}
+		if (running) {
+			MariaDbController.startMariaDB(mariaDBPort, password);
+		}
 	}
 
+	/**
+	 * Starts MariaDB on top of the prebuilt data directory snapshot, if one came with the unzipped
+	 * database. The snapshot is only used when it was made by the same MariaDB release series as the
+	 * one we are running. Otherwise, or if MariaDB fails to start on it, the data directory is wiped
+	 * and MariaDB is started on a fresh one, for the caller to import the SQL dump instead.
+	 * 
+	 * @param mariaDBPort the MariaDB port number.
+	 * @param password the password of the openmrs user.
+	 * @param bulkLoadDump the name of the dump to import if the snapshot cannot be used, to start
+	 *            MariaDB in its bulk load mode then, or null to start it in its durable mode.
+	 * @return true if MariaDB is running on the snapshot.
+	 * @throws Exception
+	 */
+	private static boolean startOnDatabaseSnapshot(String mariaDBPort, String password, String bulkLoadDump)
+	        throws Exception {
+		File snapshotProperties = new File("db/data", DatabaseSnapshot.SNAPSHOT_PROPERTIES);
+		if (!snapshotProperties.exists()) {
+			startForImport(mariaDBPort, password, bulkLoadDump);
+			return false;
+		}
+		
+		try {
+			String snapshotVersion = DatabaseSnapshot.readServerVersion(snapshotProperties);
+			MariaDbController.startMariaDB(mariaDBPort, password);
+			String serverVersion = MariaDbController.getServerVersion();
+			if (DatabaseSnapshot.isCompatible(snapshotVersion, serverVersion)) {
+				return true;
+			}
+			System.out.println("The database snapshot was made by MariaDB " + snapshotVersion + " but this is "
+			        + serverVersion + ", falling back to the SQL dump");
+		}
+		catch (Exception ex) {
+			System.out.println("Failed to start MariaDB on the database snapshot, falling back to the SQL dump: "
+			        + ex.getMessage());
+		}
+		
+		try {
+			MariaDbController.stopMariaDB();
+		}
+		catch (Exception ex) {
+			System.out.println("Failed to stop MariaDB: " + ex.getMessage());
+		}
+		FileUtils.deleteDirectory(MariaDbController.getDataDir());
+		
+		startForImport(mariaDBPort, password, bulkLoadDump);
+		return false;
+	}
+	
+	private static void startForImport(String mariaDBPort, String password, String bulkLoadDump) throws Exception {
+		if (bulkLoadDump != null) {
+			MariaDbController.startMariaDBForBulkLoad(fromStringToInt(mariaDBPort), password, bulkLoadDump);
+		} else {
+			MariaDbController.startMariaDB(mariaDBPort, password);
+		}
+	}
+	
 	/**
 	 * Sets the MySQL and Tomcat ports in the run time properties file.
 	 * 
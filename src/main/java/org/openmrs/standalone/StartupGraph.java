@@ -0,0 +1,180 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.standalone;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs startup work as a graph of named phases with declared dependencies. A phase is started as
+ * soon as all the phases it depends on have finished, so independent work (for example unzipping
+ * the database and unpacking the MariaDB binaries) runs in parallel instead of one step at a time.
+ * Each phase reports how long it took, and is recorded in the {@link StartupTimeline}.
+ */
+public class StartupGraph {
+
+	/**
+	 * A unit of startup work.
+	 */
+	public interface Phase {
+
+		void run() throws Exception;
+	}
+
+	private static class Node {
+
+		final String name;
+
+		final Phase phase;
+
+		final String[] dependsOn;
+
+		volatile long durationMillis = -1;
+
+		Node(String name, Phase phase, String[] dependsOn) {
+			this.name = name;
+			this.phase = phase;
+			this.dependsOn = dependsOn;
+		}
+	}
+
+	/** The name of the graph, used when reporting. */
+	private final String name;
+
+	/** The phases in the order they were added, which is also a valid execution order. */
+	private final Map<String, Node> nodes = new LinkedHashMap<String, Node>();
+
+	/** The failures of the last run, in the order they happened. */
+	private final List<Throwable> failures = Collections.synchronizedList(new ArrayList<Throwable>());
+
+	public StartupGraph(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * Adds a phase to the graph. Dependencies must have been added before the phases depending on
+	 * them, which also rules out cycles.
+	 *
+	 * @param phaseName the unique name of the phase.
+	 * @param phase the work to do.
+	 * @param dependsOn the names of the phases which have to finish before this one starts.
+	 * @return this graph, for chaining.
+	 */
+	public StartupGraph add(String phaseName, Phase phase, String... dependsOn) {
+		if (nodes.containsKey(phaseName)) {
+			throw new IllegalArgumentException("Duplicate startup phase: " + phaseName);
+		}
+		for (String dependency : dependsOn) {
+			if (!nodes.containsKey(dependency)) {
+				throw new IllegalArgumentException("Startup phase " + phaseName + " depends on unknown phase " + dependency);
+			}
+		}
+		nodes.put(phaseName, new Node(phaseName, phase, dependsOn));
+		return this;
+	}
+
+	/**
+	 * Runs all phases, waiting for every one of them to finish. Phases which depend on a failed
+	 * phase are not run.
+	 *
+	 * @throws Exception the first failure of any phase.
+	 */
+	public void run() throws Exception {
+		failures.clear();
+		long start = System.currentTimeMillis();
+		StartupTimeline.Phase graphPhase = StartupTimeline.start(name);
+
+		final AtomicInteger threadCount = new AtomicInteger();
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, nodes.size()), runnable -> {
+			Thread thread = new Thread(runnable, "startup-" + name + "-" + threadCount.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+
+		try {
+			Map<String, CompletableFuture<Void>> futures = new LinkedHashMap<String, CompletableFuture<Void>>();
+			for (final Node node : nodes.values()) {
+				CompletableFuture<?>[] dependencies = new CompletableFuture<?>[node.dependsOn.length];
+				for (int i = 0; i < dependencies.length; i++) {
+					dependencies[i] = futures.get(node.dependsOn[i]);
+				}
+				futures.put(node.name, CompletableFuture.allOf(dependencies).thenRunAsync(() -> execute(node), executor));
+			}
+
+			try {
+				CompletableFuture.allOf(futures.values().toArray(new CompletableFuture<?>[0])).join();
+			}
+			catch (CompletionException ex) {
+				//Reported below using the first failure, rather than whichever one join() picked.
+			}
+		}
+		finally {
+			executor.shutdown();
+			graphPhase.close();
+			System.out.println("Startup phases '" + name + "' finished in " + (System.currentTimeMillis() - start) + " ms");
+		}
+
+		if (!failures.isEmpty()) {
+			Throwable failure = failures.get(0);
+			if (failure instanceof Exception) {
+				throw (Exception) failure;
+			}
+			throw new RuntimeException(failure);
+		}
+	}
+
+	private void execute(Node node) {
+		StartupTimeline.Phase phase = StartupTimeline.start(node.name, name);
+		Thread thread = Thread.currentThread();
+		String threadName = thread.getName();
+		thread.setName(threadName + " [" + node.name + "]");
+		long start = System.currentTimeMillis();
+		try {
+			node.phase.run();
+		}
+		catch (Throwable ex) {
+			failures.add(ex);
+			System.out.println("Startup phase '" + node.name + "' failed: " + ex.getMessage());
+			throw new CompletionException(ex);
+		}
+		finally {
+			node.durationMillis = System.currentTimeMillis() - start;
+			phase.close();
+			thread.setName(threadName);
+		}
+		System.out.println("Startup phase '" + node.name + "' took " + node.durationMillis + " ms");
+	}
+
+	/**
+	 * @return the duration in milliseconds of each phase of the last run, in the order the phases
+	 *         were added. Phases which did not run are left out.
+	 */
+	public Map<String, Long> getDurations() {
+		Map<String, Long> durations = new LinkedHashMap<String, Long>();
+		for (Node node : nodes.values()) {
+			if (node.durationMillis >= 0) {
+				durations.put(node.name, node.durationMillis);
+			}
+		}
+		return durations;
+	}
+}
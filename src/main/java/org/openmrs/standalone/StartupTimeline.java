@@ -0,0 +1,294 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.standalone;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Records when each phase of the startup began, how long it took and how much CPU the process used
+ * meanwhile, across threads, and writes the whole timeline as a JSON report to tomcat/logs once the
+ * server is up. A phase started while another one is open on the same thread is recorded as its
+ * sub-phase, unless its parent is given.
+ * <p>
+ * The launcher runs in a JVM of its own, see {@link Bootstrap}, which passes the time its own JVM
+ * started at in the {@link #LAUNCHED_PROPERTY} system property so that the time spent starting
+ * the second JVM shows up as well.
+ */
+public class StartupTimeline {
+
+	/** The system property holding the time in milliseconds at which the JVM of Bootstrap started. */
+	public static final String LAUNCHED_PROPERTY = "openmrs.standalone.launched";
+
+	/** How many of the slowest phases the report lists. */
+	private static final int SLOWEST_COUNT = 5;
+
+	private static final String REPORT_DIR = "tomcat/logs";
+
+	/**
+	 * A phase being timed, which is recorded when closed.
+	 */
+	public static class Phase implements AutoCloseable {
+
+		final String name;
+
+		final String parent;
+
+		final String thread;
+
+		final long start;
+
+		final long cpuStart;
+
+		volatile long end = -1;
+
+		volatile long cpuEnd = -1;
+
+		Phase(String name, String parent, long start, long cpuStart) {
+			this.name = name;
+			this.parent = parent;
+			this.thread = Thread.currentThread().getName();
+			this.start = start;
+			this.cpuStart = cpuStart;
+		}
+
+		long getDuration() {
+			return end - start;
+		}
+
+		/**
+		 * @return the CPU time used by the whole process during the phase, including by the other
+		 *         phases running at the same time, or -1 if unknown.
+		 */
+		long getCpuTime() {
+			return cpuStart >= 0 && cpuEnd >= 0 ? cpuEnd - cpuStart : -1;
+		}
+
+		@Override
+		public void close() {
+			if (end < 0) {
+				cpuEnd = getProcessCpuTime();
+				end = System.currentTimeMillis();
+				OPEN_PHASES.get().remove(this);
+			}
+		}
+	}
+
+	private static final ThreadLocal<Deque<Phase>> OPEN_PHASES = ThreadLocal.withInitial(ArrayDeque::new);
+
+	private static final List<Phase> phases = new ArrayList<Phase>();
+
+	private static boolean launchRecorded;
+
+	/**
+	 * Starts timing a phase, as a sub-phase of the innermost phase open on the calling thread if any.
+	 *
+	 * @return the phase, to be closed when it is over.
+	 */
+	public static Phase start(String name) {
+		Phase current = OPEN_PHASES.get().peek();
+		return start(name, current != null ? current.name : null);
+	}
+
+	/**
+	 * Starts timing a phase, as a sub-phase of the given one. This is meant for work handed over to
+	 * other threads.
+	 *
+	 * @param parent the name of the parent phase, or null for a top level phase.
+	 * @return the phase, to be closed when it is over.
+	 */
+	public static Phase start(String name, String parent) {
+		recordLaunch();
+		Phase phase = new Phase(name, parent, System.currentTimeMillis(), getProcessCpuTime());
+		OPEN_PHASES.get().push(phase);
+		synchronized (phases) {
+			phases.add(phase);
+		}
+		return phase;
+	}
+
+	/**
+	 * Writes the phases recorded since the last report to tomcat/logs, as
+	 * startup-timeline-&lt;date&gt;.json, and prints the slowest of them. Phases still open are
+	 * reported as such. The next phases go to the next report, for instance after a restart.
+	 *
+	 * @return the report file, or null if there was nothing to report or it could not be written.
+	 */
+	public static File writeReport() {
+		List<Phase> reported;
+		synchronized (phases) {
+			reported = new ArrayList<Phase>(phases);
+			phases.clear();
+		}
+		if (reported.isEmpty()) {
+			return null;
+		}
+
+		long now = System.currentTimeMillis();
+		long origin = now;
+		for (Phase phase : reported) {
+			origin = Math.min(origin, phase.start);
+		}
+		List<Phase> slowest = getSlowest(reported);
+
+		long cpuTime = getProcessCpuTime();
+		System.out.println("Startup took " + (now - origin) + " ms" + (cpuTime >= 0 ? " and " + cpuTime + " ms of CPU" : "")
+		        + ", the slowest phases were:");
+		for (Phase phase : slowest) {
+			System.out.println("  " + phase.name + ": " + phase.getDuration() + " ms"
+			        + (phase.getCpuTime() >= 0 ? ", " + phase.getCpuTime() + " ms of CPU" : ""));
+		}
+
+		File dir = new File(REPORT_DIR);
+		File report = new File(dir, "startup-timeline-" + new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date(origin))
+		        + ".json");
+		try {
+			dir.mkdirs();
+			try (Writer out = new OutputStreamWriter(new FileOutputStream(report), StandardCharsets.UTF_8)) {
+				writeJson(out, reported, slowest, origin, now, cpuTime);
+			}
+			System.out.println("Wrote the startup timeline to " + report.getAbsolutePath());
+			return report;
+		}
+		catch (IOException ex) {
+			System.out.println("Failed to write the startup timeline: " + ex.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * Records the time between Bootstrap launching the JVM and the JVM starting, and between the
+	 * JVM starting and the first phase, once per JVM.
+	 */
+	private static synchronized void recordLaunch() {
+		if (launchRecorded) {
+			return;
+		}
+		launchRecorded = true;
+
+		long now = System.currentTimeMillis();
+		long jvmStart = ManagementFactory.getRuntimeMXBean().getStartTime();
+		String launched = System.getProperty(LAUNCHED_PROPERTY);
+		List<Phase> launch = new ArrayList<Phase>();
+		if (launched != null) {
+			try {
+				Phase bootstrap = new Phase("bootstrap-launch", null, Long.parseLong(launched), -1);
+				bootstrap.end = jvmStart;
+				launch.add(bootstrap);
+			}
+			catch (NumberFormatException ex) {
+				//Not launched by Bootstrap then
+			}
+		}
+		Phase jvm = new Phase("jvm-startup", null, jvmStart, 0);
+		jvm.end = now;
+		jvm.cpuEnd = getProcessCpuTime();
+		launch.add(jvm);
+		synchronized (phases) {
+			phases.addAll(0, launch);
+		}
+	}
+
+	/**
+	 * @return the slowest finished phases which have no sub-phases, since a parent is always at
+	 *         least as slow as its children.
+	 */
+	private static List<Phase> getSlowest(List<Phase> reported) {
+		Set<String> parents = new HashSet<String>();
+		for (Phase phase : reported) {
+			if (phase.parent != null) {
+				parents.add(phase.parent);
+			}
+		}
+		List<Phase> leaves = new ArrayList<Phase>();
+		for (Phase phase : reported) {
+			if (phase.end >= 0 && !parents.contains(phase.name)) {
+				leaves.add(phase);
+			}
+		}
+		leaves.sort((a, b) -> Long.compare(b.getDuration(), a.getDuration()));
+		return leaves.subList(0, Math.min(SLOWEST_COUNT, leaves.size()));
+	}
+
+	private static void writeJson(Writer out, List<Phase> reported, List<Phase> slowest, long origin, long now,
+	        long cpuTime) throws IOException {
+		out.write("{\n");
+		out.write("  \"platformVersion\": " + quote(OpenmrsUtil.PLATFORM_VERSION) + ",\n");
+		out.write("  \"javaVersion\": " + quote(System.getProperty("java.version")) + ",\n");
+		out.write("  \"os\": " + quote(System.getProperty("os.name") + " " + System.getProperty("os.arch")) + ",\n");
+		out.write("  \"processors\": " + Runtime.getRuntime().availableProcessors() + ",\n");
+		out.write("  \"maxMemory\": " + Runtime.getRuntime().maxMemory() + ",\n");
+		out.write("  \"started\": " + quote(new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSZ").format(new Date(origin)))
+		        + ",\n");
+		out.write("  \"totalMillis\": " + (now - origin) + ",\n");
+		out.write("  \"cpuMillis\": " + (cpuTime >= 0 ? cpuTime : "null") + ",\n");
+		out.write("  \"phases\": [\n");
+		for (int i = 0; i < reported.size(); i++) {
+			Phase phase = reported.get(i);
+			out.write("    {\"name\": " + quote(phase.name) + ", \"parent\": " + quote(phase.parent) + ", \"thread\": "
+			        + quote(phase.thread) + ", \"startMillis\": " + (phase.start - origin) + ", \"durationMillis\": "
+			        + (phase.end >= 0 ? phase.getDuration() : "null") + ", \"cpuMillis\": "
+			        + (phase.getCpuTime() >= 0 ? phase.getCpuTime() : "null") + "}" + (i < reported.size() - 1 ? "," : "") + "\n");
+		}
+		out.write("  ],\n");
+		out.write("  \"slowest\": [");
+		for (int i = 0; i < slowest.size(); i++) {
+			out.write((i > 0 ? ", " : "") + quote(slowest.get(i).name));
+		}
+		out.write("]\n");
+		out.write("}\n");
+	}
+
+	/**
+	 * @return the CPU time in milliseconds used by this JVM so far, or -1 if it cannot tell.
+	 */
+	private static long getProcessCpuTime() {
+		java.lang.management.OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+		if (os instanceof com.sun.management.OperatingSystemMXBean) {
+			long nanos = ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuTime();
+			return nanos >= 0 ? nanos / 1000000 : -1;
+		}
+		return -1;
+	}
+
+	private static String quote(String value) {
+		if (value == null) {
+			return "null";
+		}
+		StringBuilder quoted = new StringBuilder("\"");
+		for (char ch : value.toCharArray()) {
+			if (ch == '"' || ch == '\\') {
+				quoted.append('\\').append(ch);
+			} else if (ch < 0x20) {
+				quoted.append(String.format("\\u%04x", (int) ch));
+			} else {
+				quoted.append(ch);
+			}
+		}
+		return quoted.append('"').toString();
+	}
+}
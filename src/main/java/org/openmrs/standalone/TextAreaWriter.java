@@ -15,63 +15,176 @@ package org.openmrs.standalone;
 
 import java.io.ByteArrayOutputStream;
 import java.io.FilterOutputStream;
-import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.swing.JTextArea;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
 
 
 /**
- * Provides a stream which enables us redirect the standard output and error 
+ * Provides a stream which enables us redirect the standard output and error
  * streams to a swing text area.
+ * <p>
+ * The text area only keeps the last {@link #LOG_LENGTH} characters, whole lines at a time. Writes
+ * only queue their text, which is added to the text area on the event dispatch thread at most once
+ * per {@link #REFRESH_INTERVAL}, along with the removal of the oldest lines. Neither the text
+ * queued nor the text area grow past LOG_LENGTH, however long the server runs.
  */
 public class TextAreaWriter extends FilterOutputStream {
-	
+
+	/** How often in milliseconds the text area is updated at most, about once per frame. */
+	private static final int REFRESH_INTERVAL = 40;
+
 	private JTextArea text;
-	private int length;
 	public static long LOG_LENGTH = 10000;
-	
+
+	/** The text written since the last update of the text area, guarded by itself. */
+	private final StringBuilder pending = new StringBuilder();
+
+	private final AtomicBoolean refreshScheduled = new AtomicBoolean();
+
+	private final Timer refreshTimer;
+
+	/** The lengths of the lines in the text area, newline included, only used on the EDT. */
+	private final Deque<Integer> lineLengths = new ArrayDeque<Integer>();
+
+	/** Whether the last line of the text area has no newline yet. */
+	private boolean lastLineOpen;
+
+	/** The sum of the line lengths, which no longer matches the text area if the user edited it. */
+	private int totalLength;
+
 	public TextAreaWriter(JTextArea text) {
 		super(new ByteArrayOutputStream());
 		this.text = text;
+		refreshTimer = new Timer(REFRESH_INTERVAL, event -> refresh());
+		refreshTimer.setRepeats(false);
 	}
-	
-	public void write(byte b[]) throws IOException {
-		String aString = new String(b);
-		text.append(aString);
+
+	public void write(int b) {
+		write(new byte[] { (byte) b }, 0, 1);
+	}
+
+	public void write(byte b[]) {
+		write(b, 0, b.length);
 	}
-	
+
 	public void write(byte b[], int off, int len) {
-		
-		String aString = null;
-		
-		try{
-			length += len;
-			aString = new String(b, off, len);
-			text.append(aString);
-			
-			//Not to run out memory, start trimming the oldest characters whenever we reach
-			//a particular threshold.
-			if (length > LOG_LENGTH) {
-				text.setText(text.getText().substring(len));
-				length = length - len;
+		String aString = new String(b, off, len);
+
+		synchronized (pending) {
+			pending.append(aString);
+			//Only the last LOG_LENGTH characters would make it to the text area
+			if (pending.length() > LOG_LENGTH) {
+				int cut = pending.length() - (int) LOG_LENGTH;
+				int newline = pending.indexOf("\n", cut);
+				pending.delete(0, newline >= 0 && newline < pending.length() - 1 ? newline + 1 : cut);
 			}
-			
-			//scroll to the bottom.
-			text.setCaretPosition(length);
 		}
-		catch(Exception ex){
-			//This is most likely thrown at text.setCaretPosition() due to the user having removed some of the log output.
-			length = 0;
-			text.append(aString);
-			//printing to the std streams here may result in an infinite loop since will keep calling into this same routine.
+		if (refreshScheduled.compareAndSet(false, true)) {
+			SwingUtilities.invokeLater(refreshTimer::restart);
 		}
-		
+
 		//Append to the log file under currentdir/tomcat/logs
 		LogWriter.write(aString);
 	}
-	
-	public void clear(){
-		length = 0;
+
+	/**
+	 * Adds the text written since the last time to the text area, and removes the oldest lines past
+	 * LOG_LENGTH. Runs on the event dispatch thread.
+	 */
+	private void refresh() {
+		String added;
+		synchronized (pending) {
+			refreshScheduled.set(false);
+			added = pending.toString();
+			pending.setLength(0);
+		}
+		if (added.isEmpty()) {
+			return;
+		}
+
+		Document document = text.getDocument();
+		try {
+			if (totalLength != document.getLength()) {
+				//The user edited the log, count its lines again
+				lineLengths.clear();
+				lastLineOpen = false;
+				totalLength = 0;
+				addLineLengths(document.getText(0, document.getLength()));
+			}
+			document.insertString(document.getLength(), added, null);
+			addLineLengths(added);
+
+			int excess = document.getLength() - (int) LOG_LENGTH;
+			int removed = 0;
+			while (removed < excess && lineLengths.size() > 1) {
+				removed += lineLengths.removeFirst();
+			}
+			if (removed < excess) {
+				//A single line longer than LOG_LENGTH, cut it
+				lineLengths.addFirst(lineLengths.removeFirst() - (excess - removed));
+				removed = excess;
+			}
+			if (removed > 0) {
+				document.remove(0, removed);
+				totalLength -= removed;
+			}
+
+			//scroll to the bottom.
+			text.setCaretPosition(document.getLength());
+		}
+		catch (BadLocationException ex) {
+			//The text area was changed by someone else, start over.
+			//printing to the std streams here may result in an infinite loop since will keep calling into this same routine.
+			clearTextArea();
+		}
+	}
+
+	private void addLineLengths(String added) {
+		int start = 0;
+		int newline;
+		while ((newline = added.indexOf('\n', start)) >= 0) {
+			addToLastLine(newline + 1 - start);
+			lastLineOpen = false;
+			start = newline + 1;
+		}
+		if (start < added.length()) {
+			addToLastLine(added.length() - start);
+			lastLineOpen = true;
+		}
+	}
+
+	private void addToLastLine(int length) {
+		totalLength += length;
+		if (lastLineOpen) {
+			lineLengths.addLast(lineLengths.removeLast() + length);
+		} else {
+			lineLengths.addLast(length);
+		}
+		lastLineOpen = true;
+	}
+
+	private void clearTextArea() {
+		lineLengths.clear();
+		lastLineOpen = false;
+		totalLength = 0;
 		text.setText("");
 	}
+
+	public void clear(){
+		synchronized (pending) {
+			pending.setLength(0);
+		}
+		if (SwingUtilities.isEventDispatchThread()) {
+			clearTextArea();
+		} else {
+			SwingUtilities.invokeLater(this::clearTextArea);
+		}
+	}
 }
@@ -20,20 +20,77 @@ import java.net.InetAddress;
 import java.net.MalformedURLException;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.util.Properties;
 import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 import ch.vorburger.exec.ManagedProcessException;
 import org.apache.catalina.Context;
+import org.apache.catalina.Lifecycle;
 import org.apache.catalina.LifecycleException;
+import org.apache.catalina.Wrapper;
 import org.apache.catalina.connector.Connector;
+import org.apache.catalina.core.StandardContext;
 import org.apache.catalina.startup.Tomcat;
+import org.apache.catalina.util.ServerInfo;
+import org.apache.catalina.webresources.StandardRoot;
+import org.apache.coyote.http2.Http2Protocol;
+import org.apache.tomcat.util.scan.StandardJarScanFilter;
+import org.apache.tomcat.util.scan.StandardJarScanner;
 
 /**
  * Manages an embedded tomcat instance.
  */
 public class TomcatManager {
+	
+	/**
+	 * The runtime property which, when true, has the HTTP connector run each request on a virtual
+	 * thread of its own instead of the default pool of platform threads. Needs Java 21 or later.
+	 */
+	public static final String KEY_VIRTUAL_THREADS = "tomcat.virtual_threads";
+	
+	/**
+	 * The runtime property selecting how the connector and context are set up, either "default"
+	 * or "performance", see {@link #applyPerformanceProfile(Connector, Context, Properties)}.
+	 */
+	public static final String KEY_PROFILE = "tomcat.profile";
+	
+	public static final String PROFILE_PERFORMANCE = "performance";
+	
+	/** The smallest response in bytes which is compressed by the performance profile. */
+	public static final String KEY_COMPRESSION_MIN_SIZE = "tomcat.compression.min_size";
+	
+	/** The comma separated MIME types which are compressed by the performance profile. */
+	public static final String KEY_COMPRESSIBLE_MIME_TYPES = "tomcat.compression.mime_types";
+	
+	/** The size in KB of the webapp resource cache of the performance profile. */
+	public static final String KEY_CACHE_MAX_SIZE = "tomcat.cache.max_size";
+	
+	private static final int DEFAULT_COMPRESSION_MIN_SIZE = 1024;
+	
+	private static final String DEFAULT_COMPRESSIBLE_MIME_TYPES = "text/html,text/xml,text/plain,text/css,text/javascript,"
+	        + "application/javascript,application/json,application/xml,image/svg+xml";
+	
+	/** Ten times the Tomcat default, which the OpenMRS webapp and its modules easily outgrow. */
+	private static final long DEFAULT_CACHE_MAX_SIZE = 100 * 1024;
+	
+	/** How long in milliseconds cached resources are trusted, the webapp does not change while running. */
+	private static final long CACHE_TTL = 60 * 1000;
+	
+	/**
+	 * The runtime property which, when true, runs the webapp as deployed for good rather than as
+	 * being worked on, see {@link #applyProductionMode(Context, File)}.
+	 */
+	public static final String KEY_PRODUCTION_MODE = "tomcat.production_mode";
 
 	private Tomcat container = null;
+	
+	/**
+	 * The executor of the HTTP connector, when we provide it rather than Tomcat.
+	 */
+	private ExecutorService executor = null;
 
 	/**
 	 * The port number on which we wait for shutdown commands.
@@ -69,23 +126,215 @@ public class TomcatManager {
 		container.setPort(port);
 		container.setBaseDir("tomcat");
 
+		Properties properties = RuntimeConfig.get(contextName).getProperties();
+		
 		// create context
 		String warPath = "tomcat/webapps/" + contextName + ".war";
 		File warFile = new File(warPath);
 		Context rootContext = container.addWebapp("/" + contextName, warFile.getAbsolutePath());
-		rootContext.setReloadable(true);
+		if (Boolean.parseBoolean(properties.getProperty(KEY_PRODUCTION_MODE, "false").trim())) {
+			applyProductionMode(rootContext, warFile);
+		} else {
+			rootContext.setReloadable(true);
+		}
+		usePrecompiledJsps(warFile);
+		// keep compiled JSPs across restarts, for as long as the WAR does not change
+		if (rootContext instanceof StandardContext) {
+			try {
+				File workDir = TomcatWorkDir.prepare(new File("tomcat/work"), contextName, warFile);
+				if (workDir != null) {
+					((StandardContext) rootContext).setWorkDir(workDir.getAbsolutePath());
+				}
+			}
+			catch (IOException ex) {
+				System.out.println("Failed to prepare the work directory, using the default one: " + ex.getMessage());
+			}
+		}
 		// create http connector
 		Connector httpConnector = new Connector();
 		httpConnector.setPort(port);
 		httpConnector.setURIEncoding("UTF-8");
+		
+		if (PROFILE_PERFORMANCE.equalsIgnoreCase(properties.getProperty(KEY_PROFILE, "default").trim())) {
+			applyPerformanceProfile(httpConnector, rootContext, properties);
+		}
+		if (Boolean.parseBoolean(properties.getProperty(KEY_VIRTUAL_THREADS, "false").trim())) {
+			executor = useVirtualThreads(httpConnector);
+		}
 		container.getService().addConnector(httpConnector);
 	}
 	
+	/**
+	 * If the JSPs of the WAR were compiled at build time, see {@link JspPrecompiler}, they are
+	 * mapped to their servlets in its web.xml and never reach Jasper. The remaining JSPs, those of
+	 * modules, are still checked for changes unless the production mode is on.
+	 */
+	private static void usePrecompiledJsps(File warFile) {
+		Properties marker = null;
+		try {
+			if (warFile.isFile()) {
+				marker = JspPrecompiler.readMarker(warFile);
+			}
+		}
+		catch (IOException ex) {
+			System.out.println("Failed to read " + warFile + ": " + ex.getMessage());
+		}
+		if (marker == null) {
+			return;
+		}
+		
+		String compiledWith = marker.getProperty(JspPrecompiler.KEY_TOMCAT_VERSION);
+		System.out.println("Using the " + marker.getProperty(JspPrecompiler.KEY_SERVLETS) + " JSPs precompiled with Tomcat "
+		        + compiledWith);
+		if (compiledWith != null && !compiledWith.equals(ServerInfo.getServerNumber())) {
+			System.out.println("⚠️ The JSPs were precompiled with Tomcat " + compiledWith + " but this is Tomcat "
+			        + ServerInfo.getServerNumber());
+		}
+	}
+	
+	/**
+	 * Has Jasper compile each JSP once instead of checking it for changes on every request.
+	 */
+	private static void disableJspDevelopmentMode(final Context context) {
+		// The jsp servlet is added by Tomcat.addWebapp() just before the context starts
+		context.addLifecycleListener(event -> {
+			if (Lifecycle.BEFORE_START_EVENT.equals(event.getType())) {
+				Wrapper jsp = (Wrapper) context.findChild("jsp");
+				if (jsp != null) {
+					jsp.addInitParameter("development", "false");
+				}
+			}
+		});
+	}
+	
+	/**
+	 * Sets up the given context for a webapp which does not change while running:
+	 * <ul>
+	 * <li>no background thread polling WEB-INF/classes and WEB-INF/lib to reload the webapp,</li>
+	 * <li>no checking of the JSPs for changes,</li>
+	 * <li>no scanning of the JVM class path, which only holds the standalone itself,</li>
+	 * <li>if the WAR was indexed at build time, see {@link JarScanIndexer}, only the jars holding
+	 * TLDs or pluggability features are scanned rather than all of WEB-INF/lib.</li>
+	 * </ul>
+	 */
+	static void applyProductionMode(Context context, File warFile) {
+		context.setReloadable(false);
+		disableJspDevelopmentMode(context);
+		
+		StandardJarScanner scanner = new StandardJarScanner();
+		scanner.setScanClassPath(false);
+		scanner.setScanManifest(false);
+		
+		Properties index = null;
+		try {
+			if (warFile.isFile()) {
+				index = JarScanIndexer.readIndex(warFile);
+			}
+		}
+		catch (IOException ex) {
+			System.out.println("Failed to read " + warFile + ": " + ex.getMessage());
+		}
+		if (index != null) {
+			StandardJarScanFilter filter = new StandardJarScanFilter();
+			// Only the jars listed are scanned, the default lists of jars to skip do not apply
+			filter.setDefaultTldScan(false);
+			filter.setTldSkip("");
+			filter.setTldScan(index.getProperty(JarScanIndexer.KEY_TLD_SCAN, ""));
+			filter.setDefaultPluggabilityScan(false);
+			filter.setPluggabilitySkip("");
+			filter.setPluggabilityScan(index.getProperty(JarScanIndexer.KEY_PLUGGABILITY_SCAN, ""));
+			scanner.setJarScanFilter(filter);
+		}
+		context.setJarScanner(scanner);
+		
+		System.out.println("Using the production mode, " + (index != null ? "scanning the jars indexed at build time"
+		        : "scanning all jars as the WAR has no index"));
+	}
+	
+	/**
+	 * Sets up the given connector and context for slow links:
+	 * <ul>
+	 * <li>HTTP/2 over plain text (h2c), which clients get to by upgrading an HTTP/1.1 request,</li>
+	 * <li>gzip compression of text responses from a minimum size on, over both protocols,</li>
+	 * <li>a larger cache of the webapp resources, trusted for longer.</li>
+	 * </ul>
+	 * The compression and cache can be tuned with the tomcat.compression.* and tomcat.cache.*
+	 * runtime properties.
+	 */
+	static void applyPerformanceProfile(Connector connector, Context context, Properties properties) {
+		int compressionMinSize = getInt(properties, KEY_COMPRESSION_MIN_SIZE, DEFAULT_COMPRESSION_MIN_SIZE);
+		String mimeTypes = properties.getProperty(KEY_COMPRESSIBLE_MIME_TYPES, DEFAULT_COMPRESSIBLE_MIME_TYPES).trim();
+		long cacheMaxSize = getInt(properties, KEY_CACHE_MAX_SIZE, (int) DEFAULT_CACHE_MAX_SIZE);
+		
+		connector.setProperty("compression", "on");
+		connector.setProperty("compressionMinSize", String.valueOf(compressionMinSize));
+		connector.setProperty("compressibleMimeType", mimeTypes);
+		// Files sent with sendfile bypass compression, and large scripts are the ones worth compressing
+		connector.setProperty("useSendfile", "false");
+		
+		// HTTP/2 streams are compressed according to the settings of the upgrade protocol
+		Http2Protocol http2 = new Http2Protocol();
+		http2.setCompression("on");
+		http2.setCompressionMinSize(compressionMinSize);
+		http2.setCompressibleMimeType(mimeTypes);
+		connector.addUpgradeProtocol(http2);
+		
+		StandardRoot resources = new StandardRoot(context);
+		resources.setCachingAllowed(true);
+		resources.setCacheMaxSize(cacheMaxSize);
+		// Tomcat caps a single cached resource at a 20th of the cache
+		resources.setCacheObjectMaxSize((int) (cacheMaxSize / 20));
+		resources.setCacheTtl(CACHE_TTL);
+		context.setResources(resources);
+		
+		System.out.println("Using the performance profile: h2c, compression from " + compressionMinSize + " bytes, "
+		        + cacheMaxSize + " KB resource cache");
+	}
+	
+	/**
+	 * @return the positive number the given property is set to, else the default value.
+	 */
+	private static int getInt(Properties properties, String key, int defaultValue) {
+		int value = StandaloneUtil.fromStringToInt(properties.getProperty(key, "").trim());
+		return value > 0 ? value : defaultValue;
+	}
+	
+	/**
+	 * Sets an executor on the given connector which runs each request on a new virtual thread, so
+	 * that requests blocked on the database do not hold up others waiting for a pooled thread.
+	 * Virtual threads are looked up by reflection as we build for Java 17.
+	 * 
+	 * @return the executor, which Tomcat does not shut down as it did not create it, or null if the
+	 *         JVM has no virtual threads, in which case the connector keeps its platform threads.
+	 */
+	static ExecutorService useVirtualThreads(Connector connector) {
+		ExecutorService virtualExecutor;
+		try {
+			Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+			builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, "http-virtual-", 0L);
+			ThreadFactory factory = (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+			virtualExecutor = (ExecutorService) Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class)
+			        .invoke(null, factory);
+		}
+		catch (ReflectiveOperationException ex) {
+			System.out.println("Virtual threads need Java 21 or later, this is Java " + System.getProperty("java.version")
+			        + ". Keeping the platform thread pool for HTTP requests.");
+			return null;
+		}
+		connector.getProtocolHandler().setExecutor(virtualExecutor);
+		System.out.println("Running HTTP requests on virtual threads");
+		return virtualExecutor;
+	}
+	
 	/**
 	 * Starts the embedded Tomcat server.
 	 */
 	public void run() throws LifecycleException, MalformedURLException {
-		container.start();
+		try (StartupTimeline.Phase phase = StartupTimeline.start("tomcat-start")) {
+			PortAllocator.release(container.getConnector().getPort());
+			container.start();
+		}
 	}
 	
 	/**
@@ -102,6 +351,10 @@ public class TomcatManager {
 				container = null;
 				stopMySql = true;
 			}
+			if (executor != null) {
+				executor.shutdown();
+				executor = null;
+			}
 		}
 		catch (LifecycleException exception) {
 			System.out.println("Cannot Stop Tomcat" + exception.getMessage());
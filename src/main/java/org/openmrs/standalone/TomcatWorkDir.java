@@ -0,0 +1,127 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.standalone;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Properties;
+import java.util.regex.Pattern;
+
+import org.apache.catalina.util.ServerInfo;
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Gives the webapp a Tomcat work directory of its own for each version of the WAR and of Tomcat,
+ * so that the JSPs compiled by Jasper and the rest of the state Tomcat keeps there survive restarts,
+ * while anything left by another WAR or Tomcat version is never used and gets deleted.
+ */
+public class TomcatWorkDir {
+
+	/** Where the hashes of the WARs are remembered, so that an unchanged WAR is not read again. */
+	private static final String HASH_CACHE = "war-hashes.properties";
+
+	/** The length of the hash in the name of the work directory. */
+	private static final int KEY_LENGTH = 16;
+
+	/**
+	 * Creates the work directory for the given WAR, named after the context and a hash of the WAR
+	 * and the Tomcat version, and deletes the work directories of the context for other WARs.
+	 *
+	 * @param baseDir the directory holding the work directories, tomcat/work.
+	 * @return the work directory, or null if there is no WAR file, in which case Tomcat keeps its
+	 *         default one.
+	 */
+	public static File prepare(File baseDir, String contextName, File warFile) throws IOException {
+		if (!warFile.isFile()) {
+			return null;
+		}
+
+		String key = hashWar(baseDir, contextName, warFile).substring(0, KEY_LENGTH);
+		File workDir = new File(baseDir, contextName + "-" + key);
+
+		String workDirPattern = Pattern.quote(contextName) + "-[0-9a-f]{" + KEY_LENGTH + "}";
+		File[] workDirs = baseDir.listFiles(
+		    file -> file.isDirectory() && file.getName().matches(workDirPattern) && !file.equals(workDir));
+		if (workDirs != null) {
+			for (File staleDir : workDirs) {
+				System.out.println("Deleting the work directory of a previous WAR: " + staleDir);
+				FileUtils.deleteDirectory(staleDir);
+			}
+		}
+		//Where Tomcat put it by default, before it was keyed
+		FileUtils.deleteDirectory(new File(baseDir, "Tomcat" + File.separator + "localhost" + File.separator + contextName));
+
+		if (!workDir.isDirectory() && !workDir.mkdirs()) {
+			throw new IOException("Failed to create " + workDir);
+		}
+		return workDir;
+	}
+
+	/**
+	 * @return the SHA-256 hash of the content of the given WAR and the Tomcat version, as read
+	 *         from the cache if the WAR has the same size and modification time as when it was
+	 *         last hashed.
+	 */
+	private static String hashWar(File baseDir, String contextName, File warFile) throws IOException {
+		String tomcatVersion = ServerInfo.getServerNumber();
+		String stamp = warFile.length() + ":" + warFile.lastModified() + ":" + tomcatVersion;
+
+		File cacheFile = new File(baseDir, HASH_CACHE);
+		Properties cache = new Properties();
+		if (cacheFile.isFile()) {
+			try (InputStream in = new FileInputStream(cacheFile)) {
+				cache.load(in);
+			}
+		}
+		String cached = cache.getProperty(contextName);
+		if (cached != null && cached.startsWith(stamp + "=")) {
+			return cached.substring(stamp.length() + 1);
+		}
+
+		String hash;
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			try (InputStream in = new FileInputStream(warFile)) {
+				byte[] buffer = new byte[64 * 1024];
+				int count;
+				while ((count = in.read(buffer)) != -1) {
+					digest.update(buffer, 0, count);
+				}
+			}
+			digest.update(String.valueOf(tomcatVersion).getBytes(StandardCharsets.UTF_8));
+			StringBuilder hex = new StringBuilder();
+			for (byte b : digest.digest()) {
+				hex.append(String.format("%02x", b));
+			}
+			hash = hex.toString();
+		}
+		catch (NoSuchAlgorithmException ex) {
+			throw new IllegalStateException(ex);
+		}
+
+		cache.setProperty(contextName, stamp + "=" + hash);
+		baseDir.mkdirs();
+		try (OutputStream out = new FileOutputStream(cacheFile)) {
+			cache.store(out, "The hashes of the WARs naming their work directories");
+		}
+		return hash;
+	}
+}
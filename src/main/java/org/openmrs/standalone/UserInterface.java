@@ -49,6 +49,12 @@ public interface UserInterface {
 	
 	void onFinishedInitialConfigCheck();
 	
+	/**
+	 * Shows how far the import of the database has got. Called every so often from a thread of its
+	 * own while the import runs, the last time with a finished progress.
+	 */
+	void showImportProgress(ImportProgress progress);
+	
 	/**
      * Shows the "first-time config" dialog (or asks those questions at the command prompt) 
      */
@@ -0,0 +1,159 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.standalone;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Tells whether the running JVM was already started with the vm_arguments of the runtime
+ * properties, in which case {@link Bootstrap} has no need to launch another one.
+ */
+public class VmArguments {
+
+	/** The options which take their value as the next argument, rather than after an equals sign. */
+	private static final String[] SPLIT_OPTIONS = { "--add-exports", "--add-opens", "--add-modules", "--add-reads",
+	        "--enable-native-access" };
+
+	/**
+	 * @return true if the running JVM was started with arguments satisfying the given ones.
+	 */
+	public static boolean isSatisfied(String vmArguments) {
+		return isSatisfied(vmArguments, ManagementFactory.getRuntimeMXBean().getInputArguments());
+	}
+
+	/**
+	 * Checks the given arguments against those a JVM was started with:
+	 * <ul>
+	 * <li>its maximum heap size must be at least the -Xmx asked for,</li>
+	 * <li>the initial and young generation sizes only tune the heap, and are not checked,</li>
+	 * <li>system properties must have the same value,</li>
+	 * <li>any other option, such as --add-opens, must be among the arguments of the JVM.</li>
+	 * </ul>
+	 *
+	 * @param inputArguments the arguments the JVM was started with.
+	 */
+	static boolean isSatisfied(String vmArguments, List<String> inputArguments) {
+		List<String> started = normalize(inputArguments);
+		Set<String> startedSet = new HashSet<String>(started);
+
+		for (String argument : normalize(split(vmArguments))) {
+			if (argument.startsWith("-Xmx")) {
+				long maxHeap = getMaxHeapSize(started);
+				if (maxHeap < parseSize(argument.substring("-Xmx".length()))) {
+					return false;
+				}
+			} else if (argument.startsWith("-Xms") || argument.startsWith("-Xmn")
+			        || argument.startsWith("-XX:NewSize=") || argument.startsWith("-XX:MaxNewSize=")) {
+				continue;
+			} else if (argument.startsWith("-D")) {
+				int equals = argument.indexOf('=');
+				String key = argument.substring(2, equals > 0 ? equals : argument.length());
+				String value = equals > 0 ? argument.substring(equals + 1) : "";
+				if (!value.equals(System.getProperty(key))) {
+					return false;
+				}
+			} else if (!startedSet.contains(argument)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return the arguments separated by white space, none for blank ones.
+	 */
+	static List<String> split(String arguments) {
+		List<String> split = new ArrayList<String>();
+		for (String argument : arguments.trim().split("\\s+")) {
+			if (!argument.isEmpty()) {
+				split.add(argument);
+			}
+		}
+		return split;
+	}
+
+	/**
+	 * @return the given arguments with the options taking a separate value joined to it with an
+	 *         equals sign, as the java launcher does.
+	 */
+	private static List<String> normalize(List<String> arguments) {
+		List<String> normalized = new ArrayList<String>();
+		for (int i = 0; i < arguments.size(); i++) {
+			String argument = arguments.get(i);
+			for (String option : SPLIT_OPTIONS) {
+				if (argument.equals(option) && i + 1 < arguments.size()) {
+					argument = option + "=" + arguments.get(++i);
+					break;
+				}
+			}
+			normalized.add(argument);
+		}
+		return normalized;
+	}
+
+	/**
+	 * @return the maximum heap size given by the last of the -Xmx or -XX:MaxHeapSize arguments,
+	 *         which is the one the JVM uses, or -1 if there is none.
+	 */
+	private static long getMaxHeapSize(List<String> arguments) {
+		long size = -1;
+		for (String argument : arguments) {
+			if (argument.startsWith("-Xmx")) {
+				size = parseSize(argument.substring("-Xmx".length()));
+			} else if (argument.startsWith("-XX:MaxHeapSize=")) {
+				size = parseSize(argument.substring("-XX:MaxHeapSize=".length()));
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * @return the number of bytes of a size such as 512m, or -1 if it is not one.
+	 */
+	static long parseSize(String size) {
+		long unit = 1;
+		String digits = size;
+		if (!size.isEmpty()) {
+			switch (Character.toLowerCase(size.charAt(size.length() - 1))) {
+				case 'k':
+					unit = 1024L;
+					break;
+				case 'm':
+					unit = 1024L * 1024;
+					break;
+				case 'g':
+					unit = 1024L * 1024 * 1024;
+					break;
+				case 't':
+					unit = 1024L * 1024 * 1024 * 1024;
+					break;
+				default:
+					break;
+			}
+			if (unit > 1) {
+				digits = size.substring(0, size.length() - 1);
+			}
+		}
+		try {
+			return Long.parseLong(digits) * unit;
+		}
+		catch (NumberFormatException ex) {
+			return -1;
+		}
+	}
+}
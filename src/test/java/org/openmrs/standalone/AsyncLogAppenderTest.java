@@ -0,0 +1,95 @@
+package org.openmrs.standalone;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.time.LocalDate;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class AsyncLogAppenderTest {
+
+    private File dir;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("async-log-appender-test").toFile();
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(dir);
+    }
+
+    @Test
+    public void shouldAppendToTheLogFileOfTheDay() throws IOException {
+        AsyncLogAppender appender = new AsyncLogAppender(dir, 16, 1024 * 1024, AsyncLogAppender.OverflowPolicy.BLOCK);
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            appender.append("line " + i + "\n");
+            expected.append("line ").append(i).append('\n');
+        }
+        assertTrue(appender.flush(10000));
+        appender.close();
+
+        assertEquals(expected.toString(), read(new FileInputStream(appender.getLogFile(LocalDate.now()))));
+    }
+
+    @Test
+    public void shouldRollOverAndCompressFullLogFiles() throws IOException {
+        AsyncLogAppender appender = new AsyncLogAppender(dir, 16, 100, AsyncLogAppender.OverflowPolicy.BLOCK);
+        appender.append(repeat('a', 80));
+        assertTrue(appender.flush(10000));
+        appender.append(repeat('b', 80));
+        assertTrue(appender.flush(10000));
+        appender.close();
+
+        File logFile = appender.getLogFile(LocalDate.now());
+        String base = logFile.getName().substring(0, logFile.getName().length() - ".log".length());
+        assertEquals(repeat('b', 80), read(new FileInputStream(logFile)));
+        assertEquals(repeat('a', 80), read(new GZIPInputStream(new FileInputStream(new File(dir, base + ".1.log.gz")))));
+    }
+
+    @Test
+    public void shouldCountTheWritesDroppedWhenFull() {
+        AsyncLogAppender appender = new AsyncLogAppender(dir, 1, 1024 * 1024, AsyncLogAppender.OverflowPolicy.DROP);
+        for (int i = 0; i < 100000; i++) {
+            appender.append("line " + i + "\n");
+        }
+        assertTrue(appender.flush(10000));
+        appender.close();
+
+        assertTrue(appender.getDroppedCount() > 0);
+    }
+
+    private static String repeat(char ch, int count) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            text.append(ch);
+        }
+        return text.toString();
+    }
+
+    private static String read(InputStream in) throws IOException {
+        try (InputStream stream = in) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int count;
+            while ((count = stream.read(buffer)) != -1) {
+                out.write(buffer, 0, count);
+            }
+            return new String(out.toByteArray(), Charset.defaultCharset());
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package org.openmrs.standalone;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.connector.Connector;
+import org.apache.catalina.startup.Tomcat;
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Compares the default platform thread pool of the HTTP connector with the virtual thread executor
+ * of {@link TomcatManager#useVirtualThreads(Connector)}, under concurrent load on a REST like
+ * endpoint which spends most of its time waiting, as when blocked on a slow database call. Prints
+ * the throughput and the median and p99 latencies of each.
+ * <p>
+ * This is not a unit test, and needs Java 21 for the virtual threads. Run its main method with the
+ * test classpath, for instance:
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=org.openmrs.standalone.ConnectorExecutorBenchmark
+ * </pre>
+ * The concurrency, the time each request waits and the duration of each run in seconds can be
+ * given as arguments, and default to 800 clients, 50 ms and 20 s.
+ */
+public class ConnectorExecutorBenchmark {
+
+    private static final int PORT = 18089;
+
+    /**
+     * Stands in for a REST call which mostly waits on the database.
+     */
+    public static class SlowServlet extends HttpServlet {
+
+        private final long waitMillis;
+
+        SlowServlet(long waitMillis) {
+            this.waitMillis = waitMillis;
+        }
+
+        @Override
+        protected void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+            try {
+                Thread.sleep(waitMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            response.setContentType("application/json");
+            response.setCharacterEncoding("UTF-8");
+            response.getWriter().write("{\"results\":[]}");
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int concurrency = args.length > 0 ? Integer.parseInt(args[0]) : 800;
+        long waitMillis = args.length > 1 ? Long.parseLong(args[1]) : 50;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+
+        System.out.println("Java " + System.getProperty("java.version") + ", " + concurrency + " clients, "
+                + waitMillis + " ms per request, " + seconds + " s per run");
+        run("platform threads", false, concurrency, waitMillis, seconds);
+        run("virtual threads", true, concurrency, waitMillis, seconds);
+    }
+
+    private static void run(String name, boolean virtualThreads, int concurrency, long waitMillis, int seconds)
+            throws Exception {
+        File baseDir = Files.createTempDirectory("tomcat-benchmark").toFile();
+        Tomcat tomcat = new Tomcat();
+        tomcat.setBaseDir(baseDir.getAbsolutePath());
+        Context context = tomcat.addContext("/openmrs", baseDir.getAbsolutePath());
+        Tomcat.addServlet(context, "rest", new SlowServlet(waitMillis));
+        context.addServletMappingDecoded("/ws/rest/v1/*", "rest");
+
+        // Configured like TomcatManager does
+        Connector connector = new Connector();
+        connector.setPort(PORT);
+        connector.setURIEncoding("UTF-8");
+        ExecutorService executor = null;
+        if (virtualThreads) {
+            executor = TomcatManager.useVirtualThreads(connector);
+            if (executor == null) {
+                return;
+            }
+        }
+        tomcat.getService().addConnector(connector);
+        tomcat.start();
+
+        try {
+            // Warm up, then measure
+            load(concurrency, 2000);
+            long[] latencies = load(concurrency, seconds * 1000L);
+            Arrays.sort(latencies);
+            System.out.println(name + ": " + (latencies.length / seconds) + " requests/s, median "
+                    + percentile(latencies, 50) / 1000 + " ms, p99 " + percentile(latencies, 99) / 1000 + " ms");
+        } finally {
+            tomcat.stop();
+            tomcat.destroy();
+            if (executor != null) {
+                executor.shutdown();
+            }
+            FileUtils.deleteDirectory(baseDir);
+        }
+    }
+
+    /**
+     * Has the given number of clients send requests one after the other for the given time.
+     *
+     * @return the latencies of all requests in microseconds.
+     */
+    private static long[] load(int concurrency, final long millis) throws Exception {
+        final URL url = new URL("http://localhost:" + PORT + "/openmrs/ws/rest/v1/patient");
+        final long end = System.currentTimeMillis() + millis;
+        ExecutorService clients = Executors.newFixedThreadPool(concurrency);
+        try {
+            List<Future<List<Long>>> futures = new ArrayList<>();
+            for (int i = 0; i < concurrency; i++) {
+                futures.add(clients.submit(() -> {
+                    List<Long> latencies = new ArrayList<>();
+                    byte[] buffer = new byte[1024];
+                    while (System.currentTimeMillis() < end) {
+                        long start = System.nanoTime();
+                        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+                        try (InputStream in = connection.getInputStream()) {
+                            while (in.read(buffer) != -1) {
+                                // Read the whole response, for the connection to be kept alive
+                            }
+                        }
+                        latencies.add((System.nanoTime() - start) / 1000);
+                    }
+                    return latencies;
+                }));
+            }
+
+            List<Long> all = new ArrayList<>();
+            for (Future<List<Long>> future : futures) {
+                all.addAll(future.get());
+            }
+            long[] latencies = new long[all.size()];
+            for (int i = 0; i < latencies.length; i++) {
+                latencies[i] = all.get(i);
+            }
+            return latencies;
+        } finally {
+            clients.shutdownNow();
+        }
+    }
+
+    private static long percentile(long[] sorted, int percentile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        return sorted[Math.min(sorted.length - 1, (int) ((long) sorted.length * percentile / 100))];
+    }
+}
@@ -0,0 +1,74 @@
+package org.openmrs.standalone;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Properties;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class JarScanIndexerTest {
+
+    private File dir;
+    private File war;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("jar-scan-indexer-test").toFile();
+        war = new File(dir, "openmrs.war");
+        try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(war))) {
+            put(out, "WEB-INF/web.xml", "<web-app/>".getBytes(StandardCharsets.UTF_8));
+            put(out, "WEB-INF/lib/taglib.jar", jar("META-INF/c.tld", "<taglib/>"));
+            put(out, "WEB-INF/lib/initializer.jar",
+                    jar("META-INF/services/javax.servlet.ServletContainerInitializer", "org.example.Initializer"));
+            put(out, "WEB-INF/lib/annotated.jar", jar("org/example/Servlet.class",
+                    "Êþº¾Ljavax/servlet/annotation/WebServlet;"));
+            put(out, "WEB-INF/lib/plain.jar", jar("org/example/Plain.class", "Êþº¾Ljava/lang/Object;"));
+        }
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(dir);
+    }
+
+    @Test
+    public void shouldOnlyListTheJarsWhichNeedScanning() throws IOException {
+        Properties index = JarScanIndexer.index(war);
+        assertEquals("taglib.jar", index.getProperty(JarScanIndexer.KEY_TLD_SCAN));
+        assertEquals("initializer.jar,annotated.jar", index.getProperty(JarScanIndexer.KEY_PLUGGABILITY_SCAN));
+    }
+
+    @Test
+    public void shouldAddTheIndexToTheWar() throws Exception {
+        assertNull(JarScanIndexer.readIndex(war));
+        JarScanIndexer.main(new String[] { war.getAbsolutePath() });
+        assertEquals(JarScanIndexer.index(war), JarScanIndexer.readIndex(war));
+    }
+
+    private static byte[] jar(String name, String content) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ZipOutputStream out = new ZipOutputStream(bytes)) {
+            put(out, "META-INF/MANIFEST.MF", "Manifest-Version: 1.0\n".getBytes(StandardCharsets.UTF_8));
+            put(out, name, content.getBytes(StandardCharsets.ISO_8859_1));
+        }
+        return bytes.toByteArray();
+    }
+
+    private static void put(ZipOutputStream out, String name, byte[] content) throws IOException {
+        out.putNextEntry(new ZipEntry(name));
+        out.write(content);
+        out.closeEntry();
+    }
+}
@@ -0,0 +1,121 @@
+package org.openmrs.standalone;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class LogIndexTest {
+
+    private File dir;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("log-index-test").toFile();
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(dir);
+    }
+
+    @Test
+    public void shouldFindTheErrorsMentioningAWord() throws InterruptedException {
+        LogIndex index = new LogIndex(dir, Charset.defaultCharset());
+        index.start(LogIndex.DEFAULT_RETENTION_DAYS);
+        AsyncLogAppender appender = new AsyncLogAppender(dir, 16, 1024 * 1024, AsyncLogAppender.OverflowPolicy.BLOCK,
+                index);
+        appender.append("2026-10-18 10:00:00 INFO - Started the patient service\n");
+        appender.append("2026-10-18 10:00:01 ERROR - Failed to load patient 42\n");
+        appender.append("\tat org.openmrs.api.patient.Loader.load(Loader.java:10)\n");
+        appender.append("2026-10-18 10:00:02 ERROR - Failed to load concept 7\n");
+        assertTrue(appender.flush(10000));
+        appender.close();
+        assertTrue(index.sync(10000));
+
+        List<LogIndex.Hit> hits = index.search("patient", LogIndex.Level.ERROR, 0, 100);
+
+        assertEquals(2, hits.size());
+        assertEquals("\tat org.openmrs.api.patient.Loader.load(Loader.java:10)", hits.get(0).getLine());
+        assertEquals("2026-10-18 10:00:01 ERROR - Failed to load patient 42", hits.get(1).getLine());
+        assertEquals(LogIndex.Level.ERROR, hits.get(1).getLevel());
+        assertEquals(4, index.search("", null, 0, 100).size());
+    }
+
+    @Test
+    public void shouldFindTheWordsInAnyOrder() throws InterruptedException {
+        LogIndex index = new LogIndex(dir, Charset.defaultCharset());
+        index.start(LogIndex.DEFAULT_RETENTION_DAYS);
+        AsyncLogAppender appender = new AsyncLogAppender(dir, 16, 1024 * 1024, AsyncLogAppender.OverflowPolicy.BLOCK,
+                index);
+        appender.append("2026-10-18 10:00:01 ERROR - Failed to load patient 42\n");
+        appender.append("2026-10-18 10:00:02 ERROR - Failed to load patient 43\n");
+        assertTrue(appender.flush(10000));
+        appender.close();
+        assertTrue(index.sync(10000));
+
+        assertEquals(2, index.search("patient failed", null, 0, 100).size());
+        List<LogIndex.Hit> hits = index.search("42 patient failed", null, 0, 100);
+
+        assertEquals(1, hits.size());
+        assertEquals("2026-10-18 10:00:01 ERROR - Failed to load patient 42", hits.get(0).getLine());
+    }
+
+    @Test
+    public void shouldFindTheLinesOfCompressedLogFiles() throws InterruptedException {
+        LogIndex index = new LogIndex(dir, Charset.defaultCharset());
+        index.start(LogIndex.DEFAULT_RETENTION_DAYS);
+        AsyncLogAppender appender = new AsyncLogAppender(dir, 16, 100, AsyncLogAppender.OverflowPolicy.BLOCK, index);
+        appender.append("WARN - the disk is almost full, only a few megabytes are left on the device\n");
+        assertTrue(appender.flush(10000));
+        appender.append("INFO - nothing to see here, the server is running fine and the disk is fine\n");
+        assertTrue(appender.flush(10000));
+        appender.close();
+        assertTrue(index.sync(10000));
+
+        List<LogIndex.Hit> hits = index.search("almost full", LogIndex.Level.WARN, 0, 100);
+
+        assertEquals(1, hits.size());
+        assertTrue(hits.get(0).getFile().getName().endsWith(".1.log.gz"));
+        assertEquals("WARN - the disk is almost full, only a few megabytes are left on the device", hits.get(0).getLine());
+    }
+
+    @Test
+    public void shouldFindNumbersInRolledOverFilesWithTheirIndexOnDisk() throws InterruptedException {
+        LogIndex index = new LogIndex(dir, Charset.defaultCharset());
+        index.start(LogIndex.DEFAULT_RETENTION_DAYS);
+        AsyncLogAppender appender = new AsyncLogAppender(dir, 16, 100, AsyncLogAppender.OverflowPolicy.BLOCK, index);
+        appender.append("2026-10-18 10:00:01 ERROR - Failed to load patient 42 as the database is not reachable\n");
+        assertTrue(appender.flush(10000));
+        appender.append("2026-10-18 10:00:02 INFO - Loaded patient 43 once the database was reachable again\n");
+        assertTrue(appender.flush(10000));
+        appender.close();
+        assertTrue(index.sync(10000));
+
+        File[] indexes = new File(dir, LogIndex.INDEX_DIR).listFiles();
+        assertEquals(1, indexes.length);
+        assertTrue(indexes[0].getName().endsWith(".1.log.idx"));
+
+        // Read back from the index on disk rather than by scanning the compressed file
+        LogIndex reloaded = new LogIndex(dir, Charset.defaultCharset());
+        reloaded.start(LogIndex.DEFAULT_RETENTION_DAYS);
+        assertTrue(reloaded.sync(10000));
+
+        List<LogIndex.Hit> hits = reloaded.search("42", null, 0, 100);
+
+        assertEquals(1, hits.size());
+        assertTrue(hits.get(0).getFile().getName().endsWith(".1.log.gz"));
+        assertEquals(LogIndex.Level.ERROR, hits.get(0).getLevel());
+        assertEquals(2, reloaded.search("", null, 0, 100).size());
+        assertEquals(1, reloaded.search("reachable", LogIndex.Level.INFO, 0, 1).size());
+    }
+}
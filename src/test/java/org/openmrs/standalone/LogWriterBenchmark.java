@@ -0,0 +1,154 @@
+package org.openmrs.standalone;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Calendar;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares the {@link AsyncLogAppender} behind {@link LogWriter#write(String)} with the way
+ * LogWriter used to write, opening the log file for each write, with four threads logging lines
+ * of the given length.
+ * <p>
+ * This is not a unit test. Run its main method with the test classpath, for instance:
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=org.openmrs.standalone.LogWriterBenchmark
+ * </pre>
+ * Each invocation appends a batch of lines and then flushes, so the async figures include the time
+ * the writer thread takes to get the lines into the file. The written and dropped counters tell
+ * how many of the lines made it into the file, which for asyncDropping is less than its throughput.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+public class LogWriterBenchmark {
+
+    private static final int BATCH = 1000;
+
+    @Param({ "80", "400" })
+    public int lineLength;
+
+    private File dir;
+    private String line;
+    private AsyncLogAppender blocking;
+    private AsyncLogAppender dropping;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("log-writer-benchmark").toFile();
+        StringBuilder text = new StringBuilder("INFO - Hibernate: select patient0_.patient_id ");
+        while (text.length() < lineLength - 1) {
+            text.append('x');
+        }
+        line = text.append('\n').toString();
+        blocking = new AsyncLogAppender(new File(dir, "blocking"), AsyncLogAppender.DEFAULT_CAPACITY,
+                AsyncLogAppender.DEFAULT_MAX_FILE_SIZE, AsyncLogAppender.OverflowPolicy.BLOCK);
+        dropping = new AsyncLogAppender(new File(dir, "dropping"), AsyncLogAppender.DEFAULT_CAPACITY,
+                AsyncLogAppender.DEFAULT_MAX_FILE_SIZE, AsyncLogAppender.OverflowPolicy.DROP);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        blocking.close();
+        dropping.close();
+        FileUtils.deleteDirectory(dir);
+    }
+
+    /**
+     * The lines written and dropped by each thread.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Counters {
+
+        public long written;
+
+        public long dropped;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            written = 0;
+            dropped = 0;
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void fileWriterPerWrite(Counters counters) {
+        File logDir = new File(dir, "legacy");
+        for (int i = 0; i < BATCH; i++) {
+            writeWithFileWriter(logDir, line);
+        }
+        counters.written += BATCH;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void asyncBlocking(Counters counters) {
+        append(blocking, counters);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void asyncDropping(Counters counters) {
+        append(dropping, counters);
+    }
+
+    private void append(AsyncLogAppender appender, Counters counters) {
+        for (int i = 0; i < BATCH; i++) {
+            if (appender.append(line)) {
+                counters.written++;
+            } else {
+                counters.dropped++;
+            }
+        }
+        appender.flush(60000);
+    }
+
+    /**
+     * What LogWriter.write(String) used to do, for comparison.
+     */
+    private static void writeWithFileWriter(File logDir, String aString) {
+        try {
+            Calendar cal = Calendar.getInstance();
+            String fileName = cal.get(Calendar.YEAR) + "-" + (cal.get(Calendar.MONTH) + 1) + "-" + cal.get(Calendar.DATE)
+                    + ".log";
+            logDir.mkdirs();
+            FileWriter aWriter = new FileWriter(new File(logDir, fileName), true);
+            aWriter.write(aString);
+            aWriter.close();
+        } catch (Exception ex) {
+            // As LogWriter did
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder().include(LogWriterBenchmark.class.getSimpleName()).build()).run();
+    }
+}
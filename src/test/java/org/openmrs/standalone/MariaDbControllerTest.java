@@ -1,7 +1,9 @@
 package org.openmrs.standalone;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.fail;
 import static org.mockito.ArgumentMatchers.anyString;
@@ -13,7 +15,9 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.sql.Connection;
 import java.sql.DriverManager;
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.util.Properties;
 
 import org.apache.commons.io.FileUtils;
@@ -91,6 +95,42 @@ public class MariaDbControllerTest {
         }
     }
 
+    @Test
+    public void shouldRestartDurablyAfterBulkLoad() throws Exception {
+        try (MockedStatic<OpenmrsUtil> ignored = Mockito.mockStatic(OpenmrsUtil.class)) {
+            when(OpenmrsUtil.getRuntimeProperties(anyString())).thenReturn(properties);
+            when(OpenmrsUtil.getRuntimeProperties(Mockito.nullable(String.class))).thenReturn(properties);
+
+            try {
+                MariaDbController.startMariaDBForBulkLoad(MARIADB_PORT, ROOT_PASSWORD, "demodatabase.zip");
+                assertEquals(0, getFlushLogAtTrxCommit());
+                assertNull(MariaDbController.getInterruptedBulkLoad(), "A running bulk load is not interrupted");
+
+                // As if the import had failed
+                MariaDbController.endBulkLoad(false);
+                assertEquals("demodatabase.zip", MariaDbController.getInterruptedBulkLoad());
+
+                MariaDbController.startMariaDBForBulkLoad(MARIADB_PORT, ROOT_PASSWORD, "demodatabase.zip");
+                MariaDbController.endBulkLoad(true);
+                assertNull(MariaDbController.getInterruptedBulkLoad());
+
+                MariaDbController.startMariaDB(MARIADB_PORT, ROOT_PASSWORD);
+                assertEquals(1, getFlushLogAtTrxCommit());
+            } finally {
+                MariaDbController.stopMariaDB();
+            }
+        }
+    }
+
+    private int getFlushLogAtTrxCommit() throws SQLException {
+        try (Connection conn = DriverManager.getConnection(JDBC_URL, ROOT_USER, ROOT_PASSWORD);
+             Statement stmt = conn.createStatement();
+             ResultSet resultSet = stmt.executeQuery("SELECT @@GLOBAL.innodb_flush_log_at_trx_commit")) {
+            resultSet.next();
+            return resultSet.getInt(1);
+        }
+    }
+
     private void validateMariaDBRunning() {
         try (Connection conn = DriverManager.getConnection(JDBC_URL, ROOT_USER, ROOT_PASSWORD)) {
             assertNotNull(conn, "Connection to MariaDB should not be null");
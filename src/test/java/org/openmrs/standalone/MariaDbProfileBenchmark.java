@@ -0,0 +1,181 @@
+package org.openmrs.standalone;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.commons.io.FileUtils;
+
+import ch.vorburger.mariadb4j.DB;
+import ch.vorburger.mariadb4j.DBConfigurationBuilder;
+
+/**
+ * Compares the query latencies of MariaDB with each of the {@link MariaDbProfile}s, on an obs like
+ * table queried the way OpenMRS does: looking up the observations of a patient, counting those of a
+ * concept over a period, and grouping them by concept, which needs a temporary table. Prints the
+ * median and p99 latencies of each query with each profile.
+ * <p>
+ * This is not a unit test. Run its main method with the test classpath, for instance:
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=org.openmrs.standalone.MariaDbProfileBenchmark
+ * </pre>
+ * The number of rows, the number of concurrent clients and the duration of each run in seconds can
+ * be given as arguments, and default to 2000000 rows, 16 clients and 20 s. The profiles sized for
+ * more memory than the host has are best left out, by naming the profiles to run after those.
+ */
+public class MariaDbProfileBenchmark {
+
+    private static final int PORT = 33127;
+
+    private static final String URL = "jdbc:mariadb://127.0.0.1:" + PORT + "/bench";
+
+    private static final int PATIENTS = 50000;
+
+    private static final int CONCEPTS = 2000;
+
+    private static final String[] QUERIES = {
+            "SELECT obs_id, concept_id, value_numeric FROM obs WHERE person_id = ? ORDER BY obs_datetime DESC",
+            "SELECT COUNT(*), AVG(value_numeric) FROM obs WHERE concept_id = ? AND obs_datetime > NOW() - INTERVAL 365 DAY",
+            "SELECT concept_id, COUNT(*) AS n FROM obs WHERE person_id BETWEEN ? AND ? + 500 GROUP BY concept_id ORDER BY n DESC" };
+
+    private static final String[] QUERY_NAMES = { "patient obs", "concept count", "group by concept" };
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 2000000;
+        int concurrency = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+        String[] profiles = args.length > 3 ? Arrays.copyOfRange(args, 3, args.length)
+                : new String[] { "default", MariaDbProfile.LAPTOP, MariaDbProfile.CLINIC_SERVER,
+                        MariaDbProfile.LARGE_SERVER, MariaDbProfile.AUTO };
+
+        System.out.println(rows + " rows, " + concurrency + " clients, " + seconds + " s per run, "
+                + Runtime.getRuntime().availableProcessors() + " cores");
+        for (String profile : profiles) {
+            run(profile, rows, concurrency, seconds);
+        }
+    }
+
+    private static void run(String profile, int rows, int concurrency, int seconds) throws Exception {
+        File baseDir = Files.createTempDirectory("mariadb-benchmark").toFile();
+        DBConfigurationBuilder config = DBConfigurationBuilder.newBuilder();
+        config.setPort(PORT);
+        config.setBaseDir(new File(baseDir, "base"));
+        config.setDataDir(new File(baseDir, "data"));
+        if (!"default".equals(profile)) {
+            Properties properties = new Properties();
+            properties.setProperty(MariaDbProfile.KEY_PROFILE, profile);
+            for (String arg : MariaDbProfile.getArguments(properties)) {
+                config.addArg(arg);
+            }
+        }
+        DB db = DB.newEmbeddedDB(config.build());
+        db.start();
+        try {
+            db.createDB("bench");
+            load(rows);
+
+            // Warm up the buffer pool and the caches, then measure
+            measure(concurrency, Math.max(1, seconds / 4));
+            List<List<Long>> latencies = measure(concurrency, seconds);
+
+            StringBuilder line = new StringBuilder(String.format("%-14s", profile));
+            for (int i = 0; i < QUERIES.length; i++) {
+                List<Long> times = latencies.get(i);
+                Collections.sort(times);
+                line.append(String.format("  %s: median %.2f ms, p99 %.2f ms (%d)", QUERY_NAMES[i],
+                        percentile(times, 50) / 1e6, percentile(times, 99) / 1e6, times.size()));
+            }
+            System.out.println(line);
+        } finally {
+            db.stop();
+            FileUtils.deleteDirectory(baseDir);
+        }
+    }
+
+    private static void load(int rows) throws Exception {
+        try (Connection connection = DriverManager.getConnection(URL, "root", "");
+                Statement stmt = connection.createStatement()) {
+            stmt.execute("CREATE TABLE obs (obs_id INT PRIMARY KEY AUTO_INCREMENT, person_id INT NOT NULL, "
+                    + "concept_id INT NOT NULL, value_numeric DOUBLE, obs_datetime DATETIME NOT NULL, "
+                    + "comments VARCHAR(255), KEY obs_person (person_id), KEY obs_concept (concept_id, obs_datetime))");
+            stmt.execute("INSERT INTO obs (person_id, concept_id, value_numeric, obs_datetime, comments) "
+                    + "SELECT seq % " + PATIENTS + ", (seq * 7919) % " + CONCEPTS + ", seq / 7, "
+                    + "NOW() - INTERVAL (seq % 3650) DAY, REPEAT('x', seq % 100) FROM seq_1_to_" + rows);
+            stmt.execute("ANALYZE TABLE obs");
+        }
+    }
+
+    private static List<List<Long>> measure(int concurrency, int seconds) throws Exception {
+        final long end = System.nanoTime() + seconds * 1000000000L;
+        ExecutorService executor = Executors.newFixedThreadPool(concurrency);
+        List<Future<List<List<Long>>>> clients = new ArrayList<Future<List<List<Long>>>>();
+        for (int c = 0; c < concurrency; c++) {
+            final long seed = c;
+            clients.add(executor.submit(() -> {
+                Random random = new Random(seed);
+                List<List<Long>> latencies = newLatencies();
+                try (Connection connection = DriverManager.getConnection(URL, "root", "")) {
+                    List<PreparedStatement> statements = new ArrayList<PreparedStatement>();
+                    for (String query : QUERIES) {
+                        statements.add(connection.prepareStatement(query));
+                    }
+                    for (int n = 0; System.nanoTime() < end; n++) {
+                        int query = n % QUERIES.length;
+                        PreparedStatement statement = statements.get(query);
+                        int value = random.nextInt(query == 1 ? CONCEPTS : PATIENTS);
+                        statement.setInt(1, value);
+                        if (query == 2) {
+                            statement.setInt(2, value);
+                        }
+                        long start = System.nanoTime();
+                        try (ResultSet resultSet = statement.executeQuery()) {
+                            while (resultSet.next()) {
+                                // Fetch every row, as the application would
+                            }
+                        }
+                        latencies.get(query).add(System.nanoTime() - start);
+                    }
+                }
+                return latencies;
+            }));
+        }
+
+        List<List<Long>> latencies = newLatencies();
+        for (Future<List<List<Long>>> client : clients) {
+            List<List<Long>> clientLatencies = client.get();
+            for (int i = 0; i < QUERIES.length; i++) {
+                latencies.get(i).addAll(clientLatencies.get(i));
+            }
+        }
+        executor.shutdown();
+        return latencies;
+    }
+
+    private static List<List<Long>> newLatencies() {
+        List<List<Long>> latencies = new ArrayList<List<Long>>();
+        for (int i = 0; i < QUERIES.length; i++) {
+            latencies.add(new ArrayList<Long>());
+        }
+        return latencies;
+    }
+
+    private static long percentile(List<Long> sorted, int percentile) {
+        if (sorted.isEmpty()) {
+            return 0;
+        }
+        return sorted.get(Math.min(sorted.size() - 1, sorted.size() * percentile / 100));
+    }
+}
@@ -0,0 +1,44 @@
+package org.openmrs.standalone;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import org.junit.jupiter.api.Test;
+
+public class MariaDbProfileTest {
+
+    private static final long GB = 1024L * 1024 * 1024;
+
+    @Test
+    public void shouldLetTheRuntimePropertiesOverrideTheProfile() {
+        Properties properties = new Properties();
+        properties.setProperty(MariaDbProfile.KEY_PROFILE, MariaDbProfile.CLINIC_SERVER);
+        properties.setProperty(MariaDbProfile.KEY_OPTION_PREFIX + "innodb_buffer_pool_size", "3G");
+        properties.setProperty(MariaDbProfile.KEY_OPTION_PREFIX + "thread_handling", "");
+        properties.setProperty(MariaDbProfile.KEY_OPTION_PREFIX + "innodb_flush_log_at_trx_commit", "2");
+
+        List<String> arguments = MariaDbProfile.getArguments(properties);
+
+        assertTrue(arguments.contains("--innodb_buffer_pool_size=3G"));
+        assertTrue(arguments.contains("--innodb_log_file_size=512M"));
+        assertTrue(arguments.contains("--innodb_flush_log_at_trx_commit=2"));
+        assertFalse(arguments.stream().anyMatch(argument -> argument.startsWith("--thread_handling=")));
+    }
+
+    @Test
+    public void shouldSizeTheBufferPoolForTheHostLeavingRoomForTheHeap() {
+        Map<String, String> small = MariaDbProfile.getAutoOptions(2 * GB, GB / 2, 2);
+        Map<String, String> large = MariaDbProfile.getAutoOptions(16 * GB, GB, 8);
+
+        assertEquals("256M", small.get("innodb_buffer_pool_size"));
+        assertEquals("one-thread-per-connection", small.get("thread_handling"));
+        assertEquals("4736M", large.get("innodb_buffer_pool_size"));
+        assertEquals("pool-of-threads", large.get("thread_handling"));
+        assertEquals(large.get("tmp_table_size"), large.get("max_heap_table_size"));
+    }
+}
@@ -0,0 +1,52 @@
+package org.openmrs.standalone;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+
+import org.junit.jupiter.api.Test;
+
+public class PortAllocatorTest {
+
+    @Test
+    public void shouldHoldTheReservedPortUntilReleased() throws IOException {
+        int free = PortAllocator.reserveFrom(42000);
+        PortAllocator.release(free);
+        try (ServerSocket taken = new ServerSocket(free)) {
+            int port = PortAllocator.reserveFrom(taken.getLocalPort());
+
+            assertTrue(port > taken.getLocalPort(), "A port someone listens on should be skipped");
+            assertTrue(PortAllocator.isReserved(port));
+            assertThrows(IOException.class, () -> new ServerSocket(port).close());
+
+            PortAllocator.release(port);
+
+            assertFalse(PortAllocator.isReserved(port));
+            try (ServerSocket server = new ServerSocket()) {
+                server.setReuseAddress(true);
+                server.bind(new InetSocketAddress(port));
+                assertEquals(port, server.getLocalPort());
+            }
+        }
+    }
+
+    @Test
+    public void shouldNotHandOutTheSamePortTwice() {
+        int first = PortAllocator.reserveFrom(41000);
+        int second = PortAllocator.reserveFrom(first);
+        int third = PortAllocator.reserveFrom(first + 1);
+        try {
+            assertEquals(first, second, "A port reserved here is available to whoever reserves it again");
+            assertTrue(third > first);
+        } finally {
+            PortAllocator.retainOnly();
+        }
+        assertFalse(PortAllocator.isReserved(first));
+        assertFalse(PortAllocator.isReserved(third));
+    }
+}
@@ -0,0 +1,94 @@
+package org.openmrs.standalone;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Properties;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class RuntimeConfigTest {
+
+    private File dir;
+    private File file;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("runtime-config-test").toFile();
+        file = new File(dir, "openmrs-runtime.properties");
+        write("tomcatport=8081\n");
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(dir);
+    }
+
+    @Test
+    public void shouldHandOutSnapshotsWhichCannotBeChanged() {
+        RuntimeConfig config = new RuntimeConfig(file);
+        Properties properties = config.getProperties();
+
+        assertEquals("8081", properties.getProperty("tomcatport"));
+        assertThrows(UnsupportedOperationException.class, () -> properties.setProperty("tomcatport", "8082"));
+        assertThrows(UnsupportedOperationException.class, () -> properties.entrySet().clear());
+
+        Properties copy = config.copy();
+        copy.setProperty("tomcatport", "8082");
+        config.store(copy);
+
+        assertEquals("8081", properties.getProperty("tomcatport"));
+        assertEquals("8082", config.getProperties().getProperty("tomcatport"));
+        assertEquals("8082", OpenmrsUtil.loadRuntimeProperties(file).getProperty("tomcatport"));
+        assertEquals(1, dir.list().length, "The temporary file should have replaced the runtime properties file");
+    }
+
+    @Test
+    public void shouldStoreWithoutFindingTheRuntimePropertiesFirst() {
+        Properties properties = new Properties();
+        properties.setProperty("tomcatport", "8083");
+
+        // As when OpenmrsUtil is mocked, and no runtime properties were ever read for the application
+        RuntimeConfig.store(file, properties, "runtime-config-test");
+
+        assertEquals("8083", OpenmrsUtil.loadRuntimeProperties(file).getProperty("tomcatport"));
+        assertEquals(1, dir.list().length);
+    }
+
+    @Test
+    public void shouldReloadWhenTheFileIsChanged() throws Exception {
+        RuntimeConfig config = new RuntimeConfig(file);
+        config.watch();
+
+        write("tomcatport=9090\nvm_arguments=-Xmx1g\n");
+
+        long deadline = System.currentTimeMillis() + 10000;
+        while (!"9090".equals(config.getProperties().getProperty("tomcatport")) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        assertEquals("9090", config.getProperties().getProperty("tomcatport"));
+        assertEquals("-Xmx1g", config.getProperties().getProperty("vm_arguments"));
+    }
+
+    @Test
+    public void shouldBeEmptyWithoutAFile() {
+        assertTrue(file.delete());
+        RuntimeConfig config = new RuntimeConfig(file);
+
+        assertFalse(config.exists());
+        assertTrue(config.getProperties().isEmpty());
+    }
+
+    private void write(String text) throws IOException {
+        Files.write(file.toPath(), text.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,60 @@
+package org.openmrs.standalone;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+public class SqlStatementReaderTest {
+
+    @Test
+    public void shouldSplitMariaDbDumpIntoStatements() throws IOException {
+        String script = "/*M!999999\\- enable the sandbox mode */ \n"
+                + "-- MariaDB dump 10.19\n"
+                + "/*!40101 SET NAMES utf8mb4 */;\n"
+                + "# a hash comment\n"
+                + "INSERT INTO `person` VALUES (1,'semi;colon','it\\'s'),(2,'it''s');\n"
+                + "/* a plain comment; with a semicolon */ LOCK TABLES `person` WRITE;\n"
+                + "DELIMITER ;;\n"
+                + "/*!50003 CREATE*/ TRIGGER t BEFORE INSERT ON `person` FOR EACH ROW BEGIN SET @a = 1; END */;;\n"
+                + "DELIMITER ;\n"
+                + "SELECT \"quoted;\" -- trailing comment\n"
+                + ";\n"
+                + "SELECT 'no delimiter at the end'";
+
+        assertEquals(Arrays.asList(
+                "/*!40101 SET NAMES utf8mb4 */",
+                "INSERT INTO `person` VALUES (1,'semi;colon','it\\'s'),(2,'it''s')",
+                "LOCK TABLES `person` WRITE",
+                "/*!50003 CREATE*/ TRIGGER t BEFORE INSERT ON `person` FOR EACH ROW BEGIN SET @a = 1; END */",
+                "SELECT \"quoted;\"",
+                "SELECT 'no delimiter at the end'"), readAll(script));
+    }
+
+    @Test
+    public void shouldReadStatementsLongerThanTheBuffer() throws IOException {
+        StringBuilder value = new StringBuilder();
+        for (int i = 0; i < 100000; i++) {
+            value.append("x;");
+        }
+        String statement = "INSERT INTO `obs` VALUES ('" + value + "')";
+
+        assertEquals(Arrays.asList(statement, "COMMIT"), readAll(statement + ";\nCOMMIT;\n"));
+    }
+
+    private List<String> readAll(String script) throws IOException {
+        List<String> statements = new ArrayList<>();
+        try (SqlStatementReader reader = new SqlStatementReader(new StringReader(script))) {
+            String statement;
+            while ((statement = reader.next()) != null) {
+                statements.add(statement);
+            }
+        }
+        return statements;
+    }
+}
@@ -189,4 +189,66 @@ class StandaloneUtilTest {
             }
         }
     }
+
+    @Test
+    public void shouldKeepMariaDBRunningFromImportThroughPasswordReset() throws Exception {
+        Path tempDirectory = Files.createTempDirectory("openmrsTest");
+        Path propertiesFile = tempDirectory.resolve("runtime.properties");
+        try (MockedStatic<OpenmrsUtil> mockUtil = Mockito.mockStatic(OpenmrsUtil.class)) {
+            when(OpenmrsUtil.getRuntimeProperties(anyString())).thenReturn(properties);
+            when(OpenmrsUtil.getRuntimeProperties(Mockito.nullable(String.class))).thenReturn(properties);
+            when(OpenmrsUtil.getRuntimePropertiesPathName()).thenReturn(propertiesFile.toString());
+
+            // The old way: one cold start for the import, one for the password reset and one to serve
+            properties.setProperty(KEY_RESET_CONNECTION_PASSWORD, "true");
+            long start = System.currentTimeMillis();
+            try {
+                StandaloneUtil.startupDatabaseToCreateDefaultUser(MARIADB_PORT);
+                StandaloneUtil.setPortsAndMySqlPassword(null, null);
+                MariaDbController.startMariaDB(MARIADB_PORT, properties.getProperty(KEY_CONNECTION_PASSWORD));
+            } finally {
+                MariaDbController.stopMariaDB();
+            }
+            long separateStartsMillis = System.currentTimeMillis() - start;
+
+            FileUtils.deleteDirectory(tempBaseDir.resolve(DATA_DIR_NAME).toFile());
+            properties.setProperty(KEY_CONNECTION_PASSWORD, TEST_PASSWORD);
+            properties.setProperty(KEY_RESET_CONNECTION_PASSWORD, "true");
+
+            // The provisioning session: a single start from the import until serving
+            start = System.currentTimeMillis();
+            try {
+                StandaloneUtil.startupDatabaseToCreateDefaultUser(MARIADB_PORT, true);
+                assertTrue(MariaDbController.isRunning(), "MariaDB should be kept running after the import");
+
+                // A global variable set at runtime only survives for as long as the mysqld process does
+                try (Connection connection = DriverManager.getConnection(DEFAULT_URL, ROOT_USER, MariaDbController.getRootPassword());
+                     Statement stmt = connection.createStatement()) {
+                    stmt.execute("SET GLOBAL max_connect_errors = 4242");
+                }
+
+                StandaloneUtil.setPortsAndMySqlPassword(null, null);
+                assertTrue(MariaDbController.isRunning(), "MariaDB should still be running after the password reset");
+
+                String newPassword = properties.getProperty(KEY_CONNECTION_PASSWORD);
+                assertNotEquals(TEST_PASSWORD, newPassword);
+                MariaDbController.startMariaDB(MARIADB_PORT, newPassword);
+                long sessionMillis = System.currentTimeMillis() - start;
+
+                try (Connection connection = DriverManager.getConnection(DEFAULT_URL, USERNAME, newPassword);
+                     Statement stmt = connection.createStatement()) {
+                    ResultSet resultSet = stmt.executeQuery("SELECT @@GLOBAL.max_connect_errors");
+                    assertTrue(resultSet.next());
+                    assertEquals(4242, resultSet.getInt(1), "MariaDB should not have been restarted");
+                }
+
+                System.out.println("Provisioning with separate MariaDB starts took " + separateStartsMillis
+                        + " ms, in a single session " + sessionMillis + " ms");
+            } finally {
+                MariaDbController.stopMariaDB();
+                Files.deleteIfExists(propertiesFile);
+                Files.deleteIfExists(tempDirectory);
+            }
+        }
+    }
 }
\ No newline at end of file
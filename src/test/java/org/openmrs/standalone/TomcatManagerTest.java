@@ -0,0 +1,152 @@
+package org.openmrs.standalone;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.net.URL;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Properties;
+import java.util.zip.GZIPInputStream;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.connector.Connector;
+import org.apache.catalina.startup.Tomcat;
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class TomcatManagerTest {
+
+    private static final String SMALL_JSON = "{\"results\":[]}";
+
+    private static final String LARGE_JSON = buildLargeJson();
+
+    private File baseDir;
+    private Tomcat tomcat;
+    private Context context;
+    private int port;
+
+    public static class JsonServlet extends HttpServlet {
+
+        private final String json;
+
+        JsonServlet(String json) {
+            this.json = json;
+        }
+
+        @Override
+        protected void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+            response.setContentType("application/json");
+            response.setCharacterEncoding("UTF-8");
+            response.getWriter().write(json);
+        }
+    }
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        baseDir = Files.createTempDirectory("tomcat-manager-test").toFile();
+        tomcat = new Tomcat();
+        tomcat.setBaseDir(baseDir.getAbsolutePath());
+        context = tomcat.addContext("/openmrs", baseDir.getAbsolutePath());
+        Tomcat.addServlet(context, "large", new JsonServlet(LARGE_JSON));
+        Tomcat.addServlet(context, "small", new JsonServlet(SMALL_JSON));
+        context.addServletMappingDecoded("/large", "large");
+        context.addServletMappingDecoded("/small", "small");
+
+        Connector connector = new Connector();
+        connector.setPort(0);
+        connector.setURIEncoding("UTF-8");
+        Properties properties = new Properties();
+        properties.setProperty(TomcatManager.KEY_CACHE_MAX_SIZE, "51200");
+        TomcatManager.applyPerformanceProfile(connector, context, properties);
+        tomcat.getService().addConnector(connector);
+        tomcat.start();
+        port = connector.getLocalPort();
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        tomcat.stop();
+        tomcat.destroy();
+        FileUtils.deleteDirectory(baseDir);
+    }
+
+    @Test
+    public void shouldCompressLargeJsonResponses() throws IOException {
+        HttpURLConnection connection = open("/large");
+        assertEquals("gzip", connection.getHeaderField("Content-Encoding"));
+        try (InputStream in = new GZIPInputStream(connection.getInputStream())) {
+            assertEquals(LARGE_JSON, read(in));
+        }
+    }
+
+    @Test
+    public void shouldNotCompressResponsesBelowTheMinimumSize() throws IOException {
+        HttpURLConnection connection = open("/small");
+        assertNull(connection.getHeaderField("Content-Encoding"));
+        try (InputStream in = connection.getInputStream()) {
+            assertEquals(SMALL_JSON, read(in));
+        }
+    }
+
+    @Test
+    public void shouldUpgradeToHttp2OverPlainText() throws Exception {
+        HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_2).build();
+        HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:" + port + "/openmrs/large")).build();
+
+        HttpResponse<String> first = client.send(request, HttpResponse.BodyHandlers.ofString());
+        assertEquals(LARGE_JSON, first.body());
+
+        // The first request is upgraded, the next ones go over the HTTP/2 connection
+        HttpResponse<String> second = client.send(request, HttpResponse.BodyHandlers.ofString());
+        assertEquals(HttpClient.Version.HTTP_2, second.version());
+        assertEquals(LARGE_JSON, second.body());
+    }
+
+    @Test
+    public void shouldUseTheConfiguredResourceCacheSize() {
+        assertEquals(51200L, context.getResources().getCacheMaxSize());
+    }
+
+    private HttpURLConnection open(String path) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL("http://localhost:" + port + "/openmrs" + path)
+                .openConnection();
+        connection.setRequestProperty("Accept-Encoding", "gzip");
+        assertEquals(200, connection.getResponseCode());
+        return connection;
+    }
+
+    private static String read(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int count;
+        while ((count = in.read(buffer)) != -1) {
+            out.write(buffer, 0, count);
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static String buildLargeJson() {
+        StringBuilder json = new StringBuilder("{\"results\":[");
+        for (int i = 0; i < 200; i++) {
+            json.append(i > 0 ? "," : "").append("{\"uuid\":\"").append(i).append("\",\"display\":\"Patient ").append(i)
+                    .append("\"}");
+        }
+        return json.append("]}").toString();
+    }
+}
@@ -0,0 +1,51 @@
+package org.openmrs.standalone;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+
+public class VmArgumentsTest {
+
+    private static final String DEFAULT_VM_ARGUMENTS = "-Xmx512m -Xms512m -XX:NewSize=128m --add-exports=java.desktop/com.apple.eawt=ALL-UNNAMED";
+
+    @Test
+    public void shouldBeSatisfiedByALargerHeapAndTheSameModuleOptions() {
+        assertTrue(VmArguments.isSatisfied(DEFAULT_VM_ARGUMENTS,
+                Arrays.asList("-Xms1g", "-Xmx2g", "--add-exports", "java.desktop/com.apple.eawt=ALL-UNNAMED")));
+        assertTrue(VmArguments.isSatisfied(DEFAULT_VM_ARGUMENTS,
+                Arrays.asList("-XX:MaxHeapSize=536870912", "--add-exports=java.desktop/com.apple.eawt=ALL-UNNAMED")));
+    }
+
+    @Test
+    public void shouldNotBeSatisfiedByASmallerHeap() {
+        assertFalse(VmArguments.isSatisfied(DEFAULT_VM_ARGUMENTS,
+                Arrays.asList("-Xmx256m", "--add-exports=java.desktop/com.apple.eawt=ALL-UNNAMED")));
+        assertFalse(VmArguments.isSatisfied(DEFAULT_VM_ARGUMENTS,
+                Arrays.asList("--add-exports=java.desktop/com.apple.eawt=ALL-UNNAMED")));
+    }
+
+    @Test
+    public void shouldNotBeSatisfiedWithoutTheOtherOptions() {
+        assertFalse(VmArguments.isSatisfied(DEFAULT_VM_ARGUMENTS, Arrays.asList("-Xmx1g")));
+        assertFalse(VmArguments.isSatisfied("-Xmx512m --add-opens java.base/java.lang=ALL-UNNAMED",
+                Arrays.asList("-Xmx1g", "--add-opens=java.base/java.io=ALL-UNNAMED")));
+    }
+
+    @Test
+    public void shouldSplitBlankArgumentsIntoNone() {
+        assertEquals(0, VmArguments.split("  ").size());
+        assertEquals(Arrays.asList("-Xmx1g", "-Xms1g"), VmArguments.split(" -Xmx1g \t -Xms1g "));
+    }
+
+    @Test
+    public void shouldParseSizes() {
+        assertEquals(512L * 1024 * 1024, VmArguments.parseSize("512m"));
+        assertEquals(2L * 1024 * 1024 * 1024, VmArguments.parseSize("2G"));
+        assertEquals(1024, VmArguments.parseSize("1024"));
+        assertEquals(-1, VmArguments.parseSize("lots"));
+    }
+}